@@ -0,0 +1,33 @@
+package org.mongodb.banking;
+
+/**
+ * The state of one account at the time a snapshot of every account is taken.
+ * The balance of an unavailable account is not reported, so it is null.
+ */
+public class AccountState {
+
+    private final String bankName;
+    private final Integer balance;
+    private final boolean available;
+
+    public AccountState(String bankName, Integer balance, boolean available) {
+        this.bankName = bankName;
+        this.balance = balance;
+        this.available = available;
+    }
+
+    public String getBankName() {
+        return bankName;
+    }
+
+    /**
+     * Returns the balance, or null if the account is unavailable.
+     */
+    public Integer getBalance() {
+        return balance;
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+}
@@ -1,11 +1,28 @@
 package org.mongodb.banking;
 
+import org.bson.Document;
+import org.mongodb.banking.exceptions.AccountUnavailableException;
+import org.mongodb.banking.exceptions.DuplicateTransactionException;
 import org.mongodb.banking.exceptions.InsufficientFundsException;
+import org.mongodb.banking.exceptions.NoSuchAccountException;
+import org.mongodb.banking.exceptions.VersionConflictException;
+import org.mongodb.banking.idempotency.IdempotencyCache;
+import org.mongodb.banking.repository.AsyncBankRepository;
 import org.mongodb.banking.repository.BankRepository;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,84 +32,884 @@ public class Bank {
 
     private final String name;
     private int balance;
-    private final Map<String, String> requests = new HashMap<>();
+    // Guards the balance, pending requests and queue. This is a ReentrantLock,
+    // rather than a monitor, so that a virtual thread waiting for it does not
+    // pin its carrier thread.
+    private final ReentrantLock lock = new ReentrantLock();
+    // the keys with a write in progress, or null if there are none, since
+    // most accounts have none most of the time
+    private Set<String> pendingRequests;
+    private int reserved; // the net change of the transactions with a write in progress
+
+    // The version of the account in the repository that the balance reflects,
+    // counting every write made through this instance, so that a change made
+    // elsewhere can be recognized by its newer version, and so that a batch in
+    // group commit mode, which is only checked against this balance, is only
+    // written if the account is still at this version. A change that arrives
+    // while writes are in progress is held until they finish.
+    private long version;
+    private long changedVersion;
+    private int changedBalance;
     private final BankRepository repository;
+    private final AsyncBankRepository asyncRepository; // null if writes are synchronous
+    private final IdempotencyCache requests;
+
+    private static final TransactionIdGenerator ids = TransactionIdGenerator.getDefault();
+
+    // the most transactions written by one repository update
+    private static final int MAX_TRANSACTIONS_PER_WRITE = 64;
+
+    // writes the batches accepted in direct mode, so that the thread that
+    // submitted them, such as a request handler, does not wait for the write
+    private static final AtomicInteger batchWriterCount = new AtomicInteger();
+    private static final ExecutorService BATCH_WRITERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "batch-write-" + batchWriterCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the most times a batch is written, if the account keeps being changed
+    // elsewhere before the write
+    private static final int MAX_WRITE_ATTEMPTS = 10;
+
+    // used only in group commit mode (otherwise, all of these are null)
+    private final GroupCommitter committer;
+    private final ReentrantLock flushLock; // held while writing a batch
+    private List<PendingTransaction> queue;
+
+    // Used by BankCache, which may only evict an instance that nothing is
+    // using: the number of operations using this instance, or -1 once it has
+    // been evicted, and when it was last used, from System.nanoTime.
+    private volatile int users;
+    private volatile long lastUsed = System.nanoTime();
+    private static final AtomicIntegerFieldUpdater<Bank> USERS = AtomicIntegerFieldUpdater.newUpdater(Bank.class, "users");
 
     public Bank(String name, BankRepository repository) {
+        this(name, repository, new IdempotencyCache(repository));
+    }
+
+    public Bank(String name, BankRepository repository, IdempotencyCache requests) {
+        this(name, repository, requests, null);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param name the name of the account
+     * @param repository provides access to the account
+     * @param requests tracks the idempotency keys of previous requests
+     * @param committer if not null, transactions are written in batches
+     *        scheduled by this committer, rather than one at a time
+     */
+    public Bank(String name, BankRepository repository, IdempotencyCache requests, GroupCommitter committer) {
+        this(name, repository, requests, committer, null);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param name the name of the account
+     * @param repository provides access to the account
+     * @param requests tracks the idempotency keys of previous requests
+     * @param committer if not null, transactions are written in batches
+     *        scheduled by this committer, rather than one at a time
+     * @param asyncRepository if not null, individual transactions are written
+     *        through this, so that no thread waits for the write
+     * @throws NoSuchAccountException if the account does not exist, which is
+     *         never created here, so that loading an account that was just
+     *         deleted cannot bring it back
+     */
+    public Bank(String name, BankRepository repository, IdempotencyCache requests, GroupCommitter committer,
+            AsyncBankRepository asyncRepository) {
         logger.debug("Creating new bank named {}", name);
 
         this.name = name;
         this.repository = repository;
+        this.asyncRepository = asyncRepository;
+        this.requests = requests;
+        this.committer = committer;
+        this.flushLock = (committer != null) ? new ReentrantLock() : null;
+        this.queue = (committer != null) ? new ArrayList<>() : null;
 
         var account = repository.findAccountByBankName(name);
         if (account == null) {
-            repository.createAccount(name, 0);
-            this.balance = 0;
-        } else {
-            this.balance = account.getInteger("balance");
+            throw new NoSuchAccountException(name);
         }
+        this.balance = account.getInteger("balance");
+        this.version = versionOf(account);
+    }
+
+    /**
+     * Returns the version of an account read from the repository, which is
+     * incremented by every change to it.
+     */
+    static long versionOf(Document account) {
+        Number version = account.get("version", Number.class);
+        return (version == null) ? 0 : version.longValue();
     }
 
     public String getName() {
         return name;
     }
 
-    public synchronized int getBalance() {
-        return balance;
+    /**
+     * Returns the balance as of the last successful write, which excludes any
+     * deposits and withdrawals that are still being written. Since a deposit or
+     * withdrawal does not return until it is written, the balance read after it
+     * returns always reflects it.
+     */
+    public int getBalance() {
+        lock.lock();
+        try {
+            return balance - reserved;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized String deposit(int amount, String idempotencyKey) {
+    public String deposit(int amount, String idempotencyKey) {
         logger.info("Bank '{}': deposit for {}, key is {}", name, amount, idempotencyKey);
 
         if (amount < 1) {
             throw new IllegalArgumentException("Invalid deposit amount: " + amount);
         }
 
-        if (requests.containsKey(idempotencyKey)) {
-            return requests.get(idempotencyKey);
-        }
-
-        balance += amount;
-        String txID = generateTransactionID("D", 10);
-        requests.put(idempotencyKey, txID);
-
-        repository.updateBalance(name, balance);
-        repository.logTransaction("deposit", amount, txID, idempotencyKey, name);
+        String txID = applyTransaction("deposit", amount, idempotencyKey);
 
         logger.debug("Bank '{}': deposit for {}, key is {}", name, amount, idempotencyKey);
         return txID;
     }
 
-    public synchronized String withdraw(int amount, String idempotencyKey) {
+    public String withdraw(int amount, String idempotencyKey) {
         logger.info("Bank '{}': withdraw for {}, key is {}", name, amount, idempotencyKey);
 
         if (amount < 1) {
             throw new IllegalArgumentException("Invalid withdrawal amount: " + amount);
         }
 
-        if (amount > balance) {
-            throw new InsufficientFundsException("Insufficient funds: balance=" + balance + ", withdrawal=" + amount);
+        return applyTransaction("withdraw", amount, idempotencyKey);
+    }
+
+    /**
+     * Deposits the amount, as deposit does, but without waiting for the write.
+     *
+     * @return a future that completes with the transaction ID once the deposit
+     *         is written, or exceptionally if it was rejected or not written
+     */
+    public CompletableFuture<String> depositAsync(int amount, String idempotencyKey) {
+        logger.info("Bank '{}': async deposit for {}, key is {}", name, amount, idempotencyKey);
+
+        if (amount < 1) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid deposit amount: " + amount));
         }
+        return applyTransactionAsync("deposit", amount, idempotencyKey);
+    }
+
+    /**
+     * Withdraws the amount, as withdraw does, but without waiting for the write.
+     *
+     * @return a future that completes with the transaction ID once the
+     *         withdrawal is written, or exceptionally if it was rejected or
+     *         not written
+     */
+    public CompletableFuture<String> withdrawAsync(int amount, String idempotencyKey) {
+        logger.info("Bank '{}': async withdraw for {}, key is {}", name, amount, idempotencyKey);
 
-        if (requests.containsKey(idempotencyKey)) {
-            return requests.get(idempotencyKey);
+        if (amount < 1) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid withdrawal amount: " + amount));
         }
+        return applyTransactionAsync("withdraw", amount, idempotencyKey);
+    }
 
-        balance -= amount;
-        String txID = generateTransactionID("W", 10);
-        requests.put(idempotencyKey, txID);
+    /**
+     * Applies a deposit or withdrawal, waiting until it has been written.
+     */
+    private String applyTransaction(String type, int amount, String idempotencyKey) {
+        // this may involve I/O, so do it before taking the lock
+        String previousTxID = requests.lookup(name, idempotencyKey);
+        if (previousTxID != null) {
+            return previousTxID;
+        }
+
+        return awaitCommit(submit(type, amount, idempotencyKey));
+    }
+
+    /**
+     * Applies a deposit or withdrawal without blocking, if there is an
+     * asynchronous repository through which to look up its key. Otherwise,
+     * looking it up may block, but only if the key might have been used.
+     */
+    private CompletableFuture<String> applyTransactionAsync(String type, int amount, String idempotencyKey) {
+        CompletableFuture<String> previousTxID;
+        if (asyncRepository != null) {
+            previousTxID = requests.lookupAsync(name, idempotencyKey, asyncRepository);
+        } else {
+            try {
+                previousTxID = CompletableFuture.completedFuture(requests.lookup(name, idempotencyKey));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        return previousTxID.thenCompose(txID -> txID != null
+            ? CompletableFuture.completedFuture(txID)
+            : submit(type, amount, idempotencyKey));
+    }
+
+    /**
+     * Checks a deposit or withdrawal whose key was not found, and starts
+     * writing it. The lock is only held while checking the request and
+     * reserving the change to the in-memory balance. The repository write
+     * happens outside of it, which is safe because the write is a relative
+     * (and, for withdrawals, conditional) update. If that write fails, the
+     * reservation is reversed. In group commit mode, the transaction is queued
+     * instead. Only a synchronous write blocks the calling thread.
+     *
+     * @return a future that completes with the transaction ID once written
+     * @throws RuntimeException if the request is rejected before writing
+     */
+    private CompletableFuture<String> submit(String type, int amount, String idempotencyKey) {
+        PendingTransaction pending;
+        lock.lock();
+        try {
+            // check again, in case an earlier request with this key just finished
+            String previousTxID = requests.get(name, idempotencyKey);
+            if (previousTxID != null) {
+                return CompletableFuture.completedFuture(previousTxID);
+            }
+
+            pending = reserve(type, amount, idempotencyKey);
+            if (committer != null) {
+                queue.add(pending);
+                if (queue.size() == 1) {
+                    committer.scheduleFlush(this);
+                } else if (queue.size() >= committer.getMaxBatchSize()) {
+                    committer.flushNow(this);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (committer != null) {
+            return pending.result.copy();
+        }
 
-        repository.updateBalance(name, balance);
-        repository.logTransaction("withdraw", amount, txID, idempotencyKey, name);
+        if (asyncRepository != null) {
+            return asyncRepository.applyTransaction(type, amount, pending.transactionId, idempotencyKey, name)
+                .handle((balance, error) -> finishWrite(pending, error == null ? null : unwrap(error)));
+        }
+
+        RuntimeException failure = null;
+        try {
+            repository.applyTransaction(type, amount, pending.transactionId, idempotencyKey, name);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        return CompletableFuture.completedFuture(finishWrite(pending, failure));
+    }
+
+    /**
+     * Ends the reservation of a transaction that was written individually,
+     * reversing it unless the write succeeded, and records its key if the
+     * transaction is now recorded by the repository.
+     *
+     * @param failure the exception with which the write failed, or null
+     * @return the ID of the transaction recorded with the key
+     * @throws RuntimeException the failure, unless the key was a duplicate
+     */
+    private String finishWrite(PendingTransaction pending, RuntimeException failure) {
+        String txID = pending.transactionId;
+        boolean recorded = (failure == null);
+        if (failure instanceof DuplicateTransactionException) {
+            // already recorded by the repository (e.g., before this instance was
+            // created), so the balance loaded at that time already reflects it
+            txID = ((DuplicateTransactionException) failure).getTransactionId();
+            recorded = true;
+        }
+
+        lock.lock();
+        try {
+            release(pending, failure != null);
+            if (recorded) {
+                requests.record(name, pending.idempotencyKey, txID);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (!recorded) {
+            throw failure;
+        }
         return txID;
     }
 
-    private String generateTransactionID(String prefix, int length) {
-        Random random = new Random();
-        StringBuilder builder = new StringBuilder(prefix);
-        for (int i = 0; i < length; i++) {
-            builder.append(random.nextInt(10));
+    private String awaitCommit(CompletableFuture<String> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable error) {
+        Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+        return (cause instanceof RuntimeException) ? (RuntimeException) cause : new CompletionException(cause);
+    }
+
+    /**
+     * Applies a group of deposits and withdrawals. Each is checked and reserved
+     * in turn, as for an individual request, but those that are accepted are
+     * written together, in as few repository updates as possible, on another
+     * thread, so that this does not wait for the write. In group commit mode,
+     * they are queued together instead.
+     *
+     * @param operations the deposits and withdrawals to apply, in order
+     * @return for each operation, in the same order, a future that completes
+     *         with its transaction ID once it is written, or exceptionally if
+     *         it was rejected or could not be written
+     */
+    public List<CompletableFuture<String>> applyBatch(List<BatchOperation> operations) {
+        logger.info("Bank '{}': batch of {} operations", name, operations.size());
+
+        // these may involve I/O, so do them before taking the lock
+        String[] previousTxIDs = new String[operations.size()];
+        for (int i = 0; i < operations.size(); i++) {
+            previousTxIDs[i] = requests.lookup(name, operations.get(i).getIdempotencyKey());
+        }
+
+        List<CompletableFuture<String>> results = new ArrayList<>(operations.size());
+        List<PendingTransaction> accepted = new ArrayList<>();
+        lock.lock();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                BatchOperation operation = operations.get(i);
+                try {
+                    String previousTxID = previousTxIDs[i] != null
+                        ? previousTxIDs[i]
+                        : requests.get(name, operation.getIdempotencyKey());
+                    if (previousTxID != null) {
+                        results.add(CompletableFuture.completedFuture(previousTxID));
+                        continue;
+                    }
+
+                    PendingTransaction pending = reserve(operation.getType(), operation.getAmount(), operation.getIdempotencyKey());
+                    accepted.add(pending);
+                    results.add(pending.result);
+                } catch (RuntimeException e) {
+                    results.add(CompletableFuture.failedFuture(e));
+                }
+            }
+
+            if (committer != null && !accepted.isEmpty()) {
+                boolean wasEmpty = queue.isEmpty();
+                queue.addAll(accepted);
+                if (queue.size() >= committer.getMaxBatchSize()) {
+                    committer.flushNow(this);
+                } else if (wasEmpty) {
+                    committer.scheduleFlush(this);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (committer == null && !accepted.isEmpty()) {
+            BATCH_WRITERS.execute(() -> write(accepted));
+        }
+        return results;
+    }
+
+    /**
+     * Moves money between two accounts. Both balances are checked and reserved
+     * while holding both locks, which are always taken in order of the account
+     * name to avoid deadlock, and the change is then written to the repository
+     * as one transaction, after which neither lock is held. If that write fails,
+     * both reservations are reversed.
+     *
+     * @param from the account to be debited
+     * @param to the account to be credited
+     * @param amount the amount to move
+     * @param idempotencyKey a user-specified unique key for this request
+     * @return the transaction ID, which is the same for both accounts
+     */
+    static String transfer(Bank from, Bank to, int amount, String idempotencyKey) {
+        logger.info("Transfer from '{}' to '{}' for {}, key is {}", from.name, to.name, amount, idempotencyKey);
+
+        if (from == to) {
+            throw new IllegalArgumentException("Cannot transfer from '" + from.name + "' to itself");
+        }
+        if (amount < 1) {
+            throw new IllegalArgumentException("Invalid transfer amount: " + amount);
+        }
+
+        // this may involve I/O, so do it before taking the locks
+        String previousTxID = from.requests.lookup(from.name, idempotencyKey);
+        if (previousTxID != null) {
+            return previousTxID;
+        }
+
+        Bank first = from.name.compareTo(to.name) < 0 ? from : to;
+        Bank second = (first == from) ? to : from;
+
+        // In group commit mode, no batch is written to either account during
+        // the transfer, since each batch is conditional on the version of the
+        // account, which the transfer changes. Any transactions queued for the
+        // sender are written first, so that its balance in the repository
+        // (which is checked again as part of the transfer) includes the
+        // deposits already accepted.
+        first.lockFlushes();
+        try {
+            second.lockFlushes();
+            try {
+                if (from.committer != null) {
+                    from.flush();
+                }
+                return transfer(from, to, first, second, amount, idempotencyKey);
+            } finally {
+                second.unlockFlushes();
+            }
+        } finally {
+            first.unlockFlushes();
+        }
+    }
+
+    private static String transfer(Bank from, Bank to, Bank first, Bank second, int amount, String idempotencyKey) {
+        String txID = ids.next("T");
+        PendingTransaction withdrawal;
+        PendingTransaction deposit;
+        first.lock.lock();
+        second.lock.lock();
+        try {
+            // check again, in case an earlier request with this key just finished
+            String previousTxID = from.requests.get(from.name, idempotencyKey);
+            if (previousTxID != null) {
+                return previousTxID;
+            }
+
+            withdrawal = from.reserve("withdraw", amount, idempotencyKey, txID);
+            try {
+                deposit = to.reserve("deposit", amount, idempotencyKey, txID);
+            } catch (RuntimeException e) {
+                from.release(withdrawal, true);
+                throw e;
+            }
+        } finally {
+            second.lock.unlock();
+            first.lock.unlock();
+        }
+
+        boolean committed = false;
+        try {
+            from.repository.transfer(from.name, to.name, amount, txID, idempotencyKey);
+            committed = true;
+        } catch (DuplicateTransactionException e) {
+            // already recorded by the repository (e.g., before these instances
+            // were created), so the balances loaded at that time reflect it
+            txID = e.getTransactionId();
+            from.requests.record(from.name, idempotencyKey, txID);
+            to.requests.record(to.name, idempotencyKey, txID);
+        } finally {
+            from.lock.lock();
+            try {
+                from.release(withdrawal, !committed);
+            } finally {
+                from.lock.unlock();
+            }
+            to.lock.lock();
+            try {
+                to.release(deposit, !committed);
+            } finally {
+                to.lock.unlock();
+            }
+        }
+
+        if (committed) {
+            from.requests.record(from.name, idempotencyKey, txID);
+            to.requests.record(to.name, idempotencyKey, txID);
+        }
+        return txID;
+    }
+
+    private void lockFlushes() {
+        if (flushLock != null) {
+            flushLock.lock();
+        }
+    }
+
+    private void unlockFlushes() {
+        if (flushLock != null) {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Applies a change to the account made by another instance of the service,
+     * or read again from the repository. The change is ignored unless its
+     * version is newer than the one the balance reflects. If writes are in
+     * progress, it is applied once they have finished, since it is not known
+     * which of them it includes.
+     *
+     * @param newBalance the balance of the account in the repository
+     * @param newVersion the version of the account with that balance
+     * @return false if the change was ignored, such as one made through this
+     *         instance
+     */
+    boolean applyChange(int newBalance, long newVersion) {
+        lock.lock();
+        try {
+            if (newVersion <= version || newVersion <= changedVersion) {
+                return false;
+            }
+            changedBalance = newBalance;
+            changedVersion = newVersion;
+            applyChangeIfIdle();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a reservation made by reserve, optionally reversing its change to
+     * the in-memory balance. The caller must hold the lock.
+     */
+    private void release(PendingTransaction pending, boolean reverse) {
+        pendingRequests.remove(pending.idempotencyKey);
+        if (pendingRequests.isEmpty()) {
+            pendingRequests = null;
+        }
+        reserved -= pending.delta();
+        if (reverse) {
+            balance -= pending.delta();
+        } else {
+            // each transaction written increments the version once
+            version++;
+        }
+        applyChangeIfIdle();
+    }
+
+    // The caller must hold the lock. Writes made through this instance since
+    // the change may already be counted in the version, in which case the
+    // change is older than the balance.
+    private void applyChangeIfIdle() {
+        if (pendingRequests == null && changedVersion > version) {
+            logger.debug("Bank '{}': applying change to version {} made elsewhere", name, changedVersion);
+            balance = changedBalance;
+            version = changedVersion;
+        }
+    }
+
+    /**
+     * Checks a deposit or withdrawal and reserves its change to the in-memory
+     * balance. The caller must hold the lock.
+     */
+    private PendingTransaction reserve(String type, int amount, String idempotencyKey) {
+        boolean isWithdrawal = "withdraw".equals(type);
+        return reserve(type, amount, idempotencyKey, ids.next(isWithdrawal ? "W" : "D"));
+    }
+
+    private PendingTransaction reserve(String type, int amount, String idempotencyKey, String txID) {
+        boolean isWithdrawal = "withdraw".equals(type);
+        if (!isWithdrawal && !"deposit".equals(type)) {
+            throw new IllegalArgumentException("Invalid operation type: " + type);
+        }
+
+        if (amount < 1) {
+            String description = isWithdrawal ? "withdrawal" : "deposit";
+            throw new IllegalArgumentException("Invalid " + description + " amount: " + amount);
+        }
+
+        if (pendingRequests != null && pendingRequests.contains(idempotencyKey)) {
+            throw new AccountUnavailableException("Request with key '" + idempotencyKey + "' is already in progress");
+        }
+
+        if (isWithdrawal && amount > balance) {
+            throw new InsufficientFundsException("Insufficient funds: balance=" + balance + ", withdrawal=" + amount);
+        }
+
+        PendingTransaction pending = new PendingTransaction(type, amount, txID, idempotencyKey);
+        balance += pending.delta();
+        reserved += pending.delta();
+        if (pendingRequests == null) {
+            pendingRequests = new HashSet<>();
+        }
+        pendingRequests.add(idempotencyKey);
+        return pending;
+    }
+
+    /**
+     * Writes the transactions queued since the previous call. This is called
+     * by the GroupCommitter in group commit mode.
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            List<PendingTransaction> batch;
+            lock.lock();
+            try {
+                if (queue.isEmpty()) {
+                    return;
+                }
+                batch = queue;
+                queue = new ArrayList<>();
+            } finally {
+                lock.unlock();
+            }
+
+            write(batch);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes reserved transactions, using one repository update for each group
+     * of up to MAX_TRANSACTIONS_PER_WRITE. If an update fails, the transactions
+     * it contained and all of those after it are abandoned.
+     */
+    private void write(List<PendingTransaction> transactions) {
+        for (int from = 0; from < transactions.size(); from += MAX_TRANSACTIONS_PER_WRITE) {
+            int to = Math.min(transactions.size(), from + MAX_TRANSACTIONS_PER_WRITE);
+            List<PendingTransaction> batch = transactions.subList(from, to);
+            try {
+                writeBatch(batch);
+            } catch (RuntimeException e) {
+                logger.error("Bank '{}': failed to write batch of {} transactions", name, batch.size(), e);
+                abandon(transactions.subList(from, transactions.size()), e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes one group of transactions with a single repository update, which
+     * is conditional on the balance covering the group. In group commit mode,
+     * it is also conditional on the version of the account that the balance
+     * reflects: if the account was changed elsewhere, it is read again, the
+     * group is checked against the new balance, and the update is retried. In
+     * direct mode, other writes may be in progress, so the balance here may
+     * not be what the repository holds, and the group is written whatever the
+     * version, relying on the repository alone to check the balance.
+     */
+    private void writeBatch(List<PendingTransaction> batch) {
+        for (int attempt = 1; ; attempt++) {
+            long expectedVersion = BankRepository.ANY_VERSION;
+            Map<PendingTransaction, RuntimeException> rejected = new HashMap<>();
+            if (committer != null) {
+                lock.lock();
+                try {
+                    batch = checkFunds(batch, rejected);
+                    expectedVersion = version;
+                } finally {
+                    lock.unlock();
+                }
+            }
+            rejected.forEach((pending, failure) -> pending.result.completeExceptionally(failure));
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            List<Document> transactions = new ArrayList<>(batch.size());
+            for (PendingTransaction pending : batch) {
+                transactions.add(new Document("type", pending.type)
+                    .append("amount", pending.amount)
+                    .append("transactionId", pending.transactionId)
+                    .append("idempotencyKey", pending.idempotencyKey));
+            }
+
+            try {
+                repository.applyTransactions(name, transactions, expectedVersion);
+            } catch (VersionConflictException e) {
+                if (attempt == MAX_WRITE_ATTEMPTS) {
+                    throw e;
+                }
+                logger.debug("Bank '{}': changed since version {}, reading it again", name, expectedVersion);
+                reload();
+                continue;
+            } catch (InsufficientFundsException e) {
+                // Only possible in direct mode, where the balance may have
+                // been changed by a concurrent write, so apply them one at a
+                // time to reject only those that the balance does not cover.
+                logger.debug("Bank '{}': batch exceeds the balance, writing individually", name);
+                for (PendingTransaction pending : batch) {
+                    commitIndividually(pending);
+                }
+                return;
+            } catch (DuplicateTransactionException e) {
+                // Some of these were recorded before this instance was created,
+                // so apply them individually to find out which.
+                logger.debug("Bank '{}': batch contains a duplicate, writing individually", name);
+                for (PendingTransaction pending : batch) {
+                    commitIndividually(pending);
+                }
+                return;
+            }
+
+            committed(batch);
+            return;
+        }
+    }
+
+    private void committed(List<PendingTransaction> batch) {
+        lock.lock();
+        try {
+            for (PendingTransaction pending : batch) {
+                release(pending, false);
+                requests.record(name, pending.idempotencyKey, pending.transactionId);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PendingTransaction pending : batch) {
+            pending.result.complete(pending.transactionId);
+        }
+        logger.debug("Bank '{}': wrote batch of {} transactions", name, batch.size());
+    }
+
+    /**
+     * Checks, in order, that the balance as of the last write covers each
+     * withdrawal in a group that is about to be written, given the changes
+     * before it, and rejects any that it does not. The balance they were
+     * reserved against may not have been current, if the account was changed
+     * elsewhere, or if a deposit they relied on was not written. The caller
+     * must hold the lock.
+     *
+     * @param rejected receives the transactions that were rejected, which
+     *        the caller fails once the lock is released, with the reason
+     * @return the transactions that were not rejected
+     */
+    private List<PendingTransaction> checkFunds(List<PendingTransaction> batch,
+            Map<PendingTransaction, RuntimeException> rejected) {
+        List<PendingTransaction> accepted = new ArrayList<>(batch.size());
+        int available = balance - reserved;
+        for (PendingTransaction pending : batch) {
+            if (available + pending.delta() < 0) {
+                release(pending, true);
+                rejected.put(pending, new InsufficientFundsException(
+                    "Insufficient funds: balance=" + available + ", withdrawal=" + pending.amount));
+            } else {
+                available += pending.delta();
+                accepted.add(pending);
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Reads the account again after it was changed elsewhere, keeping the
+     * reservations of the transactions that have not been written. This is
+     * only called after a version conflict, which only group commit mode
+     * risks, while holding the flush lock that every other write through this
+     * instance takes, so no other write is in progress.
+     */
+    private void reload() {
+        Document account = repository.findAccountByBankName(name);
+        if (account == null) {
+            throw new NoSuchAccountException(name);
+        }
+        lock.lock();
+        try {
+            balance = account.getInteger("balance") + reserved;
+            version = versionOf(account);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commitIndividually(PendingTransaction pending) {
+        RuntimeException failure = null;
+        try {
+            repository.applyTransaction(pending.type, pending.amount, pending.transactionId, pending.idempotencyKey, name);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        try {
+            pending.result.complete(finishWrite(pending, failure));
+        } catch (RuntimeException e) {
+            pending.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Fails a batch that could not be written, along with everything queued
+     * after it, since those may depend on it (e.g., a withdrawal of funds from
+     * a deposit in the failed batch). This restores the in-memory balance to
+     * what was last written.
+     */
+    private void abandon(List<PendingTransaction> batch, RuntimeException cause) {
+        List<PendingTransaction> failed = new ArrayList<>(batch);
+        lock.lock();
+        try {
+            if (queue != null) {
+                failed.addAll(queue);
+                queue = new ArrayList<>();
+            }
+            for (PendingTransaction pending : failed) {
+                release(pending, true);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (PendingTransaction pending : failed) {
+            pending.result.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Records that an operation is using this instance, unless it has been
+     * evicted. The operation must call unpin when it has finished.
+     *
+     * @return false if this instance has been evicted, and must not be used
+     */
+    boolean pin() {
+        int current;
+        do {
+            current = users;
+            if (current < 0) {
+                return false;
+            }
+        } while (!USERS.compareAndSet(this, current, current + 1));
+        lastUsed = System.nanoTime();
+        return true;
+    }
+
+    void unpin() {
+        USERS.decrementAndGet(this);
+    }
+
+    /**
+     * Marks this instance as evicted, unless any operation is using it.
+     * Every write happens within an operation, so none is in progress.
+     *
+     * @return whether this instance was evicted
+     */
+    boolean evict() {
+        return USERS.compareAndSet(this, 0, -1);
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    private static class PendingTransaction {
+        private final String type;
+        private final int amount;
+        private final String transactionId;
+        private final String idempotencyKey;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        PendingTransaction(String type, int amount, String transactionId, String idempotencyKey) {
+            this.type = type;
+            this.amount = amount;
+            this.transactionId = transactionId;
+            this.idempotencyKey = idempotencyKey;
+        }
+
+        int delta() {
+            return "withdraw".equals(type) ? -amount : amount;
         }
-        return builder.toString();
     }
 }
@@ -0,0 +1,327 @@
+package org.mongodb.banking;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the Bank instances, whose in-memory balances are authoritative when a
+ * single service owns the accounts. An instance is shared by every BankService,
+ * so that each account has exactly one Bank. It also counts how many balance
+ * reads were answered from memory, which is reported through the service API.
+ *
+ * <p>The number of Bank instances is limited by a memory budget. When there
+ * are more, those used least recently are evicted, as are any that have not
+ * been used for the maximum idle time, so an account that is used again is
+ * read from the repository again. Eviction runs in the background, and only
+ * evicts an instance that no operation is using, which is tracked by acquire
+ * and release.
+ */
+public class BankCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(BankCache.class);
+
+    // The memory used by an idle Bank, including its entry in the map, its
+    // lock and its name. The balance and other fields take less than half.
+    static final int ESTIMATED_BANK_BYTES = 256;
+
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+    public static final Duration DEFAULT_MAX_IDLE = Duration.ofMinutes(10);
+
+    // Eviction leaves room for this fraction of the capacity, so that it does
+    // not run again after every miss.
+    private static final double EVICTION_TARGET = 0.9;
+
+    // the number of instances whose last use is sampled to find which are the
+    // least recently used, rather than sorting all of them
+    private static final int SAMPLE_SIZE = 1024;
+
+    private static final long IDLE_CHECK_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    // shared by every cache, since eviction is brief and infrequent
+    private static final ExecutorService EVICTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bank-cache-eviction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, Bank> banks = new ConcurrentHashMap<>();
+    // the accounts being loaded, each of which completes once its Bank is in banks
+    private final Map<String, CompletableFuture<Bank>> loads = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final long maxIdleNanos;
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private volatile long lastIdleCheck = System.nanoTime();
+
+    // these are updated on every balance read, so they avoid contention
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BankCache() {
+        this(DEFAULT_MEMORY_BUDGET, DEFAULT_MAX_IDLE);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param memoryBudget the memory, in bytes, that the cached Bank instances
+     *        may use, which determines how many are kept
+     * @param maxIdle how long an unused Bank is kept, even if within budget
+     */
+    public BankCache(long memoryBudget, Duration maxIdle) {
+        this.capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / ESTIMATED_BANK_BYTES));
+        this.maxIdleNanos = maxIdle.toNanos();
+    }
+
+    /**
+     * Returns the Bank for an operation, loading it if it is not cached, and
+     * ensures that it is not evicted until release is called.
+     */
+    Bank acquire(String bankName, Function<String, Bank> loader) {
+        return acquire(bankName, loader, null);
+    }
+
+    /**
+     * Returns the Bank for a balance read, as acquire does, counting the
+     * result as a hit or a miss.
+     */
+    Bank acquireForRead(String bankName, Function<String, Bank> loader) {
+        return acquire(bankName, loader, hits);
+    }
+
+    void release(Bank bank) {
+        bank.unpin();
+    }
+
+    private Bank acquire(String bankName, Function<String, Bank> loader, LongAdder hitCounter) {
+        Bank bank = banks.get(bankName);
+        if (bank != null && bank.pin()) {
+            if (hitCounter != null) {
+                hitCounter.increment();
+            }
+            return bank;
+        }
+        if (hitCounter != null) {
+            misses.increment();
+        }
+
+        while (true) {
+            bank = load(bankName, loader);
+            if (bank != null) {
+                evictIfNeeded();
+                return bank;
+            }
+        }
+    }
+
+    /**
+     * Loads the account, unless another thread is already doing so, in which
+     * case this waits for it to finish. An evicted instance may still be in
+     * the map, in which case it is replaced. The account is loaded without
+     * holding any lock, so that loading one account never delays loading
+     * another, and a virtual thread waiting for a load does not pin its
+     * carrier thread. Only one thread loads a given account at a time, and
+     * nothing writes to it while it has no Bank, so the loaded balance is
+     * current.
+     *
+     * @return the Bank, pinned, or null if it was evicted before it could be
+     *         pinned, in which case the caller tries again
+     */
+    private Bank load(String bankName, Function<String, Bank> loader) {
+        CompletableFuture<Bank> loading = new CompletableFuture<>();
+        CompletableFuture<Bank> other = loads.putIfAbsent(bankName, loading);
+        if (other != null) {
+            Bank loaded;
+            try {
+                loaded = other.join();
+            } catch (CompletionException e) {
+                throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+            }
+            return loaded.pin() ? loaded : null;
+        }
+
+        try {
+            // Check again, since another thread may have loaded the account
+            // after this one found it missing. Any that did has already added
+            // it to the map, since that happens before its load is removed.
+            Bank bank = banks.get(bankName);
+            if (bank == null || !bank.pin()) {
+                bank = loader.apply(bankName);
+                bank.pin();
+                banks.put(bankName, bank);
+            }
+            loading.complete(bank);
+            return bank;
+        } catch (RuntimeException e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(bankName, loading);
+        }
+    }
+
+    /**
+     * Returns the cached Bank without counting a read, or null if the account
+     * is not cached. The Bank may be evicted while it is used.
+     */
+    Bank get(String bankName) {
+        return banks.get(bankName);
+    }
+
+    /**
+     * Returns every cached Bank.
+     */
+    Collection<Bank> getAll() {
+        return new ArrayList<>(banks.values());
+    }
+
+    /**
+     * Removes the Bank for an account that has been deleted. If the account
+     * is being loaded, this waits for that to finish, so that a Bank read
+     * before the deletion is not added to the map afterward. If nothing is
+     * using the removed Bank, it is marked as evicted, so that it cannot be
+     * pinned again. Any operation still using it writes to the repository,
+     * which rejects changes to a deleted account.
+     */
+    void remove(String bankName) {
+        CompletableFuture<Bank> loading = loads.get(bankName);
+        if (loading != null) {
+            try {
+                loading.join();
+            } catch (CompletionException e) {
+                // nothing was loaded, which is most likely when it was deleted
+            }
+        }
+
+        Bank bank = banks.remove(bankName);
+        if (bank != null) {
+            bank.evict();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the fraction of balance reads that were answered from memory,
+     * or 0 if there have been none.
+     */
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    public int getSize() {
+        return banks.size();
+    }
+
+    /**
+     * Returns the number of Bank instances that fit within the memory budget.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    // called after each miss, since only then can the cache grow
+    private void evictIfNeeded() {
+        boolean full = banks.size() > capacity;
+        boolean idleCheckDue = System.nanoTime() - lastIdleCheck >= IDLE_CHECK_INTERVAL_NANOS;
+        if ((full || idleCheckDue) && evicting.compareAndSet(false, true)) {
+            EVICTOR.execute(this::evict);
+        }
+    }
+
+    /**
+     * Evicts every Bank that has not been used for the maximum idle time and,
+     * if there are still too many, those used least recently, skipping any
+     * that are in use.
+     */
+    void evict() {
+        try {
+            long now = System.nanoTime();
+            lastIdleCheck = now;
+            long cutoff = now - maxIdleNanos;
+            int excess = banks.size() - (int) (capacity * EVICTION_TARGET);
+            if (excess > 0) {
+                cutoff = leastRecentlyUsed(excess, cutoff);
+            }
+
+            int evicted = 0;
+            for (Map.Entry<String, Bank> entry : banks.entrySet()) {
+                Bank bank = entry.getValue();
+                if (bank.getLastUsed() - cutoff <= 0 && bank.evict()) {
+                    banks.remove(entry.getKey(), bank);
+                    evicted++;
+                }
+            }
+            evictions.add(evicted);
+            logger.debug("Evicted {} cached banks, {} remain", evicted, banks.size());
+        } catch (RuntimeException e) {
+            logger.error("Unable to evict cached banks", e);
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Returns approximately the time of last use at or before which the
+     * specified number of Bank instances were last used, from a random sample,
+     * or the cutoff if that is later.
+     */
+    private long leastRecentlyUsed(int count, long cutoff) {
+        long[] sample = new long[SAMPLE_SIZE];
+        int seen = 0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (Bank bank : banks.values()) {
+            if (seen < SAMPLE_SIZE) {
+                sample[seen] = bank.getLastUsed();
+            } else {
+                int slot = random.nextInt(seen + 1);
+                if (slot < SAMPLE_SIZE) {
+                    sample[slot] = bank.getLastUsed();
+                }
+            }
+            seen++;
+        }
+
+        int sampled = Math.min(seen, SAMPLE_SIZE);
+        if (sampled == 0) {
+            return cutoff;
+        }
+        // nanoTime values are compared by their difference, so sort relative to the first
+        long origin = sample[0];
+        long[] relative = new long[sampled];
+        for (int i = 0; i < sampled; i++) {
+            relative[i] = sample[i] - origin;
+        }
+        Arrays.sort(relative);
+        int index = (int) Math.min(sampled - 1, (long) count * sampled / seen);
+        long leastRecent = origin + relative[index];
+        return (leastRecent - cutoff > 0) ? leastRecent : cutoff;
+    }
+}
@@ -1,13 +1,31 @@
 package org.mongodb.banking;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 import io.javalin.http.Handler;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.sse.SseClient;
+import org.mongodb.banking.metrics.HttpMetrics;
+import org.mongodb.banking.metrics.MongoCommandMetrics;
+import org.mongodb.banking.metrics.PrometheusWriter;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,28 +33,78 @@ public class BankController {
     
     private static final Logger logger = LoggerFactory.getLogger(BankController.class);
     
-    private static final String SUCCESS = "SUCCESS"; // service returns this to indicate success
-    private static final String ERROR = "ERROR";     // service returns this to indicate an error
+    private static final String SUCCESS = JsonResponses.SUCCESS;
 
     private final BankManager manager;
     private final int port;
     private final Javalin server;
+    private final HttpMetrics metrics;
 
     public BankController(BankManager manager, int port) {
-        logger.info("Creating new BankController instance, with port={}", port);
+        this(manager, port, false);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param manager provides access to the banking services
+     * @param port the port number on which the server will listen
+     * @param useVirtualThreads if true, requests are handled on virtual threads
+     *        instead of a pool of platform threads. This requires Java 21 or
+     *        later; on earlier versions, the platform thread pool is used.
+     */
+    public BankController(BankManager manager, int port, boolean useVirtualThreads) {
+        logger.info("Creating new BankController instance, with port={}, useVirtualThreads={}", port, useVirtualThreads);
 
         this.manager = manager;
         this.port = port;
+        this.metrics = new HttpMetrics(manager::isRegistered);
+
+        if (useVirtualThreads && Runtime.version().feature() < 21) {
+            logger.warn("Virtual threads require Java 21 or later, so platform threads will be used");
+        }
 
-        server = Javalin.create(config -> config.showJavalinBanner = false);
-        server.get("/api/balance", new GetBalanceHandler());
-        server.get("/api/createBank", new CreateBankHandler());
-        server.get("/api/deleteBank", new DeleteBankHandler());
-        server.get("/api/deposit", new DepositHandler());
-        server.get("/api/withdraw", new WithdrawHandler());
-        server.get("/api/isAvailable", new GetAvailabilityHandler());
-        server.get("/api/setAvailable", new SetAvailabilityHandler());
-        server.get("/api/listBanks", new ListBanksHandler());
+        server = Javalin.create(config -> {
+            config.showJavalinBanner = false;
+            config.useVirtualThreads = useVirtualThreads;
+            // called once the response is ready, including after an
+            // asynchronous handler's future completes
+            config.requestLogger.http((ctx, elapsedMillis) -> metrics.requestFinished(
+                ctx.path(), bankName(ctx), ctx.statusCode(), (long) (elapsedMillis * 1000)));
+        });
+        server.before(ctx -> metrics.requestStarted(ctx.path()));
+
+        get("/api/balance", new GetBalanceHandler());
+        get("/api/createBank", new CreateBankHandler());
+        get("/api/deleteBank", new DeleteBankHandler());
+        get("/api/deposit", new DepositHandler());
+        get("/api/withdraw", new WithdrawHandler());
+        get("/api/transfer", new TransferHandler());
+        get("/api/isAvailable", new GetAvailabilityHandler());
+        get("/api/setAvailable", new SetAvailabilityHandler());
+        get("/api/listBanks", new ListBanksHandler());
+        get("/api/snapshot", new SnapshotHandler());
+        get("/api/cacheStats", new CacheStatsHandler());
+        get("/api/mongoMetrics", new MongoMetricsHandler());
+        get("/metrics", new PrometheusHandler());
+        server.post("/api/batch", new BatchHandler());
+        metrics.addRoute("/api/batch");
+        server.sse("/api/events", this::streamEvents);
+        metrics.addRoute("/api/events");
+    }
+
+    /**
+     * Registers a handler for GET requests, whose metrics are recorded
+     * separately from those of other routes.
+     */
+    private void get(String path, Handler handler) {
+        server.get(path, handler);
+        metrics.addRoute(path);
+    }
+
+    private static String bankName(Context ctx) {
+        String bankName = ctx.queryParam("bankName");
+        return (bankName != null) ? bankName : ctx.queryParam("fromBank");
     }
     
     public void start() {
@@ -44,6 +112,11 @@ public class BankController {
         server.start("localhost", port);
     }
 
+    public void stop() {
+        logger.info("Stopping BankController on port {}", port);
+        server.stop();
+    }
+
     private class GetBalanceHandler implements Handler {
         @Override
         public void handle(Context ctx) throws Exception {
@@ -52,12 +125,10 @@ public class BankController {
             String bankName = ctx.req().getParameter("bankName");
 
             try {
-                BankService service = manager.getOrCreateBank(bankName);
-                int balance = service.getBalance(bankName);
-
-                sendResult(ctx, Map.of("status", SUCCESS, "balance", balance));
+                BankService service = manager.getService();
+                sendWhenComplete(ctx, service.getBalanceAsync(bankName), JsonResponses::writeBalance);
             } catch (Exception e) {
-                sendError(ctx, Map.of("status", ERROR, "message", e.toString()));
+                sendError(ctx, e);
             }
         }
     }
@@ -71,11 +142,11 @@ public class BankController {
                 String bankName = ctx.req().getParameter("bankName");
                 int initialBalance = Integer.parseInt(ctx.req().getParameter("initialBalance"));
 
-                manager.getOrCreateBank(bankName).createBank(bankName, initialBalance);
+                manager.getService().createBank(bankName, initialBalance);
                 
                 sendResult(ctx, Map.of("status", SUCCESS, "message", "Created '" + bankName + "' account"));
             } catch (Exception e) {
-                sendError(ctx, Map.of("status", ERROR, "message", e.toString()));
+                sendError(ctx, e);
             }
         }
     }
@@ -88,7 +159,7 @@ public class BankController {
             try {
                 String bankName = ctx.req().getParameter("bankName");
 
-                BankService service = manager.getOrCreateBank(bankName);
+                BankService service = manager.getService();
                 boolean wasDeleted = service.deleteBank(bankName);
                 if (! wasDeleted) {
                     throw new RuntimeException("Unable to delete account for '" + bankName + "'");
@@ -96,7 +167,7 @@ public class BankController {
 
                 sendResult(ctx, Map.of("status", SUCCESS, "message", "Created '" + bankName + "' account"));
             } catch (Exception e) {
-                sendError(ctx, Map.of("status", ERROR, "message", e.toString()));
+                sendError(ctx, e);
             }
         }
     }
@@ -111,12 +182,10 @@ public class BankController {
                 int amount = Integer.parseInt(ctx.req().getParameter("amount"));
                 String idempotencyKey = ctx.req().getParameter("idempotencyKey");
 
-                BankService service = manager.getOrCreateBank(bankName);
-                String transactionId = service.deposit(bankName, amount, idempotencyKey);
-                
-                sendResult(ctx, Map.of("status", SUCCESS, "transactionId", transactionId));
+                BankService service = manager.getService();
+                sendWhenComplete(ctx, service.depositAsync(bankName, amount, idempotencyKey), JsonResponses::writeTransactionId);
             } catch (Exception e) {
-                sendError(ctx, Map.of("status", ERROR, "message", e.toString()));
+                sendError(ctx, e);
             }
         }
     }
@@ -131,16 +200,34 @@ public class BankController {
                 int amount = Integer.parseInt(ctx.req().getParameter("amount"));
                 String idempotencyKey = ctx.req().getParameter("idempotencyKey");
 
-                BankService service = manager.getOrCreateBank(bankName);
-                String transactionId = service.withdraw(bankName, amount, idempotencyKey);
-                
-                sendResult(ctx, Map.of("status", SUCCESS, "transactionId", transactionId));
+                BankService service = manager.getService();
+                sendWhenComplete(ctx, service.withdrawAsync(bankName, amount, idempotencyKey), JsonResponses::writeTransactionId);
             } catch (Exception e) {
-                sendError(ctx, Map.of("status", ERROR, "message", e.toString()));
+                sendError(ctx, e);
             }
         }
     }
     
+    private class TransferHandler implements Handler {
+        @Override
+        public void handle(Context ctx) throws Exception {
+            logger.debug("BankController handling 'transfer' request");
+
+            try {
+                String fromBank = ctx.req().getParameter("fromBank");
+                String toBank = ctx.req().getParameter("toBank");
+                int amount = Integer.parseInt(ctx.req().getParameter("amount"));
+                String idempotencyKey = ctx.req().getParameter("idempotencyKey");
+
+                String transactionId = manager.getService().transfer(fromBank, toBank, amount, idempotencyKey);
+
+                sendResult(ctx, JsonResponses::writeTransactionId, transactionId);
+            } catch (Exception e) {
+                sendError(ctx, e);
+            }
+        }
+    }
+
     private class GetAvailabilityHandler implements Handler {
         @Override
         public void handle(Context ctx) throws Exception {
@@ -148,11 +235,11 @@ public class BankController {
             try {
                 String bankName = ctx.req().getParameter("bankName");
 
-                BankService service = manager.getOrCreateBank(bankName);
+                BankService service = manager.getService();
                 boolean isAvailable = service.isAvailable(bankName);
                 sendResult(ctx, Map.of("status", SUCCESS, "available", isAvailable));
             } catch (Exception e) {
-                sendError(ctx, Map.of("status", ERROR, "message", e.toString()));
+                sendError(ctx, e);
             }
         }
     }
@@ -166,7 +253,7 @@ public class BankController {
                 String bankName = ctx.req().getParameter("bankName");
                 boolean wantsAvailable = Boolean.parseBoolean(ctx.req().getParameter("value"));
 
-                BankService service = manager.getOrCreateBank(bankName);
+                BankService service = manager.getService();
                 if (wantsAvailable) {
                     service.startBank(bankName);
                 } else {
@@ -175,7 +262,7 @@ public class BankController {
                 
                 sendResult(ctx, Map.of("status", SUCCESS, "available", wantsAvailable));
             } catch (Exception e) {
-                sendError(ctx, Map.of("status", ERROR, "message", e.toString()));
+                sendError(ctx, e);
             }
         }
     }
@@ -189,24 +276,285 @@ public class BankController {
                 List<String> banks = manager.getAllBankNames();
                 sendResult(ctx, Map.of("status", SUCCESS, "banks", banks));
             } catch (Exception e) {
-                sendError(ctx, Map.of("status", ERROR, "message", e.toString()));
+                sendError(ctx, e);
             }
         }
     }
     
+    /**
+     * Reports the name, balance and availability of every account in one
+     * response, so that a client can refresh them all with a single request.
+     * The ETag is derived from the content, so a client that sends it back
+     * in If-None-Match receives 304 Not Modified, with no body, until an
+     * account changes.
+     */
+    private class SnapshotHandler implements Handler {
+        @Override
+        public void handle(Context ctx) throws Exception {
+            logger.debug("BankController handling 'snapshot' request");
+
+            try {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                JsonResponses.writeSnapshot(body, manager.getSnapshot());
+                byte[] content = body.toByteArray();
+
+                String etag = etag(content);
+                ctx.header(Header.ETAG, etag);
+                ctx.header(Header.CACHE_CONTROL, "no-cache");
+                if (etag.equals(ctx.header(Header.IF_NONE_MATCH))) {
+                    ctx.status(HttpStatus.NOT_MODIFIED);
+                    return;
+                }
+
+                ctx.status(200);
+                ctx.result(content);
+            } catch (Exception e) {
+                sendError(ctx, e);
+            }
+        }
+    }
+
+    private class CacheStatsHandler implements Handler {
+        @Override
+        public void handle(Context ctx) throws Exception {
+            logger.debug("BankController handling 'cacheStats' request");
+
+            try {
+                BankCache cache = manager.getBankCache();
+                sendResult(ctx, Map.of("status", SUCCESS,
+                    "hits", cache.getHits(),
+                    "misses", cache.getMisses(),
+                    "hitRatio", cache.getHitRatio(),
+                    "size", cache.getSize(),
+                    "capacity", cache.getCapacity(),
+                    "evictions", cache.getEvictions()));
+            } catch (Exception e) {
+                sendError(ctx, e);
+            }
+        }
+    }
+
+    private class MongoMetricsHandler implements Handler {
+        @Override
+        public void handle(Context ctx) throws Exception {
+            logger.debug("BankController handling 'mongoMetrics' request");
+
+            try {
+                Map<String, Object> data = new LinkedHashMap<>();
+                data.put("status", SUCCESS);
+                data.putAll(MongoCommandMetrics.getDefault().summarize());
+                sendResult(ctx, data);
+            } catch (Exception e) {
+                sendError(ctx, e);
+            }
+        }
+    }
+
+    /**
+     * Reports the metrics of every route, and the MongoDB latencies, in the
+     * Prometheus text exposition format.
+     */
+    private class PrometheusHandler implements Handler {
+        @Override
+        public void handle(Context ctx) throws Exception {
+            PrometheusWriter writer = new PrometheusWriter();
+            metrics.writeTo(writer);
+            MongoCommandMetrics.getDefault().writeTo(writer);
+
+            ctx.contentType(PrometheusWriter.CONTENT_TYPE);
+            ctx.result(writer.toString());
+        }
+    }
+
+    /**
+     * Handles a request containing a JSON array of operations, each of which
+     * is a deposit, withdrawal or balance inquiry, and responds once they have
+     * all completed. Except in stateless mode, where each deposit and
+     * withdrawal is its own conditional update, the request thread does not
+     * wait for them to be written.
+     */
+    private class BatchHandler implements Handler {
+        @Override
+        public void handle(Context ctx) throws Exception {
+            logger.debug("BankController handling 'batch' request");
+
+            try {
+                BatchOperation[] operations = JsonResponses.MAPPER.readValue(ctx.body(), BatchOperation[].class);
+                ctx.future(() -> applyBatch(operations).handle((results, error) -> {
+                    try {
+                        if (error == null) {
+                            sendResult(ctx, Map.of("status", SUCCESS, "results", results));
+                        } else {
+                            sendError(ctx, causeOf(error));
+                        }
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                    return null;
+                }));
+            } catch (Exception e) {
+                sendError(ctx, e);
+            }
+        }
+    }
+
+    /**
+     * Applies a batch of operations. The deposits and withdrawals for each
+     * bank are applied as a group, which allows them to be written together.
+     * Balance inquiries are answered after those groups have been applied.
+     *
+     * @return a future that completes with a result for each operation, in
+     *         the same order as the operations
+     */
+    CompletableFuture<List<Map<String, Object>>> applyBatch(BatchOperation[] operations) {
+        List<Map<String, Object>> results = new ArrayList<>(Collections.nCopies(operations.length, null));
+
+        // group the deposits and withdrawals by bank, retaining their order
+        Map<String, List<Integer>> indexesByBank = new LinkedHashMap<>();
+        for (int i = 0; i < operations.length; i++) {
+            if (!BatchOperation.BALANCE.equals(operations[i].getType())) {
+                indexesByBank.computeIfAbsent(operations[i].getBankName(), k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        BankService service = manager.getService();
+        List<CompletableFuture<?>> writes = new ArrayList<>(operations.length);
+        for (Map.Entry<String, List<Integer>> entry : indexesByBank.entrySet()) {
+            String bankName = entry.getKey();
+            List<Integer> indexes = entry.getValue();
+
+            List<BatchOperation> group = new ArrayList<>(indexes.size());
+            for (int index : indexes) {
+                group.add(operations[index]);
+            }
+
+            try {
+                List<CompletableFuture<String>> transactionIds = service.applyBatch(bankName, group);
+                for (int i = 0; i < indexes.size(); i++) {
+                    int index = indexes.get(i);
+                    writes.add(transactionIds.get(i).handle((transactionId, error) -> {
+                        results.set(index, (error == null)
+                            ? Map.of("status", SUCCESS, "transactionId", transactionId)
+                            : JsonResponses.errorResult(causeOf(error)));
+                        return null;
+                    }));
+                }
+            } catch (Exception e) {
+                for (int index : indexes) {
+                    results.set(index, JsonResponses.errorResult(e));
+                }
+            }
+        }
+
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).thenCompose(written -> {
+            List<CompletableFuture<?>> inquiries = new ArrayList<>();
+            for (int i = 0; i < operations.length; i++) {
+                if (BatchOperation.BALANCE.equals(operations[i].getType())) {
+                    int index = i;
+                    inquiries.add(service.getBalanceAsync(operations[i].getBankName()).handle((balance, error) -> {
+                        results.set(index, (error == null)
+                            ? Map.of("status", SUCCESS, "balance", balance)
+                            : JsonResponses.errorResult(causeOf(error)));
+                        return null;
+                    }));
+                }
+            }
+            return CompletableFuture.allOf(inquiries.toArray(new CompletableFuture<?>[0]));
+        }).thenApply(answered -> results);
+    }
+
+    /**
+     * Sends every change to the accounts to the client as it happens, as
+     * server-sent events, until the client disconnects. The first event is
+     * always "connected", after which a client that reads a snapshot will
+     * also receive every later change. Each event's name is its type, in
+     * lower case, such as "balance", and its data is a JSON object.
+     */
+    private void streamEvents(SseClient client) {
+        logger.debug("BankController handling 'events' request");
+
+        BankEvents events = manager.getEvents();
+        Consumer<BankEvent> subscriber = event -> {
+            try {
+                client.sendEvent(event.getType().name().toLowerCase(Locale.ROOT), JsonResponses.eventData(event));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+
+        client.keepAlive();
+        client.onClose(() -> events.unsubscribe(subscriber));
+        events.subscribe(subscriber);
+        // sent on the events thread, so it precedes any change after subscribing
+        events.execute(() -> client.sendEvent("connected", "{}"));
+    }
+
+    /**
+     * Sends the result of an asynchronous operation once it completes. The
+     * request is suspended until then, so no thread waits for the operation.
+     *
+     * @param writer writes the value with which the future completes
+     */
+    private <T> void sendWhenComplete(Context ctx, CompletableFuture<T> future, ResponseWriter<T> writer) {
+        ctx.future(() -> future.handle((value, error) -> {
+            try {
+                if (error == null) {
+                    sendResult(ctx, writer, value);
+                } else {
+                    sendError(ctx, causeOf(error));
+                }
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            return null;
+        }));
+    }
+
+    private static Throwable causeOf(Throwable error) {
+        return (error instanceof CompletionException) ? error.getCause() : error;
+    }
+
+    /**
+     * Sends a response with a fixed shape, which the writer streams directly
+     * to the output.
+     */
+    private <T> void sendResult(Context ctx, ResponseWriter<T> writer, T value) throws IOException {
+        logger.debug("BankController sending result");
+
+        ctx.status(200);
+        writer.write(ctx.outputStream(), value);
+    }
+
     private void sendResult(Context ctx, Map data) throws JsonProcessingException {
         logger.debug("BankController sending result");
 
-        String result = new ObjectMapper().writeValueAsString(data);
+        String result = JsonResponses.MAPPER.writeValueAsString(data);
         ctx.status(200);
         ctx.result(result);        
     }
 
-    private void sendError(Context ctx, Map data) throws JsonProcessingException {
+    private void sendError(Context ctx, Throwable error) throws IOException {
         logger.debug("BankController sending error");
 
-        String result = new ObjectMapper().writeValueAsString(data);
         ctx.status(500);
-        ctx.result(result);        
+        JsonResponses.writeError(ctx.outputStream(), error);
+    }
+
+    /**
+     * Returns a strong ETag for the content, from the first 64 bits of its
+     * SHA-256 digest.
+     */
+    private static String etag(byte[] content) throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+        StringBuilder etag = new StringBuilder("\"");
+        for (int i = 0; i < 8; i++) {
+            etag.append(String.format("%02x", digest[i]));
+        }
+        return etag.append('"').toString();
+    }
+
+    @FunctionalInterface
+    private interface ResponseWriter<T> {
+        void write(OutputStream out, T value) throws IOException;
     }
 }
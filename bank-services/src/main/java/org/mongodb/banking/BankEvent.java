@@ -0,0 +1,66 @@
+package org.mongodb.banking;
+
+/**
+ * A change to an account, which is sent to every client subscribed to the
+ * service's event stream. Only the fields that apply to the type of event
+ * are set; the others are null.
+ */
+public class BankEvent {
+
+    public enum Type {
+        CREATED,      // has a balance
+        DELETED,
+        BALANCE,      // has a balance
+        AVAILABILITY  // has an availability
+    }
+
+    private final Type type;
+    private final String bankName;
+    private final Integer balance;
+    private final Boolean available;
+
+    private BankEvent(Type type, String bankName, Integer balance, Boolean available) {
+        this.type = type;
+        this.bankName = bankName;
+        this.balance = balance;
+        this.available = available;
+    }
+
+    public static BankEvent created(String bankName, int balance) {
+        return new BankEvent(Type.CREATED, bankName, balance, null);
+    }
+
+    public static BankEvent deleted(String bankName) {
+        return new BankEvent(Type.DELETED, bankName, null, null);
+    }
+
+    public static BankEvent balance(String bankName, int balance) {
+        return new BankEvent(Type.BALANCE, bankName, balance, null);
+    }
+
+    public static BankEvent availability(String bankName, boolean available) {
+        return new BankEvent(Type.AVAILABILITY, bankName, null, available);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getBankName() {
+        return bankName;
+    }
+
+    public Integer getBalance() {
+        return balance;
+    }
+
+    public Boolean getAvailable() {
+        return available;
+    }
+
+    @Override
+    public String toString() {
+        return "BankEvent {type=" + type + ", bankName=" + bankName
+            + ", balance=" + balance + ", available=" + available + " }";
+    }
+}
@@ -0,0 +1,137 @@
+package org.mongodb.banking;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers changes to accounts to the subscribers of the service's event
+ * stream. Accounts being created or deleted and changes in availability are
+ * delivered as they happen. Balance changes are coalesced instead: an account
+ * whose balance changes is marked, and the current balance of every marked
+ * account is read and delivered once per interval, so a busy account produces
+ * at most one event per interval rather than one per transaction.
+ *
+ * Events are delivered on a single thread, in the order they were published,
+ * so a subscriber need not be thread-safe. While there are no subscribers,
+ * publishing an event does nothing.
+ */
+public class BankEvents {
+
+    private static final Logger logger = LoggerFactory.getLogger(BankEvents.class);
+
+    // how often the balances of the accounts that have changed are delivered
+    static final long BALANCE_INTERVAL_MILLIS = 100;
+
+    private final Function<String, Integer> balances;
+    private final List<Consumer<BankEvent>> subscribers = new CopyOnWriteArrayList<>();
+    private final Set<String> changedBalances = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bank-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates a new instance.
+     *
+     * @param balances reads the current balance of an account, throwing an
+     *        exception if it cannot be read
+     */
+    public BankEvents(Function<String, Integer> balances) {
+        this.balances = balances;
+    }
+
+    /**
+     * Adds a subscriber, which receives every event published from now on.
+     */
+    public void subscribe(Consumer<BankEvent> subscriber) {
+        subscribers.add(subscriber);
+        logger.debug("Added event subscriber, now {}", subscribers.size());
+    }
+
+    public void unsubscribe(Consumer<BankEvent> subscriber) {
+        subscribers.remove(subscriber);
+        logger.debug("Removed event subscriber, now {}", subscribers.size());
+    }
+
+    /**
+     * Runs the task on the thread that delivers events, after every event
+     * published so far.
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    public void accountCreated(String bankName, int balance) {
+        publish(BankEvent.created(bankName, balance));
+    }
+
+    public void accountDeleted(String bankName) {
+        changedBalances.remove(bankName);
+        publish(BankEvent.deleted(bankName));
+    }
+
+    public void availabilityChanged(String bankName, boolean available) {
+        publish(BankEvent.availability(bankName, available));
+    }
+
+    /**
+     * Marks the balance of the account as changed, so that the current
+     * balance is delivered at the end of the interval.
+     */
+    public void balanceChanged(String bankName) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        changedBalances.add(bankName);
+        if (flushScheduled.compareAndSet(false, true)) {
+            executor.schedule(this::deliverBalances, BALANCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void publish(BankEvent event) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        executor.execute(() -> deliver(event));
+    }
+
+    private void deliverBalances() {
+        // clear the flag first, so that any change from now on schedules
+        // another delivery, even if this one misses it
+        flushScheduled.set(false);
+        for (String bankName : changedBalances) {
+            changedBalances.remove(bankName);
+            Integer balance;
+            try {
+                balance = balances.apply(bankName);
+            } catch (RuntimeException e) {
+                // deleted or unavailable, which has its own event
+                logger.debug("Unable to read balance of '{}' for event: {}", bankName, e.toString());
+                continue;
+            }
+            deliver(BankEvent.balance(bankName, balance));
+        }
+    }
+
+    private void deliver(BankEvent event) {
+        for (Consumer<BankEvent> subscriber : subscribers) {
+            try {
+                subscriber.accept(event);
+            } catch (RuntimeException e) {
+                logger.warn("Event subscriber failed on {}", event, e);
+            }
+        }
+    }
+}
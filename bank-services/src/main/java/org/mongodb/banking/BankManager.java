@@ -1,10 +1,16 @@
 package org.mongodb.banking;
 
+import org.bson.Document;
+import org.mongodb.banking.idempotency.IdempotencyCache;
+import org.mongodb.banking.repository.AccountChangeListener;
+import org.mongodb.banking.repository.AsyncBankRepository;
 import org.mongodb.banking.repository.BankRepository;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,21 +18,191 @@ public class BankManager {
 
     private static final Logger logger = LoggerFactory.getLogger(BankManager.class);
 
-    private final Map<String, BankService> banks = new HashMap<>();
+    // how many recent transactions to load into the idempotency cache at startup
+    private static final int IDEMPOTENCY_WARM_UP_LIMIT = 50_000;
+
+    private final BankService service; // handles every account
+    private final BankCache accounts;
     private final BankRepository repository;
+    private final AsyncBankRepository asyncRepository; // null if there is none
+    private final BankNameRegistry registry;
+    private final IdempotencyCache requests;
+    private final WriteMode mode;
+    private final GroupCommitter committer; // null unless in group commit mode
+    private final BankEvents events;
 
     public BankManager(BankRepository repository) {
-        logger.debug("Creating BankManager instance");
+        this(repository, WriteMode.DIRECT);
+    }
+
+    public BankManager(BankRepository repository, WriteMode mode) {
+        this(repository, null, mode);
+    }
+
+    public BankManager(BankRepository repository, AsyncBankRepository asyncRepository, WriteMode mode) {
+        this(repository, asyncRepository, mode, new BankCache());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param repository provides access to the accounts
+     * @param asyncRepository if not null, used to handle deposits, withdrawals
+     *        and balance requests without blocking a thread for each
+     * @param mode determines how deposits and withdrawals are written
+     * @param accounts holds the accounts in use, within its memory budget
+     */
+    public BankManager(BankRepository repository, AsyncBankRepository asyncRepository, WriteMode mode,
+            BankCache accounts) {
+        logger.debug("Creating BankManager instance, mode={}, async={}, cachedBanks={}",
+            mode, asyncRepository != null, accounts.getCapacity());
 
         this.repository = repository;
+        this.accounts = accounts;
+        this.asyncRepository = asyncRepository;
+        this.registry = new BankNameRegistry(repository);
+        this.mode = mode;
+        this.committer = (mode == WriteMode.GROUP_COMMIT) ? new GroupCommitter() : null;
+        this.events = new BankEvents(name -> getService().getBalance(name));
+
+        this.requests = new IdempotencyCache(repository);
+        requests.warmUp(IDEMPOTENCY_WARM_UP_LIMIT);
+
+        this.service = new BankService(repository, asyncRepository, registry, requests, mode, committer, accounts, events);
+        loadAvailability();
+    }
+
+    /**
+     * Returns the service that handles every account, keeping the state of
+     * each in the shared BankCache.
+     */
+    public BankService getService() {
+        return service;
+    }
+
+    /**
+     * Returns true if the account is known to exist, without any I/O.
+     */
+    boolean isRegistered(String bankName) {
+        return registry.isRegistered(bankName);
+    }
+
+    /**
+     * Returns the listener that applies changes made by other instances of the
+     * service, as reported by an AccountChangeWatcher, to the accounts cached
+     * here and publishes them.
+     */
+    AccountChangeListener getChangeListener() {
+        return new ChangeListener();
     }
 
-    public BankService getOrCreateBank(String bankName) {
-        return banks.computeIfAbsent(bankName, name -> new BankService(repository));
+    BankEvents getEvents() {
+        return events;
+    }
+
+    BankCache getBankCache() {
+        return accounts;
     }
 
     List<String> getAllBankNames() {
-        return repository.getAllBankNames();
+        // Like a snapshot, this reads every account, since it must report
+        // accounts added or removed outside of this service. Use the result
+        // to bring the registry up to date with any such changes.
+        List<String> names = repository.getAllBankNames();
+        registry.reload(names);
+        return names;
+    }
+
+    /**
+     * Returns the name, balance and availability of every account, sorted by
+     * name. Every account is read from the repository with a single query,
+     * which also brings the registry up to date with accounts added or removed
+     * outside of this service. No account is loaded into the BankCache.
+     */
+    List<AccountState> getSnapshot() {
+        List<Document> found = repository.findAllAccounts();
+        found.sort(Comparator.comparing(account -> account.getString("bankName")));
+
+        List<String> names = new ArrayList<>(found.size());
+        List<AccountState> snapshot = new ArrayList<>(found.size());
+        for (Document account : found) {
+            String name = account.getString("bankName");
+            names.add(name);
+            if (service.isAvailable(name)) {
+                snapshot.add(new AccountState(name, account.getInteger("balance"), true));
+            } else {
+                snapshot.add(new AccountState(name, null, false));
+            }
+        }
+        registry.reload(names);
+        return snapshot;
+    }
+
+    /**
+     * Marks the accounts recorded as unavailable in the repository as such,
+     * and every other account as available.
+     */
+    private void loadAvailability() {
+        Set<String> unavailable = new HashSet<>(repository.findUnavailableBankNames());
+        for (String name : service.getUnavailableBankNames()) {
+            if (!unavailable.contains(name)) {
+                service.setAvailable(name, true);
+            }
+        }
+        for (String name : unavailable) {
+            service.setAvailable(name, false);
+        }
     }
 
-}
\ No newline at end of file
+    private class ChangeListener implements AccountChangeListener {
+
+        @Override
+        public void accountCreated(String bankName, int balance, long version) {
+            if (registry.add(bankName)) {
+                events.accountCreated(bankName, balance);
+            }
+        }
+
+        @Override
+        public void accountChanged(String bankName, int balance, long version) {
+            // Only a cached Bank needs updating, since one created later reads
+            // the latest balance. Changes made through this instance have
+            // already been published.
+            Bank bank = accounts.get(bankName);
+            if (bank == null || bank.applyChange(balance, version)) {
+                events.balanceChanged(bankName);
+            }
+        }
+
+        @Override
+        public void accountDeleted(String bankName) {
+            accounts.remove(bankName);
+            if (registry.remove(bankName)) {
+                events.accountDeleted(bankName);
+            }
+        }
+
+        @Override
+        public void availabilityChanged(String bankName, boolean available) {
+            service.setAvailable(bankName, available);
+        }
+
+        @Override
+        public void accountsReset() {
+            getAllBankNames();
+            for (Bank bank : accounts.getAll()) {
+                Document account = repository.findAccountByBankName(bank.getName());
+                if (account == null) {
+                    accounts.remove(bank.getName());
+                } else {
+                    bank.applyChange(account.getInteger("balance"), Bank.versionOf(account));
+                }
+            }
+        }
+
+        @Override
+        public void availabilityReset() {
+            loadAvailability();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.mongodb.banking;
+
+import org.mongodb.banking.repository.BankRepository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the names of all bank accounts known to the service, so
+ * that checking whether an account exists does not require scanning the
+ * accounts collection. The names are loaded from the repository once, at
+ * startup, and then kept up to date as accounts are created and deleted
+ * through the service. An instance is shared by every BankService and is
+ * safe to use from multiple threads.
+ */
+public class BankNameRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(BankNameRegistry.class);
+
+    private final BankRepository repository;
+    private final Set<String> names = ConcurrentHashMap.newKeySet();
+
+    public BankNameRegistry(BankRepository repository) {
+        this.repository = repository;
+        reload(repository.getAllBankNames());
+    }
+
+    /**
+     * Returns true if an account with the specified name exists. This is
+     * answered from memory for every account created through the service.
+     * For any other name, it performs an indexed lookup of that single
+     * account, so that accounts created outside of the service (for example,
+     * directly in the database) are still found and then remembered.
+     *
+     * @param bankName the name of the account
+     * @return whether an account with that name exists
+     */
+    public boolean exists(String bankName) {
+        if (bankName == null) {
+            return false;
+        }
+        if (names.contains(bankName)) {
+            return true;
+        }
+        if (repository.findAccountByBankName(bankName) != null) {
+            logger.debug("Registering bank '{}', which was created elsewhere", bankName);
+            names.add(bankName);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the name is registered, without looking up any other
+     * name in the repository, unlike exists.
+     */
+    public boolean isRegistered(String bankName) {
+        return bankName != null && names.contains(bankName);
+    }
+
+    /**
+     * Registers the name, returning false if it was already registered.
+     */
+    public boolean add(String bankName) {
+        return names.add(bankName);
+    }
+
+    /**
+     * Removes the name, returning false if it was not registered.
+     */
+    public boolean remove(String bankName) {
+        return names.remove(bankName);
+    }
+
+    /**
+     * Replaces the registered names with those specified, which is used to
+     * pick up changes made outside of the service, such as accounts deleted
+     * directly from the database.
+     *
+     * @param latest the complete list of names currently in the repository
+     */
+    public void reload(Collection<String> latest) {
+        Set<String> latestNames = new HashSet<>(latest);
+        names.retainAll(latestNames);
+        names.addAll(latestNames);
+        logger.debug("Bank name registry now contains {} names", names.size());
+    }
+
+    /**
+     * Returns a copy of the currently registered names.
+     */
+    public List<String> getNames() {
+        return new ArrayList<>(names);
+    }
+}
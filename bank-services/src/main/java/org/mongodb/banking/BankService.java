@@ -1,12 +1,22 @@
 package org.mongodb.banking;
 
 import org.bson.Document;
+import org.mongodb.banking.exceptions.AccountUnavailableException;
+import org.mongodb.banking.exceptions.DuplicateTransactionException;
+import org.mongodb.banking.exceptions.NoSuchAccountException;
+import org.mongodb.banking.idempotency.IdempotencyCache;
+import org.mongodb.banking.repository.AsyncBankRepository;
 import org.mongodb.banking.repository.BankRepository;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,32 +25,135 @@ public class BankService {
     private static final Logger logger = LoggerFactory.getLogger(BankService.class);
 
     private final BankRepository repository;
-    private final Map<String, Bank> banks = new HashMap<>();
-    private final Set<String> unavailableBanks = new HashSet<>(); // Tracks "offline" banks
+    private final AsyncBankRepository asyncRepository; // null if there is no asynchronous repository
+    private final BankNameRegistry registry;
+    private final IdempotencyCache requests;
+    private final WriteMode mode;
+    private final GroupCommitter committer; // null unless in group commit mode
+    private final BankCache banks;
+    private final BankEvents events; // null if changes are not published
+    private final Set<String> unavailableBanks = ConcurrentHashMap.newKeySet(); // Tracks "offline" banks
 
     public BankService(BankRepository repository) {
-        logger.debug("Creating new BankService instance");
+        this(repository, new BankNameRegistry(repository), WriteMode.DIRECT);
+    }
+
+    public BankService(BankRepository repository, BankNameRegistry registry, WriteMode mode) {
+        this(repository, registry, new IdempotencyCache(repository), mode,
+            mode == WriteMode.GROUP_COMMIT ? new GroupCommitter() : null);
+    }
+
+    public BankService(BankRepository repository, BankNameRegistry registry, IdempotencyCache requests,
+            WriteMode mode, GroupCommitter committer) {
+        this(repository, registry, requests, mode, committer, new BankCache());
+    }
+
+    public BankService(BankRepository repository, BankNameRegistry registry, IdempotencyCache requests,
+            WriteMode mode, GroupCommitter committer, BankCache banks) {
+        this(repository, null, registry, requests, mode, committer, banks);
+    }
+
+    public BankService(BankRepository repository, AsyncBankRepository asyncRepository, BankNameRegistry registry,
+            IdempotencyCache requests, WriteMode mode, GroupCommitter committer, BankCache banks) {
+        this(repository, asyncRepository, registry, requests, mode, committer, banks, null);
+    }
+
+    /**
+     * Creates a new instance. In stateless mode, balances are not cached in
+     * memory. Instead, every deposit and withdrawal is applied directly to the
+     * repository as a conditional update that also detects duplicate requests,
+     * which allows multiple instances of the service to share one database.
+     *
+     * @param repository provides access to the accounts
+     * @param asyncRepository if not null, used by the asynchronous methods to
+     *        access the accounts without blocking the calling thread
+     * @param registry tracks the names of known accounts
+     * @param requests tracks the idempotency keys of previous requests
+     * @param mode determines how deposits and withdrawals are written
+     * @param committer schedules batched writes, required in group commit mode
+     * @param banks the cached accounts, which must be shared by every instance
+     *        that can access the same accounts, since transfers involve two
+     * @param events if not null, receives every change made to the accounts
+     */
+    public BankService(BankRepository repository, AsyncBankRepository asyncRepository, BankNameRegistry registry,
+            IdempotencyCache requests, WriteMode mode, GroupCommitter committer, BankCache banks, BankEvents events) {
+        logger.debug("Creating new BankService instance, mode={}", mode);
+
+        if (mode == WriteMode.GROUP_COMMIT && committer == null) {
+            throw new IllegalArgumentException("Group commit mode requires a GroupCommitter");
+        }
+
         this.repository = repository;
+        this.asyncRepository = asyncRepository;
+        this.registry = registry;
+        this.requests = requests;
+        this.mode = mode;
+        this.committer = committer;
+        this.banks = banks;
+        this.events = events;
     }
 
     public void stopBank(String bankName) {
         logger.info("Stopping bank {}", bankName);
-        unavailableBanks.add(bankName);
+        repository.setAvailability(bankName, false);
+        setAvailable(bankName, false);
     }
 
     public void startBank(String bankName) {
         logger.info("Starting bank {}", bankName);
-        unavailableBanks.remove(bankName);
+        repository.setAvailability(bankName, true);
+        setAvailable(bankName, true);
+    }
+
+    /**
+     * Records whether the account is available without writing it to the
+     * repository, which is used for changes already recorded there, such as
+     * those made by another instance of the service. Subscribers treat the
+     * balance of an unavailable account as unknown, so once it is available
+     * again, its balance is published too.
+     */
+    void setAvailable(String bankName, boolean available) {
+        checkName(bankName);
+        boolean changed = available ? unavailableBanks.remove(bankName) : unavailableBanks.add(bankName);
+        if (changed && events != null) {
+            events.availabilityChanged(bankName, available);
+            if (available) {
+                events.balanceChanged(bankName);
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the accounts that are currently unavailable.
+     */
+    Set<String> getUnavailableBankNames() {
+        return new HashSet<>(unavailableBanks);
     }
 
     public boolean isAvailable(String bankName) {
+        checkName(bankName);
         return !unavailableBanks.contains(bankName);
     }
 
-    private void ensureAvailability(String bankName) {
+    // the set of unavailable accounts cannot be searched for null
+    private static void checkName(String bankName) {
+        if (bankName == null || bankName.trim().isEmpty()) {
+            throw new IllegalArgumentException("Invalid bank name '" + bankName + "'");
+        }
+    }
+
+    // Without a key, a retried request could not be recognized, so one is
+    // required before anything reaches the repository
+    private static void checkKey(String idempotencyKey) {
+        if (idempotencyKey == null || idempotencyKey.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing idempotency key");
+        }
+    }
+
+    void ensureAvailability(String bankName) {
         if (!isAvailable(bankName)) {
             logger.warn("Operation attempted on '{}', but it is unavailable", bankName);
-            throw new IllegalStateException("Bank '" + bankName + "' is currently unavailable.");
+            throw new AccountUnavailableException("Bank '" + bankName + "' is currently unavailable.");
         }
     }
 
@@ -52,59 +165,388 @@ public class BankService {
             throw new IllegalArgumentException("Bank with name '" + bankName + "' already exists.");
         }
         repository.createAccount(bankName, initialBalance);
+        registry.add(bankName);
+        if (events != null) {
+            events.accountCreated(bankName, initialBalance);
+        }
     }
 
     public boolean deleteBank(String bankName) {
         logger.info("Attempting to delete bank '{}'", bankName);
 
         Document account = repository.findAccountByBankName(bankName);
-        if (account != null) {
-            throw new IllegalArgumentException("Bank with name '" + bankName + "' does not exist.");
+        if (account == null) {
+            throw new NoSuchAccountException(bankName);
+        }
+
+        boolean wasDeleted = repository.deleteAccount(bankName);
+        if (wasDeleted) {
+            registry.remove(bankName);
+            banks.remove(bankName);
+            if (events != null) {
+                events.accountDeleted(bankName);
+            }
         }
-        return repository.deleteAccount(bankName);
+        return wasDeleted;
     }
 
+    /**
+     * Returns the balance of the account. Except in stateless mode, this is
+     * answered from the cached Bank, which reflects every deposit and withdrawal
+     * that has completed. Only if the account is not yet cached is it read from
+     * the repository, at which point it is cached for subsequent requests.
+     */
     public int getBalance(String bankName) {
         logger.debug("Getting balance for bank '{}'", bankName);
 
         ensureAvailability(bankName);
+        if (mode != WriteMode.STATELESS) {
+            Bank bank = banks.acquireForRead(bankName, this::loadBank);
+            try {
+                return bank.getBalance();
+            } finally {
+                banks.release(bank);
+            }
+        }
+
+        // other instances may have changed the balance, so read the latest one
         Document account = repository.findAccountByBankName(bankName);
         if (account == null) {
-            throw new IllegalArgumentException("Bank with name '" + bankName + "' does not exist.");
+            throw new NoSuchAccountException(bankName);
         }
         return account.getInteger("balance");
     }
 
+    /**
+     * Returns the balance of the account, as getBalance does. In stateless
+     * mode, if there is an asynchronous repository, the account is read
+     * without blocking the calling thread.
+     *
+     * @return a future that completes with the balance
+     */
+    public CompletableFuture<Integer> getBalanceAsync(String bankName) {
+        if (mode != WriteMode.STATELESS || asyncRepository == null) {
+            return completed(() -> getBalance(bankName));
+        }
+
+        logger.debug("Getting balance asynchronously for bank '{}'", bankName);
+        CompletableFuture<Void> checked = completed(() -> {
+            ensureAvailability(bankName);
+            return null;
+        });
+        return checked.thenCompose(ignored -> asyncRepository.findAccountByBankName(bankName)).thenApply(account -> {
+            if (account == null) {
+                throw new NoSuchAccountException(bankName);
+            }
+            return account.getInteger("balance");
+        });
+    }
+
     public String deposit(String bankName, int amount, String idempotencyKey) {
         logger.info("Attempting deposit to bank '{}' for {}", bankName, amount);
+        checkKey(idempotencyKey);
         ensureAvailability(bankName);
-        Bank bank = getBank(bankName);
-        return bank.deposit(amount, idempotencyKey);
+        String txID;
+        if (mode == WriteMode.STATELESS) {
+            txID = applyTransaction("deposit", bankName, amount, idempotencyKey);
+        } else {
+            txID = withBank(bankName, bank -> bank.deposit(amount, idempotencyKey));
+        }
+        balanceChanged(bankName);
+        return txID;
     }
 
     public String withdraw(String bankName, int amount, String idempotencyKey) {
         logger.info("Attempting withdraw from bank '{}' for {}", bankName, amount);
 
+        checkKey(idempotencyKey);
         ensureAvailability(bankName);
-        Bank bank = getBank(bankName);
-        return bank.withdraw(amount, idempotencyKey);
+        String txID;
+        if (mode == WriteMode.STATELESS) {
+            txID = applyTransaction("withdraw", bankName, amount, idempotencyKey);
+        } else {
+            txID = withBank(bankName, bank -> bank.withdraw(amount, idempotencyKey));
+        }
+        balanceChanged(bankName);
+        return txID;
+    }
+
+    /**
+     * Deposits the amount, as deposit does. If there is an asynchronous
+     * repository, no thread waits while the deposit is written. In group
+     * commit mode, no thread waits in any case.
+     *
+     * @return a future that completes with the transaction ID
+     */
+    public CompletableFuture<String> depositAsync(String bankName, int amount, String idempotencyKey) {
+        return applyTransactionAsync("deposit", bankName, amount, idempotencyKey);
+    }
+
+    /**
+     * Withdraws the amount, as withdraw does. If there is an asynchronous
+     * repository, no thread waits while the withdrawal is written. In group
+     * commit mode, no thread waits in any case.
+     *
+     * @return a future that completes with the transaction ID
+     */
+    public CompletableFuture<String> withdrawAsync(String bankName, int amount, String idempotencyKey) {
+        return applyTransactionAsync("withdraw", bankName, amount, idempotencyKey);
     }
 
-    private Bank getBank(String bankName) {
-        if (!repository.getAllBankNames().contains(bankName)) {
-            throw new IllegalArgumentException("Bank with name '" + bankName + "' does not exist.");
+    private CompletableFuture<String> applyTransactionAsync(String type, String bankName, int amount, String idempotencyKey) {
+        CompletableFuture<String> result = submitTransactionAsync(type, bankName, amount, idempotencyKey);
+        return (events == null) ? result : result.whenComplete((txID, error) -> {
+            if (error == null) {
+                events.balanceChanged(bankName);
+            }
+        });
+    }
+
+    private CompletableFuture<String> submitTransactionAsync(String type, String bankName, int amount, String idempotencyKey) {
+        logger.info("Attempting async {} for bank '{}' for {}", type, bankName, amount);
+
+        try {
+            checkKey(idempotencyKey);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
         }
 
-        Bank bank = banks.get(bankName);
+        if (mode != WriteMode.STATELESS) {
+            Bank bank;
+            try {
+                ensureAvailability(bankName);
+                bank = banks.acquire(bankName, this::loadBank);
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            CompletableFuture<String> result = "withdraw".equals(type)
+                ? bank.withdrawAsync(amount, idempotencyKey)
+                : bank.depositAsync(amount, idempotencyKey);
+            return result.whenComplete((txID, error) -> banks.release(bank));
+        }
 
-        // if it exists in the repository, but not in the map, then it was added
-        // to the repository in a previous session. Since the bank instance is
-        // no longer cached, we must create a new instance and cache it.
-        if (bank == null) {
-            bank = new Bank(bankName, repository);
-            banks.put(bankName, bank);
+        if (asyncRepository == null) {
+            return completed(() -> {
+                ensureAvailability(bankName);
+                return applyTransaction(type, bankName, amount, idempotencyKey);
+            });
         }
 
-        return bank;
+        CompletableFuture<Void> checked = completed(() -> {
+            ensureAvailability(bankName);
+            checkTransaction(type, bankName, amount);
+            return null;
+        });
+        return checked
+            .thenCompose(ignored -> requests.lookupAsync(bankName, idempotencyKey, asyncRepository))
+            .thenCompose(previousTxID -> {
+                if (previousTxID != null) {
+                    return CompletableFuture.completedFuture(previousTxID);
+                }
+
+                String txID = TransactionIdGenerator.getDefault().next("withdraw".equals(type) ? "W" : "D");
+                return asyncRepository.applyTransaction(type, amount, txID, idempotencyKey, bankName)
+                    .handle((balance, error) -> {
+                        Throwable cause = (error instanceof CompletionException) ? error.getCause() : error;
+                        if (cause instanceof DuplicateTransactionException) {
+                            logger.debug("Ignoring duplicate request for '{}' with key {}", bankName, idempotencyKey);
+                            return ((DuplicateTransactionException) cause).getTransactionId();
+                        }
+                        if (error != null) {
+                            throw (error instanceof CompletionException) ? (CompletionException) error : new CompletionException(error);
+                        }
+                        return txID;
+                    })
+                    .thenApply(recordedTxID -> {
+                        requests.record(bankName, idempotencyKey, recordedTxID);
+                        return recordedTxID;
+                    });
+            });
+    }
+
+    /**
+     * Moves money from one account to another, so that either both balances
+     * change or neither does. Nothing is applied unless both accounts are
+     * available.
+     *
+     * @param fromBank the account to be debited
+     * @param toBank the account to be credited
+     * @param amount the amount to move
+     * @param idempotencyKey a user-specified unique key for this request
+     * @return the transaction ID, which is recorded with both accounts
+     */
+    public String transfer(String fromBank, String toBank, int amount, String idempotencyKey) {
+        logger.info("Attempting transfer from bank '{}' to bank '{}' for {}", fromBank, toBank, amount);
+
+        checkKey(idempotencyKey);
+        ensureAvailability(fromBank);
+        ensureAvailability(toBank);
+        if (mode != WriteMode.STATELESS) {
+            String txID = withBank(fromBank, from -> withBank(toBank, to -> Bank.transfer(from, to, amount, idempotencyKey)));
+            balanceChanged(fromBank);
+            balanceChanged(toBank);
+            return txID;
+        }
+
+        if (amount < 1) {
+            throw new IllegalArgumentException("Invalid transfer amount: " + amount);
+        }
+        for (String bankName : List.of(fromBank, toBank)) {
+            if (!registry.exists(bankName)) {
+                throw new NoSuchAccountException(bankName);
+            }
+        }
+
+        String txID = requests.lookup(fromBank, idempotencyKey);
+        if (txID != null) {
+            return txID;
+        }
+
+        txID = TransactionIdGenerator.getDefault().next("T");
+        try {
+            repository.transfer(fromBank, toBank, amount, txID, idempotencyKey);
+        } catch (DuplicateTransactionException e) {
+            logger.debug("Ignoring duplicate transfer from '{}' with key {}", fromBank, idempotencyKey);
+            txID = e.getTransactionId();
+        }
+        requests.record(fromBank, idempotencyKey, txID);
+        requests.record(toBank, idempotencyKey, txID);
+        balanceChanged(fromBank);
+        balanceChanged(toBank);
+        return txID;
+    }
+
+    /**
+     * Applies a group of deposits and withdrawals to one account. Except in
+     * stateless mode, those that are accepted are written together, using as
+     * few repository updates as possible, without the calling thread waiting
+     * for the write. In stateless mode, each is written before this returns.
+     *
+     * @param bankName the account to which every operation applies
+     * @param operations the deposits and withdrawals to apply, in order
+     * @return for each operation, in the same order, a future that completes
+     *         with its transaction ID, or exceptionally if it failed
+     * @throws IllegalArgumentException if any operation has no idempotency
+     *         key, in which case none of them is applied
+     */
+    public List<CompletableFuture<String>> applyBatch(String bankName, List<BatchOperation> operations) {
+        logger.info("Attempting batch of {} operations for bank '{}'", operations.size(), bankName);
+
+        for (BatchOperation operation : operations) {
+            checkKey(operation.getIdempotencyKey());
+        }
+        ensureAvailability(bankName);
+        if (mode != WriteMode.STATELESS) {
+            Bank bank = banks.acquire(bankName, this::loadBank);
+            List<CompletableFuture<String>> results;
+            try {
+                results = bank.applyBatch(operations);
+            } catch (RuntimeException e) {
+                banks.release(bank);
+                throw e;
+            }
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, error) -> {
+                    banks.release(bank);
+                    balanceChanged(bankName);
+                });
+            return results;
+        }
+
+        // each conditional update checks the balance on the server, so they
+        // cannot be combined
+        List<CompletableFuture<String>> results = new ArrayList<>(operations.size());
+        for (BatchOperation operation : operations) {
+            try {
+                String txID = applyTransaction(operation.getType(), bankName, operation.getAmount(), operation.getIdempotencyKey());
+                results.add(CompletableFuture.completedFuture(txID));
+            } catch (RuntimeException e) {
+                results.add(CompletableFuture.failedFuture(e));
+            }
+        }
+        balanceChanged(bankName);
+        return results;
+    }
+
+    /**
+     * Used in stateless mode to apply a deposit or withdrawal directly to the
+     * repository, relying on its conditional update to enforce the balance
+     * and idempotency checks that Bank otherwise performs in memory.
+     */
+    private String applyTransaction(String type, String bankName, int amount, String idempotencyKey) {
+        checkTransaction(type, bankName, amount);
+
+        String txID = requests.lookup(bankName, idempotencyKey);
+        if (txID != null) {
+            return txID;
+        }
+
+        txID = TransactionIdGenerator.getDefault().next("withdraw".equals(type) ? "W" : "D");
+        try {
+            repository.applyTransaction(type, amount, txID, idempotencyKey, bankName);
+        } catch (DuplicateTransactionException e) {
+            logger.debug("Ignoring duplicate request for '{}' with key {}", bankName, idempotencyKey);
+            txID = e.getTransactionId();
+        }
+        requests.record(bankName, idempotencyKey, txID);
+        return txID;
+    }
+
+    private void checkTransaction(String type, String bankName, int amount) {
+        boolean isWithdrawal = "withdraw".equals(type);
+        if (!isWithdrawal && !"deposit".equals(type)) {
+            throw new IllegalArgumentException("Invalid operation type: " + type);
+        }
+
+        if (amount < 1) {
+            String description = isWithdrawal ? "withdrawal" : "deposit";
+            throw new IllegalArgumentException("Invalid " + description + " amount: " + amount);
+        }
+
+        if (!registry.exists(bankName)) {
+            throw new NoSuchAccountException(bankName);
+        }
+    }
+
+    // publishes the change, if changes are published
+    private void balanceChanged(String bankName) {
+        if (events != null) {
+            events.balanceChanged(bankName);
+        }
+    }
+
+    /**
+     * Runs an operation on the Bank for the account, which is not evicted from
+     * the cache while the operation runs.
+     */
+    private <T> T withBank(String bankName, Function<Bank, T> operation) {
+        Bank bank = banks.acquire(bankName, this::loadBank);
+        try {
+            return operation.apply(bank);
+        } finally {
+            banks.release(bank);
+        }
+    }
+
+    private Bank loadBank(String bankName) {
+        if (!registry.exists(bankName)) {
+            throw new NoSuchAccountException(bankName);
+        }
+
+        // if it exists in the repository, but not in the cache, then it was
+        // added in a previous session or has been evicted, so it is read again
+        return new Bank(bankName, repository, requests, committer, asyncRepository);
+    }
+
+    /**
+     * Runs a synchronous operation, returning a future that completes with
+     * its result, or exceptionally with the exception it threw.
+     */
+    private static <T> CompletableFuture<T> completed(Supplier<T> operation) {
+        try {
+            return CompletableFuture.completedFuture(operation.get());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
     }
 }
@@ -0,0 +1,66 @@
+package org.mongodb.banking;
+
+/**
+ * One operation within a request to the batch endpoint. The type is one of
+ * "deposit", "withdraw" or "balance". The amount and idempotency key are
+ * not used for balance operations.
+ */
+public class BatchOperation {
+
+    public static final String DEPOSIT = "deposit";
+    public static final String WITHDRAW = "withdraw";
+    public static final String BALANCE = "balance";
+
+    private String type;
+    private String bankName;
+    private int amount;
+    private String idempotencyKey;
+
+    public BatchOperation() {
+    }
+
+    public BatchOperation(String type, String bankName, int amount, String idempotencyKey) {
+        this.type = type;
+        this.bankName = bankName;
+        this.amount = amount;
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getBankName() {
+        return bankName;
+    }
+
+    public void setBankName(String bankName) {
+        this.bankName = bankName;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public void setAmount(int amount) {
+        this.amount = amount;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BatchOperation {type=%s, bankName=%s, amount=%d, idempotencyKey=%s}",
+            type, bankName, amount, idempotencyKey);
+    }
+}
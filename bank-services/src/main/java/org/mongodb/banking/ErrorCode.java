@@ -0,0 +1,39 @@
+package org.mongodb.banking;
+
+import org.mongodb.banking.exceptions.AccountUnavailableException;
+import org.mongodb.banking.exceptions.DuplicateTransactionException;
+import org.mongodb.banking.exceptions.InsufficientFundsException;
+import org.mongodb.banking.exceptions.NoSuchAccountException;
+
+/**
+ * Identifies the kind of failure in an error response, in the errorCode
+ * field, so that clients need not interpret the message to decide how to
+ * handle it. The message remains for people to read.
+ */
+public enum ErrorCode {
+    INSUFFICIENT_FUNDS,
+    NO_SUCH_ACCOUNT,
+    DUPLICATE_TRANSACTION,
+    INVALID_REQUEST,
+    UNAVAILABLE,
+    INTERNAL;
+
+    /**
+     * Returns the code for a failure of the given kind.
+     */
+    public static ErrorCode of(Throwable error) {
+        if (error instanceof InsufficientFundsException) {
+            return INSUFFICIENT_FUNDS;
+        } else if (error instanceof NoSuchAccountException) {
+            return NO_SUCH_ACCOUNT;
+        } else if (error instanceof DuplicateTransactionException) {
+            return DUPLICATE_TRANSACTION;
+        } else if (error instanceof IllegalArgumentException) {
+            // includes the NumberFormatException for a malformed amount
+            return INVALID_REQUEST;
+        } else if (error instanceof AccountUnavailableException) {
+            return UNAVAILABLE;
+        }
+        return INTERNAL;
+    }
+}
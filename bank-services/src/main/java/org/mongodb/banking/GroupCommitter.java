@@ -0,0 +1,77 @@
+package org.mongodb.banking;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules the writes for banks running in group commit mode. A bank's
+ * queued transactions are written when its oldest one has waited for the
+ * flush interval, or as soon as the batch reaches its maximum size,
+ * whichever happens first. Batches for different banks are written in
+ * parallel, but each bank writes at most one batch at a time.
+ */
+public class GroupCommitter {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitter.class);
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 5;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    private static final int FLUSH_THREADS = 4;
+
+    private final long flushIntervalMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService executor;
+
+    public GroupCommitter() {
+        this(DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param flushIntervalMillis the longest a transaction waits before its batch is written
+     * @param maxBatchSize the number of transactions that triggers an immediate write
+     */
+    public GroupCommitter(long flushIntervalMillis, int maxBatchSize) {
+        logger.debug("Creating GroupCommitter, interval={}ms, maxBatchSize={}", flushIntervalMillis, maxBatchSize);
+
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxBatchSize = maxBatchSize;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "group-commit-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = Executors.newScheduledThreadPool(FLUSH_THREADS, threadFactory);
+    }
+
+    int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Called when a bank queues the first transaction of a new batch.
+     */
+    void scheduleFlush(Bank bank) {
+        executor.schedule(bank::flush, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called when a bank's batch has reached its maximum size.
+     */
+    void flushNow(Bank bank) {
+        executor.execute(bank::flush);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
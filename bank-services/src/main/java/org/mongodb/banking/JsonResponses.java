@@ -0,0 +1,125 @@
+package org.mongodb.banking;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the JSON responses sent by BankController. The most frequent ones,
+ * which always have the same few fields, are streamed directly to the output,
+ * rather than built as a map and serialized to a string first. Everything
+ * here is thread-safe, so the factory and mapper are shared by all requests.
+ */
+public final class JsonResponses {
+
+    public static final String SUCCESS = "SUCCESS"; // service returns this to indicate success
+    public static final String ERROR = "ERROR";     // service returns this to indicate an error
+
+    // used for responses whose shape varies, and to parse request bodies
+    static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // the output belongs to the HTTP response, so must not be closed here
+    private static final JsonFactory FACTORY = JsonFactory.builder()
+        .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+        .build();
+
+    private JsonResponses() {
+    }
+
+    /**
+     * Writes a successful response containing a transaction ID.
+     */
+    public static void writeTransactionId(OutputStream out, String transactionId) throws IOException {
+        try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("status", SUCCESS);
+            generator.writeStringField("transactionId", transactionId);
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes a successful response containing a balance.
+     */
+    public static void writeBalance(OutputStream out, int balance) throws IOException {
+        try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("status", SUCCESS);
+            generator.writeNumberField("balance", balance);
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes an error response describing the exception, with a code that
+     * identifies the kind of failure and a message containing its details.
+     */
+    public static void writeError(OutputStream out, Throwable error) throws IOException {
+        try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("status", ERROR);
+            generator.writeStringField("errorCode", ErrorCode.of(error).name());
+            generator.writeStringField("message", error.toString());
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes a successful response containing the state of every account.
+     * The balance of an unavailable account is omitted.
+     */
+    public static void writeSnapshot(OutputStream out, List<AccountState> accounts) throws IOException {
+        try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("status", SUCCESS);
+            generator.writeArrayFieldStart("banks");
+            for (AccountState account : accounts) {
+                generator.writeStartObject();
+                generator.writeStringField("bankName", account.getBankName());
+                if (account.getBalance() != null) {
+                    generator.writeNumberField("balance", account.getBalance());
+                }
+                generator.writeBooleanField("available", account.isAvailable());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Returns the data sent with an event on the event stream, which has the
+     * name of the account and whichever of the balance and availability the
+     * event includes.
+     */
+    public static String eventData(BankEvent event) throws IOException {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("bankName", event.getBankName());
+            if (event.getBalance() != null) {
+                generator.writeNumberField("balance", event.getBalance());
+            }
+            if (event.getAvailable() != null) {
+                generator.writeBooleanField("available", event.getAvailable());
+            }
+            generator.writeEndObject();
+        }
+        return out.toString();
+    }
+
+    /**
+     * Returns an error result describing the exception, in the same form as
+     * writeError, for inclusion in a larger response.
+     */
+    public static Map<String, Object> errorResult(Throwable error) {
+        return Map.of("status", ERROR, "errorCode", ErrorCode.of(error).name(), "message", error.toString());
+    }
+}
@@ -1,46 +1,124 @@
 package org.mongodb.banking;
 
 
-import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoClient;
 import org.mongodb.banking.config.MongodbConfig;
+import org.mongodb.banking.repository.AccountChangeWatcher;
+import org.mongodb.banking.repository.AsyncBankRepository;
+import org.mongodb.banking.repository.BankRepository;
 import org.mongodb.banking.repository.BankRepositoryImpl;
+import org.mongodb.banking.repository.InMemoryBankRepository;
+import org.mongodb.banking.repository.MappedBankRepository;
+import org.mongodb.banking.repository.ReactiveBankRepository;
 import org.mongodb.banking.ui.view.BankUI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 public class Main {
 
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
 
-    private static final int SERVICE_PORT = 8480;
+    private static final int DEFAULT_SERVICE_PORT = 8480;
 
     public static void main(String[] args) {
         try {
             logger.info("Starting application");
 
-            if (System.getenv(MongodbConfig.CONN_STRING_ENV_VARNAME) == null) {
-                logger.error(MongodbConfig.CONN_STRING_ENV_VARNAME + " environment variable is not set!");
-                System.exit(1);
+            boolean showGui = true;
+            WriteMode mode = WriteMode.DIRECT;
+            boolean useVirtualThreads = false;
+            boolean useAsync = false;
+            boolean inMemory = false;
+            boolean watchChanges = false;
+            String mappedDirectory = null;
+            int port = DEFAULT_SERVICE_PORT;
+            long cacheBudget = BankCache.DEFAULT_MEMORY_BUDGET;
+            for (String arg : args) {
+                if ("--no-gui".equals(arg)) {
+                    showGui = false;
+                } else if ("--stateless".equals(arg)) {
+                    mode = WriteMode.STATELESS;
+                } else if ("--group-commit".equals(arg)) {
+                    mode = WriteMode.GROUP_COMMIT;
+                } else if ("--virtual-threads".equals(arg)) {
+                    useVirtualThreads = true;
+                } else if ("--async".equals(arg)) {
+                    useAsync = true;
+                } else if ("--watch".equals(arg)) {
+                    watchChanges = true;
+                } else if ("--in-memory".equals(arg)) {
+                    inMemory = true;
+                } else if (arg.startsWith("--mapped=")) {
+                    mappedDirectory = arg.substring("--mapped=".length());
+                } else if (arg.startsWith("--port=")) {
+                    port = Integer.parseInt(arg.substring("--port=".length()));
+                } else if (arg.startsWith("--cache-mb=")) {
+                    cacheBudget = Long.parseLong(arg.substring("--cache-mb=".length())) * 1024 * 1024;
+                }
             }
 
-            logger.debug("Setting up up MongoDB connection");
-            MongoDatabase database = MongodbConfig.getDatabase();
-            BankRepositoryImpl repository = new BankRepositoryImpl(database);
+            BankRepository repository;
+            AsyncBankRepository asyncRepository = null;
+            MongoClient client = null;
+            if (inMemory) {
+                logger.warn("Using an in-memory repository, so no data will be persisted");
+                repository = new InMemoryBankRepository();
+            } else if (mappedDirectory != null) {
+                logger.info("Using memory-mapped files in {}", mappedDirectory);
+                MappedBankRepository mapped = new MappedBankRepository(Paths.get(mappedDirectory));
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        mapped.close();
+                    } catch (IOException e) {
+                        logger.error("Unable to close the memory-mapped files", e);
+                    }
+                }, "mapped-files-shutdown"));
+                repository = mapped;
+            } else {
+                if (System.getenv(MongodbConfig.CONN_STRING_ENV_VARNAME) == null) {
+                    logger.error(MongodbConfig.CONN_STRING_ENV_VARNAME + " environment variable is not set!");
+                    System.exit(1);
+                }
+
+                logger.debug("Setting up up MongoDB connection");
+                client = MongodbConfig.getClient();
+                Runtime.getRuntime().addShutdownHook(new Thread(MongodbConfig::shutdown, "mongodb-shutdown"));
+                repository = new BankRepositoryImpl(client, MongodbConfig.DATABASE_NAME);
+                if (useAsync) {
+                    asyncRepository = new ReactiveBankRepository(MongodbConfig.getReactiveClient(), MongodbConfig.DATABASE_NAME);
+                }
+            }
+            if (useAsync && asyncRepository == null) {
+                logger.warn("The --async option only applies to MongoDB, so requests will block while writing");
+            }
+            if (watchChanges && client == null) {
+                logger.warn("The --watch option only applies to MongoDB, so changes made elsewhere are not followed");
+            }
 
             logger.debug("Initializing BankManager");
-            BankManager manager = new BankManager(repository);
+            BankCache accounts = new BankCache(cacheBudget, BankCache.DEFAULT_MAX_IDLE);
+            BankManager manager = new BankManager(repository, asyncRepository, mode, accounts);
+
+            if (watchChanges && client != null) {
+                logger.debug("Following changes made by other instances");
+                AccountChangeWatcher watcher = new AccountChangeWatcher(client.getDatabase(MongodbConfig.DATABASE_NAME),
+                    manager.getChangeListener());
+                watcher.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(watcher::close, "change-stream-shutdown"));
+            }
 
             logger.debug("Starting the server");
-            BankController controller = new BankController(manager, SERVICE_PORT);
+            BankController controller = new BankController(manager, port, useVirtualThreads);
             controller.start();
 
-            for (String arg : args) {
-                if ("--no-gui".equals(arg)) {
-                    return;
-                }
+            if (!showGui) {
+                return;
             }
             logger.debug("Launching the GUI");
-            BankUI gui = new BankUI("localhost", SERVICE_PORT);
+            BankUI gui = new BankUI("localhost", port);
             gui.display();
         } catch (Exception e) {
             logger.error("Error encountered while running the application", e);
@@ -0,0 +1,104 @@
+package org.mongodb.banking;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates transaction IDs that are unique across every instance of the
+ * service, as long as each one has a different node ID. Each ID is a prefix
+ * (such as "D" for a deposit or "W" for a withdrawal) followed by a 63-bit
+ * number, in the style of Twitter's Snowflake:
+ *
+ * <pre>
+ *   | 41 bits: milliseconds since 2024-01-01 | 10 bits: node ID | 12 bits: sequence |
+ * </pre>
+ *
+ * The time and sequence are held together in one AtomicLong, which is
+ * advanced with compare-and-set, so generating an ID never takes a lock.
+ * The numbers generated by one instance always increase: if more than 4096
+ * IDs are requested within the same millisecond, or the system clock moves
+ * backwards, the time part runs ahead of the clock until it catches up.
+ */
+public class TransactionIdGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionIdGenerator.class);
+
+    public static final String NODE_ID_ENV_VARNAME = "BANK_NODE_ID";
+
+    static final long EPOCH_MILLIS = 1704067200000L; // 2024-01-01T00:00:00Z
+    static final int NODE_ID_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final int MAX_NODE_ID = (1 << NODE_ID_BITS) - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final TransactionIdGenerator DEFAULT = new TransactionIdGenerator(defaultNodeId());
+
+    private final long nodeId;
+    private final LongSupplier clock;
+
+    // the time (relative to the epoch) and sequence of the most recent ID
+    private final AtomicLong last = new AtomicLong();
+
+    public TransactionIdGenerator(int nodeId) {
+        this(nodeId, System::currentTimeMillis);
+    }
+
+    TransactionIdGenerator(int nodeId, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node ID must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeId = nodeId;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the generator used by this instance of the service, whose node ID
+     * is taken from the BANK_NODE_ID environment variable.
+     */
+    public static TransactionIdGenerator getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns a new ID with the specified prefix.
+     */
+    public String next(String prefix) {
+        // compiled to a single allocation of the exact size (no intermediate string)
+        return prefix + nextId();
+    }
+
+    /**
+     * Returns a new ID, which is greater than any returned before by this instance.
+     */
+    public long nextId() {
+        long now = (clock.getAsLong() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        while (true) {
+            long previous = last.get();
+
+            // the sequence overflows into the time part, borrowing the next millisecond
+            long next = Math.max(now, previous + 1);
+            if (last.compareAndSet(previous, next)) {
+                long time = next >>> SEQUENCE_BITS;
+                long sequence = next & SEQUENCE_MASK;
+                return (time << (NODE_ID_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | sequence;
+            }
+        }
+    }
+
+    private static int defaultNodeId() {
+        String value = System.getenv(NODE_ID_ENV_VARNAME);
+        if (value != null) {
+            return Integer.parseInt(value.trim());
+        }
+
+        // A random node ID avoids collisions between instances in most cases,
+        // but multiple instances sharing a database should each set their own.
+        int nodeId = ThreadLocalRandom.current().nextInt(MAX_NODE_ID + 1);
+        logger.info("{} is not set, so using random node ID {}", NODE_ID_ENV_VARNAME, nodeId);
+        return nodeId;
+    }
+}
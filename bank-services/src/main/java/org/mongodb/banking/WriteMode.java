@@ -0,0 +1,37 @@
+package org.mongodb.banking;
+
+/**
+ * Determines how deposits and withdrawals are written to the repository.
+ */
+public enum WriteMode {
+
+    /**
+     * Balances are cached in memory and each transaction is written to the
+     * repository before the request completes. Each withdrawal is applied by
+     * an update conditional on the balance in the repository, so it cannot
+     * overdraw the account even if the cached balance is out of date. Several
+     * instances of the service may share a database if each one follows the
+     * changes made by the others (see AccountChangeWatcher); otherwise their
+     * cached balances would not reflect those changes.
+     */
+    DIRECT,
+
+    /**
+     * No balances are cached in memory. Each transaction is applied to the
+     * repository by a conditional update, so multiple instances of the
+     * service may share a database.
+     */
+    STATELESS,
+
+    /**
+     * Balances are cached in memory and transactions for the same account
+     * are queued and written together, in a single update, a few milliseconds
+     * later. Each request completes once its batch has been written. The
+     * update is conditional on the version of the account that the cached
+     * balance reflects, so if another instance changed the account, it is
+     * read again and the batch checked again before it is written. As for
+     * DIRECT, several instances may share a database if each one follows the
+     * changes made by the others.
+     */
+    GROUP_COMMIT
+}
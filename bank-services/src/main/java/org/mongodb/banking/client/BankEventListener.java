@@ -0,0 +1,29 @@
+package org.mongodb.banking.client;
+
+/**
+ * Receives the changes to accounts sent by the service on its event stream.
+ * The methods are called in the order the changes happened, on a single
+ * thread, which is not the thread that subscribed.
+ */
+public interface BankEventListener {
+
+    /**
+     * Called once the stream is open, after which every change is received.
+     * Changes made before this may have been missed, so this is the time to
+     * read the current state of every account.
+     */
+    default void connected() {
+    }
+
+    default void bankCreated(String bankName, int balance) {
+    }
+
+    default void bankDeleted(String bankName) {
+    }
+
+    default void balanceChanged(String bankName, int balance) {
+    }
+
+    default void availabilityChanged(String bankName, boolean available) {
+    }
+}
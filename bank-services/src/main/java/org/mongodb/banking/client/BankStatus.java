@@ -0,0 +1,31 @@
+package org.mongodb.banking.client;
+
+/**
+ * The name, balance and availability of one account, as reported in a
+ * snapshot of every account. The balance of an unavailable account is not
+ * reported, so it is -1, as getBalance returns when it cannot be read.
+ */
+public class BankStatus {
+
+    private final String bankName;
+    private final int balance;
+    private final boolean available;
+
+    public BankStatus(String bankName, int balance, boolean available) {
+        this.bankName = bankName;
+        this.balance = balance;
+        this.available = available;
+    }
+
+    public String getBankName() {
+        return bankName;
+    }
+
+    public int getBalance() {
+        return balance;
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+}
@@ -6,7 +6,13 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.net.URLEncoder;
@@ -20,8 +26,26 @@ public class BankingApiClient {
     
     private static final String SUCCESS = "SUCCESS"; // service returns this to indicate success
 
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    // used to parse the events, which may arrive frequently
+    private static final ObjectMapper EVENT_MAPPER = new ObjectMapper();
+
     private final String hostname;
     private final int portNumber;
+
+    // reused by every request, so that connections to the service are kept open
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    // reads the event stream, which blocks it for as long as the stream is open
+    private final ExecutorService eventReader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bank-event-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the ETag of the last snapshot received, or null if there was none
+    private volatile String snapshotEtag;
     
     /**
      * Creates a new instance that will access services on the specified 
@@ -65,6 +89,120 @@ public class BankingApiClient {
         return banks;
     }
 
+    /**
+     * Returns the name, balance and availability of every bank known by the
+     * service, in a single request. If nothing has changed since the last
+     * snapshot returned by this method, the service sends no content and this
+     * returns an empty Optional, as it also does if the request fails.
+     */
+    public Optional<List<BankStatus>> getSnapshot() {
+        String url = String.format("http://%s:%d/api/snapshot", hostname, portNumber);
+
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(url));
+            String etag = snapshotEtag;
+            if (etag != null) {
+                builder.header("If-None-Match", etag);
+            }
+
+            HttpResponse<String> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == HTTP_NOT_MODIFIED) {
+                return Optional.empty();
+            }
+
+            ObjectMapper mapper = new ObjectMapper();
+            JsonNode bodyNode = mapper.readTree(response.body());
+            JsonNode statusNode = bodyNode.get("status");
+            if (! SUCCESS.equals(statusNode.asText())) {
+                throw new IOException("Service returned status code: " + statusNode.asText());
+            }
+
+            List<BankStatus> banks = new ArrayList<>();
+            for (JsonNode bankNode : bodyNode.get("banks")) {
+                banks.add(new BankStatus(bankNode.get("bankName").asText(),
+                    bankNode.path("balance").asInt(-1),
+                    bankNode.get("available").asBoolean()));
+            }
+            snapshotEtag = response.headers().firstValue("ETag").orElse(null);
+            return Optional.of(banks);
+        } catch (IOException ex) {
+            logger.error("Failed to retrieve snapshot of banks", ex);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while retrieving snapshot of banks", ie);
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Opens the service's stream of changes to accounts, and passes each one
+     * to the listener as it arrives, until the stream is closed.
+     *
+     * @return a future that completes when the stream ends, or exceptionally
+     *         if it could not be opened or failed
+     */
+    public CompletableFuture<Void> subscribe(BankEventListener listener) {
+        String url = String.format("http://%s:%d/api/events", hostname, portNumber);
+        HttpRequest request = HttpRequest.newBuilder()
+            .uri(URI.create(url))
+            .header("Accept", "text/event-stream")
+            .build();
+
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofLines())
+            .thenAcceptAsync(response -> {
+                if (response.statusCode() != 200) {
+                    response.body().close();
+                    throw new IllegalStateException("Service returned HTTP status " + response.statusCode());
+                }
+                try (Stream<String> lines = response.body()) {
+                    readEvents(lines, listener);
+                }
+            }, eventReader);
+    }
+
+    // dispatches each event in the stream, each of which has a name and data
+    private void readEvents(Stream<String> lines, BankEventListener listener) {
+        String event = null;
+        for (Iterator<String> i = lines.iterator(); i.hasNext();) {
+            String line = i.next();
+            if (line.startsWith("event:")) {
+                event = line.substring("event:".length()).trim();
+            } else if (line.startsWith("data:") && event != null) {
+                dispatch(event, line.substring("data:".length()).trim(), listener);
+                event = null;
+            }
+        }
+    }
+
+    private void dispatch(String event, String data, BankEventListener listener) {
+        try {
+            JsonNode dataNode = EVENT_MAPPER.readTree(data);
+            String bankName = dataNode.path("bankName").asText();
+            switch (event) {
+                case "connected":
+                    listener.connected();
+                    break;
+                case "created":
+                    listener.bankCreated(bankName, dataNode.get("balance").asInt());
+                    break;
+                case "deleted":
+                    listener.bankDeleted(bankName);
+                    break;
+                case "balance":
+                    listener.balanceChanged(bankName, dataNode.get("balance").asInt());
+                    break;
+                case "availability":
+                    listener.availabilityChanged(bankName, dataNode.get("available").asBoolean());
+                    break;
+                default:
+                    logger.debug("Ignoring unknown event '{}'", event);
+            }
+        } catch (IOException ex) {
+            logger.error("Failed to parse data of event '{}': {}", event, data, ex);
+        }
+    }
+
     /**
      * Creates an account with the specified name and balance
      * @param bankName identifies the account to create, which must not already exist
@@ -189,7 +327,6 @@ public class BankingApiClient {
 
         URI uri = URI.create(serviceUrl);
 
-        HttpClient client = HttpClient.newHttpClient();
         HttpRequest request = HttpRequest.newBuilder().uri(uri).build();
 
         try {
@@ -1,15 +1,70 @@
 package org.mongodb.banking.config;
 
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadConcernLevel;
+import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
+import org.mongodb.banking.metrics.MongoCommandMetrics;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the clients through which MongoDB is accessed. There is one shared
+ * client for each connection string, so that every repository using the same
+ * database also uses the same connection pool. The shared clients remain open
+ * until shutdown is called. Every client reports the latency of its commands
+ * and connection checkouts to the shared MongoCommandMetrics.
+ *
+ * <p>Any of the following environment variables that are set override the
+ * corresponding options in the connection string:
+ *
+ * <ul>
+ *   <li>{@code MONGO_MAX_POOL_SIZE}: the most connections to each server</li>
+ *   <li>{@code MONGO_MIN_POOL_SIZE}: the connections kept open to each server</li>
+ *   <li>{@code MONGO_MAX_CONNECTING}: the most connections being established at once</li>
+ *   <li>{@code MONGO_MAX_WAIT_TIME_MS}: how long a request waits for a connection</li>
+ *   <li>{@code MONGO_CONNECT_TIMEOUT_MS}: how long to wait to establish a connection</li>
+ *   <li>{@code MONGO_READ_TIMEOUT_MS}: how long to wait for a response</li>
+ *   <li>{@code MONGO_SERVER_SELECTION_TIMEOUT_MS}: how long to wait for a suitable server</li>
+ *   <li>{@code MONGO_WRITE_CONCERN}: {@code majority}, or the number of servers</li>
+ *   <li>{@code MONGO_READ_CONCERN}: the read concern level, such as {@code majority}</li>
+ *   <li>{@code MONGO_COMPRESSORS}: a comma-separated list, in order of preference,
+ *       of {@code snappy}, {@code zstd} and {@code zlib}</li>
+ * </ul>
+ */
 public class MongodbConfig {
 
+    private static final Logger logger = LoggerFactory.getLogger(MongodbConfig.class);
+
     public static final String CONN_STRING_ENV_VARNAME = "MONGO_CONNECTION_STRING";
-    
+
     private static final String CONNECTION_STRING = System.getenv(CONN_STRING_ENV_VARNAME);
-    private static final String DATABASE_NAME = "bankingdemo";
+    public static final String DATABASE_NAME = "bankingdemo";
+
+    public static final String MAX_POOL_SIZE = "MONGO_MAX_POOL_SIZE";
+    public static final String MIN_POOL_SIZE = "MONGO_MIN_POOL_SIZE";
+    public static final String MAX_CONNECTING = "MONGO_MAX_CONNECTING";
+    public static final String MAX_WAIT_TIME_MS = "MONGO_MAX_WAIT_TIME_MS";
+    public static final String CONNECT_TIMEOUT_MS = "MONGO_CONNECT_TIMEOUT_MS";
+    public static final String READ_TIMEOUT_MS = "MONGO_READ_TIMEOUT_MS";
+    public static final String SERVER_SELECTION_TIMEOUT_MS = "MONGO_SERVER_SELECTION_TIMEOUT_MS";
+    public static final String WRITE_CONCERN = "MONGO_WRITE_CONCERN";
+    public static final String READ_CONCERN = "MONGO_READ_CONCERN";
+    public static final String COMPRESSORS = "MONGO_COMPRESSORS";
+
+    private static final Map<String, MongoClient> clients = new ConcurrentHashMap<>();
+    private static final Map<String, com.mongodb.reactivestreams.client.MongoClient> reactiveClients = new ConcurrentHashMap<>();
 
     /**
      * Returns the database with the default name, accessible through a
@@ -19,16 +74,156 @@ public class MongodbConfig {
         return getDatabase(DATABASE_NAME, CONNECTION_STRING);
     }
 
+    /**
+     * Returns the shared client for the connection string defined through an
+     * environment variable.
+     */
+    public static MongoClient getClient() {
+        return getClient(CONNECTION_STRING);
+    }
+
+    /**
+     * Returns the shared client for the specified connection string, creating
+     * it with the settings from the environment if there is none yet.
+     */
+    public static MongoClient getClient(String connectionString) {
+        return clients.computeIfAbsent(connectionString, cs -> {
+            logger.info("Creating shared MongoDB client");
+            return MongoClients.create(buildSettings(cs, System.getenv()));
+        });
+    }
+
+    /**
+     * Returns the shared reactive streams client for the connection string
+     * defined through an environment variable, for use by asynchronous
+     * operations.
+     */
+    public static com.mongodb.reactivestreams.client.MongoClient getReactiveClient() {
+        return reactiveClients.computeIfAbsent(CONNECTION_STRING, cs -> {
+            logger.info("Creating shared reactive MongoDB client");
+            return com.mongodb.reactivestreams.client.MongoClients.create(buildSettings(cs, System.getenv()));
+        });
+    }
+
     /**
      * Returns the database with the specified name, accessible through the
      * specified connection string.
-     * 
+     *
      * @param databaseName the name of the database to connect to
      * @param connectionString specifies details for connecting to that database
      * @return the MongoDatabase corresponding to the input parameters
      */
     public static MongoDatabase getDatabase(String databaseName, String connectionString) {
-        MongoClient client = MongoClients.create(connectionString);
-        return client.getDatabase(databaseName);
+        return getClient(connectionString).getDatabase(databaseName);
+    }
+
+    /**
+     * Closes every shared client, which releases their connections. A later
+     * request for a client creates a new one.
+     */
+    public static void shutdown() {
+        logger.info("Closing {} shared MongoDB client(s)", clients.size() + reactiveClients.size());
+        clients.values().removeIf(client -> {
+            client.close();
+            return true;
+        });
+        reactiveClients.values().removeIf(client -> {
+            client.close();
+            return true;
+        });
+    }
+
+    /**
+     * Builds the settings for a client, starting from those in the connection
+     * string and applying any of the options, listed above, that are present.
+     *
+     * @param connectionString specifies details for connecting to the database
+     * @param options option values, keyed by environment variable name
+     * @return the settings with which to create a client
+     * @throws IllegalArgumentException if an option has an invalid value
+     */
+    public static MongoClientSettings buildSettings(String connectionString, Map<String, String> options) {
+        MongoClientSettings.Builder builder = MongoClientSettings.builder()
+            .applyConnectionString(new ConnectionString(connectionString));
+
+        MongoCommandMetrics metrics = MongoCommandMetrics.getDefault();
+        builder.addCommandListener(metrics);
+        builder.applyToConnectionPoolSettings(pool -> {
+            pool.addConnectionPoolListener(metrics);
+            if (options.containsKey(MAX_POOL_SIZE)) {
+                pool.maxSize(parseInt(options, MAX_POOL_SIZE));
+            }
+            if (options.containsKey(MIN_POOL_SIZE)) {
+                pool.minSize(parseInt(options, MIN_POOL_SIZE));
+            }
+            if (options.containsKey(MAX_CONNECTING)) {
+                pool.maxConnecting(parseInt(options, MAX_CONNECTING));
+            }
+            if (options.containsKey(MAX_WAIT_TIME_MS)) {
+                pool.maxWaitTime(parseInt(options, MAX_WAIT_TIME_MS), TimeUnit.MILLISECONDS);
+            }
+        });
+        builder.applyToSocketSettings(socket -> {
+            if (options.containsKey(CONNECT_TIMEOUT_MS)) {
+                socket.connectTimeout(parseInt(options, CONNECT_TIMEOUT_MS), TimeUnit.MILLISECONDS);
+            }
+            if (options.containsKey(READ_TIMEOUT_MS)) {
+                socket.readTimeout(parseInt(options, READ_TIMEOUT_MS), TimeUnit.MILLISECONDS);
+            }
+        });
+        builder.applyToClusterSettings(cluster -> {
+            if (options.containsKey(SERVER_SELECTION_TIMEOUT_MS)) {
+                cluster.serverSelectionTimeout(parseInt(options, SERVER_SELECTION_TIMEOUT_MS), TimeUnit.MILLISECONDS);
+            }
+        });
+
+        String writeConcern = options.get(WRITE_CONCERN);
+        if (writeConcern != null) {
+            builder.writeConcern("majority".equalsIgnoreCase(writeConcern)
+                ? WriteConcern.MAJORITY
+                : new WriteConcern(parseInt(options, WRITE_CONCERN)));
+        }
+
+        String readConcern = options.get(READ_CONCERN);
+        if (readConcern != null) {
+            builder.readConcern(new ReadConcern(ReadConcernLevel.fromString(readConcern)));
+        }
+
+        String compressors = options.get(COMPRESSORS);
+        if (compressors != null) {
+            builder.compressorList(parseCompressors(compressors));
+        }
+
+        return builder.build();
+    }
+
+    private static List<MongoCompressor> parseCompressors(String names) {
+        List<MongoCompressor> compressors = new ArrayList<>();
+        for (String name : names.split(",")) {
+            switch (name.trim().toLowerCase()) {
+                case "snappy":
+                    compressors.add(MongoCompressor.createSnappyCompressor());
+                    break;
+                case "zstd":
+                    compressors.add(MongoCompressor.createZstdCompressor());
+                    break;
+                case "zlib":
+                    compressors.add(MongoCompressor.createZlibCompressor());
+                    break;
+                case "":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported compressor '" + name.trim() + "' in " + COMPRESSORS);
+            }
+        }
+        return compressors;
+    }
+
+    private static int parseInt(Map<String, String> options, String name) {
+        try {
+            return Integer.parseInt(options.get(name).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value '" + options.get(name) + "' for " + name);
+        }
     }
 }
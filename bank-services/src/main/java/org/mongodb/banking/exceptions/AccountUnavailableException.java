@@ -0,0 +1,14 @@
+package org.mongodb.banking.exceptions;
+
+/**
+ * Exception thrown when an account cannot accept a request for now, either
+ * because it is marked unavailable or because a request with the same
+ * idempotency key is still in progress. Nothing was applied, so the request
+ * may succeed if retried later. It extends IllegalStateException, which was
+ * thrown in these cases previously, so existing callers are unaffected.
+ */
+public class AccountUnavailableException extends IllegalStateException {
+    public AccountUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,20 @@
+package org.mongodb.banking.exceptions;
+
+/**
+ * Exception thrown when a transaction is submitted with an idempotency key
+ * that has already been used for that account. It carries the ID of the
+ * transaction that was previously recorded for that key.
+ */
+public class DuplicateTransactionException extends RuntimeException {
+
+    private final String transactionId;
+
+    public DuplicateTransactionException(String transactionId) {
+        super("Transaction already recorded with ID " + transactionId);
+        this.transactionId = transactionId;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+}
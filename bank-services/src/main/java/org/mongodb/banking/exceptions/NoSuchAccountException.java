@@ -0,0 +1,12 @@
+package org.mongodb.banking.exceptions;
+
+/**
+ * Exception thrown when an operation is attempted on an account that does
+ * not exist. It extends IllegalArgumentException, which was thrown in this
+ * case previously, so existing callers that catch that are unaffected.
+ */
+public class NoSuchAccountException extends IllegalArgumentException {
+    public NoSuchAccountException(String bankName) {
+        super("Bank with name '" + bankName + "' does not exist.");
+    }
+}
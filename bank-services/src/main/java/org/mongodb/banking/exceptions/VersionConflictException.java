@@ -0,0 +1,13 @@
+package org.mongodb.banking.exceptions;
+
+/**
+ * Exception thrown when a write that is conditional on the version of an
+ * account is rejected, because the account was changed since that version
+ * was read (e.g., by another instance of the service). Nothing was written,
+ * so the account can be read again and the write retried.
+ */
+public class VersionConflictException extends RuntimeException {
+    public VersionConflictException(String bankName, long expectedVersion) {
+        super("Bank '" + bankName + "' was changed since version " + expectedVersion);
+    }
+}
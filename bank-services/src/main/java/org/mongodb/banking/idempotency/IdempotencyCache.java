@@ -0,0 +1,236 @@
+package org.mongodb.banking.idempotency;
+
+import org.bson.Document;
+import org.mongodb.banking.repository.AsyncBankRepository;
+import org.mongodb.banking.repository.BankRepository;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the transaction ID associated with each idempotency key, so that
+ * a duplicate request returns the result of the original one. It is shared by
+ * all accounts and checks three tiers in turn:
+ *
+ * <ol>
+ *   <li>a bounded, least-recently-used map of recent keys, whose entries also
+ *       expire after a fixed time</li>
+ *   <li>a Bloom filter, which identifies keys that are definitely new without
+ *       any I/O</li>
+ *   <li>the transactions recorded in the repository, which are only consulted
+ *       when the Bloom filter reports that the key might have been used</li>
+ * </ol>
+ *
+ * The map of recent keys is split into shards, chosen by the hash of the key,
+ * each with its own lock and an equal share of the entries, so that requests
+ * for unrelated accounts rarely wait for one another. Each shard evicts its own
+ * least recently used key, which approximates doing so across all of them.
+ *
+ * The Bloom filter is replaced by a fresh one after a set number of additions,
+ * keeping the previous generation for lookups, so that its false positive rate
+ * does not grow without bound. A key that has aged out of both generations is
+ * treated as new here, but is still rejected as a duplicate by the repository,
+ * which keeps a record of every key it has applied and writes nothing for a
+ * key that it has already recorded. In MongoDB, that record is a document in
+ * the transactions collection, inserted in the same transaction as the balance
+ * update, and the unique index on its account name and key both rejects the
+ * duplicate and serves the lookups made by the third tier.
+ */
+public class IdempotencyCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyCache.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+    public static final int DEFAULT_BLOOM_CAPACITY = 1_000_000;
+
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+
+    // the number of shards the recent keys are split into; must be a power of two
+    private static final int SHARDS = 64;
+
+    private final BankRepository repository;
+    private final long ttlMillis;
+    private final int bloomCapacity;
+    private final List<Map<String, CachedId>> recent;
+
+    private final AtomicInteger bloomInsertions = new AtomicInteger();
+    private volatile BloomFilter currentFilter;
+    private volatile BloomFilter previousFilter;
+
+    public IdempotencyCache(BankRepository repository) {
+        this(repository, DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS, DEFAULT_BLOOM_CAPACITY);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param repository used to look up keys that might have been seen before
+     * @param maxEntries the maximum number of keys held in memory
+     * @param ttlMillis how long a key is held in memory after it was recorded
+     * @param bloomCapacity how many keys each Bloom filter generation holds
+     */
+    public IdempotencyCache(BankRepository repository, int maxEntries, long ttlMillis, int bloomCapacity) {
+        this.repository = repository;
+        this.ttlMillis = ttlMillis;
+        this.bloomCapacity = bloomCapacity;
+        this.currentFilter = new BloomFilter(bloomCapacity, BLOOM_FALSE_POSITIVE_RATE);
+
+        int maxEntriesPerShard = Math.max(1, maxEntries / SHARDS);
+        this.recent = new ArrayList<>(SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            recent.add(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedId> eldest) {
+                    return size() > maxEntriesPerShard;
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads the most recent transactions from the repository, so that duplicate
+     * requests received shortly after a restart are recognized from memory.
+     *
+     * @param limit the maximum number of transactions to load
+     */
+    public void warmUp(int limit) {
+        List<Document> transactions = repository.findRecentTransactions(limit);
+
+        // added oldest first, so the most recent ones are kept if there are more
+        // transactions than entries in the map
+        for (int i = transactions.size() - 1; i >= 0; i--) {
+            Document transaction = transactions.get(i);
+            record(transaction.getString("bankName"),
+                transaction.getString("idempotencyKey"),
+                transaction.getString("transactionId"));
+        }
+        logger.info("Loaded {} recent transactions into the idempotency cache", transactions.size());
+    }
+
+    /**
+     * Returns the transaction ID for this key, if it is held in memory. This
+     * never performs I/O.
+     *
+     * @return the transaction ID, or null if the key is not held in memory
+     */
+    public String get(String bankName, String idempotencyKey) {
+        String cacheKey = cacheKey(bankName, idempotencyKey);
+        Map<String, CachedId> shard = shardFor(cacheKey);
+        synchronized (shard) {
+            CachedId entry = shard.get(cacheKey);
+            if (entry == null) {
+                return null;
+            }
+            if (System.currentTimeMillis() - entry.createdAt > ttlMillis) {
+                shard.remove(cacheKey);
+                return null;
+            }
+            return entry.transactionId;
+        }
+    }
+
+    /**
+     * Returns the transaction ID for this key, if it was used previously. If
+     * the key is not held in memory, this consults the Bloom filter and then,
+     * only if the key might have been used, the repository.
+     *
+     * @return the transaction ID, or null if the key has not been used
+     */
+    public String lookup(String bankName, String idempotencyKey) {
+        String transactionId = get(bankName, idempotencyKey);
+        if (transactionId != null) {
+            return transactionId;
+        }
+
+        if (!mightContain(cacheKey(bankName, idempotencyKey))) {
+            return null;
+        }
+
+        transactionId = repository.findTransactionId(bankName, idempotencyKey);
+        if (transactionId != null) {
+            record(bankName, idempotencyKey, transactionId);
+        }
+        return transactionId;
+    }
+
+    /**
+     * Returns the transaction ID for this key, as lookup does, except that the
+     * repository is consulted through an asynchronous one, so the calling
+     * thread is never blocked.
+     *
+     * @param repository used to look up keys that might have been seen before
+     * @return a future that completes with the transaction ID, or with null if
+     *         the key has not been used
+     */
+    public CompletableFuture<String> lookupAsync(String bankName, String idempotencyKey, AsyncBankRepository repository) {
+        String transactionId = get(bankName, idempotencyKey);
+        if (transactionId != null || !mightContain(cacheKey(bankName, idempotencyKey))) {
+            return CompletableFuture.completedFuture(transactionId);
+        }
+
+        return repository.findTransactionId(bankName, idempotencyKey).thenApply(found -> {
+            if (found != null) {
+                record(bankName, idempotencyKey, found);
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Records the transaction ID associated with this key.
+     */
+    public void record(String bankName, String idempotencyKey, String transactionId) {
+        String cacheKey = cacheKey(bankName, idempotencyKey);
+        Map<String, CachedId> shard = shardFor(cacheKey);
+        synchronized (shard) {
+            shard.put(cacheKey, new CachedId(transactionId, System.currentTimeMillis()));
+        }
+
+        currentFilter.add(cacheKey);
+        if (bloomInsertions.incrementAndGet() >= bloomCapacity) {
+            rotateFilters();
+        }
+    }
+
+    private boolean mightContain(String cacheKey) {
+        BloomFilter previous = previousFilter;
+        return currentFilter.mightContain(cacheKey) || (previous != null && previous.mightContain(cacheKey));
+    }
+
+    private synchronized void rotateFilters() {
+        if (bloomInsertions.get() < bloomCapacity) {
+            return; // another thread already did it
+        }
+        logger.debug("Starting a new Bloom filter generation");
+        previousFilter = currentFilter;
+        currentFilter = new BloomFilter(bloomCapacity, BLOOM_FALSE_POSITIVE_RATE);
+        bloomInsertions.set(0);
+    }
+
+    private Map<String, CachedId> shardFor(String cacheKey) {
+        int hash = cacheKey.hashCode();
+        return recent.get((hash ^ (hash >>> 16)) & (SHARDS - 1));
+    }
+
+    private static String cacheKey(String bankName, String idempotencyKey) {
+        return bankName + '\u0000' + idempotencyKey;
+    }
+
+    private static class CachedId {
+        private final String transactionId;
+        private final long createdAt;
+
+        CachedId(String transactionId, long createdAt) {
+            this.transactionId = transactionId;
+            this.createdAt = createdAt;
+        }
+    }
+}
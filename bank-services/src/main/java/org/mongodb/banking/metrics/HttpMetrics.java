@@ -0,0 +1,170 @@
+package org.mongodb.banking.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Records the number of requests to each route, how many failed, how many are
+ * in progress, and their latencies. Only the routes that are added are
+ * recorded individually, and requests for any other path are counted under
+ * OTHER. Requests are also counted by account, but only for a limited number
+ * of accounts, beyond which they are counted under OTHER, so the memory used
+ * does not grow with the number of accounts. Requests naming an account that
+ * does not exist are always counted under OTHER, so that they cannot use up
+ * the accounts counted individually.
+ */
+public class HttpMetrics {
+
+    public static final String OTHER = "_other";
+
+    public static final int DEFAULT_MAX_BANKS = 100;
+
+    private final Map<String, RouteStats> routes = new ConcurrentHashMap<>();
+    private final Map<String, BankStats> banks = new ConcurrentHashMap<>();
+    private final int maxBanks;
+    private final Predicate<String> isAccount;
+
+    public HttpMetrics() {
+        this(DEFAULT_MAX_BANKS, bankName -> true);
+    }
+
+    public HttpMetrics(Predicate<String> isAccount) {
+        this(DEFAULT_MAX_BANKS, isAccount);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxBanks the most accounts for which requests are counted
+     *        individually
+     * @param isAccount whether a name is that of an existing account, which
+     *        is checked once for each name not yet counted individually, so
+     *        it should not perform I/O
+     */
+    public HttpMetrics(int maxBanks, Predicate<String> isAccount) {
+        this.routes.put(OTHER, new RouteStats());
+        this.banks.put(OTHER, new BankStats());
+        this.maxBanks = maxBanks;
+        this.isAccount = isAccount;
+    }
+
+    /**
+     * Records the requests for this path individually.
+     */
+    public void addRoute(String path) {
+        routes.putIfAbsent(path, new RouteStats());
+    }
+
+    /**
+     * Called when a request is received.
+     */
+    public void requestStarted(String path) {
+        route(path).inFlight.increment();
+    }
+
+    /**
+     * Called when the response to a request has been prepared.
+     *
+     * @param path the path of the request
+     * @param bankName the account to which it applies, or null if none
+     * @param status the HTTP status code of the response
+     * @param elapsedMicros the time taken to handle the request
+     */
+    public void requestFinished(String path, String bankName, int status, long elapsedMicros) {
+        boolean failed = status >= 400;
+        RouteStats route = route(path);
+        route.inFlight.decrement();
+        if (failed) {
+            route.latency.recordFailure(elapsedMicros, TimeUnit.MICROSECONDS);
+        } else {
+            route.latency.record(elapsedMicros, TimeUnit.MICROSECONDS);
+        }
+
+        if (bankName != null) {
+            BankStats bank = bank(bankName);
+            bank.requests.increment();
+            if (failed) {
+                bank.errors.increment();
+            }
+        }
+    }
+
+    /**
+     * Returns the latencies of the requests to each route.
+     */
+    public Map<String, LatencyStats> getLatencies() {
+        Map<String, LatencyStats> latencies = new TreeMap<>();
+        routes.forEach((path, stats) -> latencies.put(path, stats.latency));
+        return latencies;
+    }
+
+    public long getInFlight(String path) {
+        return route(path).inFlight.sum();
+    }
+
+    /**
+     * Returns the number of requests for each account counted individually,
+     * along with those for every other account under OTHER.
+     */
+    public Map<String, Long> getBankRequests() {
+        Map<String, Long> requests = new TreeMap<>();
+        banks.forEach((name, stats) -> requests.put(name, stats.requests.sum()));
+        return requests;
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format.
+     */
+    public void writeTo(PrometheusWriter writer) {
+        Map<String, Long> requests = new TreeMap<>();
+        Map<String, Long> errors = new TreeMap<>();
+        Map<String, Long> inFlight = new TreeMap<>();
+        routes.forEach((path, stats) -> {
+            requests.put(path, stats.latency.getCount());
+            errors.put(path, stats.latency.getFailures());
+            inFlight.put(path, stats.inFlight.sum());
+        });
+
+        Map<String, Long> bankErrors = new TreeMap<>();
+        banks.forEach((name, stats) -> bankErrors.put(name, stats.errors.sum()));
+
+        writer.counter("bank_http_requests_total", "Requests handled, by route.", "route", requests)
+            .counter("bank_http_request_errors_total", "Requests that failed, by route.", "route", errors)
+            .gauge("bank_http_requests_in_flight", "Requests in progress, by route.", "route", inFlight)
+            .summary("bank_http_request_duration_seconds", "Time taken to handle requests, by route.", "route", getLatencies())
+            .counter("bank_http_bank_requests_total", "Requests handled, by account.", "bank", getBankRequests())
+            .counter("bank_http_bank_request_errors_total", "Requests that failed, by account.", "bank", bankErrors);
+    }
+
+    private RouteStats route(String path) {
+        RouteStats stats = routes.get(path);
+        return (stats != null) ? stats : routes.get(OTHER);
+    }
+
+    private BankStats bank(String bankName) {
+        BankStats stats = banks.get(bankName);
+        if (stats != null) {
+            return stats;
+        }
+        // the limit may be exceeded slightly by concurrent requests, but no more
+        // than by the number of threads
+        if (banks.size() > maxBanks || !isAccount.test(bankName)) {
+            return banks.get(OTHER);
+        }
+        return banks.computeIfAbsent(bankName, name -> new BankStats());
+    }
+
+    private static class RouteStats {
+        private final LatencyStats latency = new LatencyStats();
+        private final LongAdder inFlight = new LongAdder();
+    }
+
+    private static class BankStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+    }
+}
@@ -0,0 +1,84 @@
+package org.mongodb.banking.metrics;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the latency of one kind of operation, in microseconds, in an HDR
+ * histogram, along with the number of those operations that failed. Recording
+ * is thread-safe and does not allocate.
+ */
+public class LatencyStats {
+
+    // the most latency recorded exactly; longer ones are recorded as this
+    private static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final Histogram histogram = new ConcurrentHistogram(MAX_MICROS, 3);
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+
+    /**
+     * Records an operation that completed successfully.
+     */
+    public void record(long elapsed, TimeUnit unit) {
+        long micros = unit.toMicros(elapsed);
+        histogram.recordValue(Math.min(micros, MAX_MICROS));
+        totalMicros.add(micros);
+    }
+
+    /**
+     * Records an operation that failed. It is counted in the histogram as
+     * well, since a failure also takes time.
+     */
+    public void recordFailure(long elapsed, TimeUnit unit) {
+        failures.increment();
+        record(elapsed, unit);
+    }
+
+    public long getCount() {
+        return histogram.getTotalCount();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Returns the sum of every latency recorded, in microseconds.
+     */
+    public long getTotalMicros() {
+        return totalMicros.sum();
+    }
+
+    /**
+     * Returns the latency at the specified percentile, in microseconds.
+     */
+    public long getPercentile(double percentile) {
+        return histogram.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Summarizes the recorded latencies, in microseconds.
+     *
+     * @return the count, failures, mean, median, 90th, 99th and 99.9th
+     *         percentiles, and maximum, in that order
+     */
+    public Map<String, Object> summarize() {
+        Histogram copy = histogram.copy();
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", copy.getTotalCount());
+        summary.put("failures", failures.sum());
+        summary.put("meanMicros", Math.round(copy.getMean()));
+        summary.put("p50Micros", copy.getValueAtPercentile(50));
+        summary.put("p90Micros", copy.getValueAtPercentile(90));
+        summary.put("p99Micros", copy.getValueAtPercentile(99));
+        summary.put("p999Micros", copy.getValueAtPercentile(99.9));
+        summary.put("maxMicros", copy.getMaxValue());
+        return summary;
+    }
+}
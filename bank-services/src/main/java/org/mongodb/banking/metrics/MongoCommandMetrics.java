@@ -0,0 +1,127 @@
+package org.mongodb.banking.metrics;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import org.bson.BsonValue;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long MongoDB takes to respond to each command, by collection
+ * and command name (for example, {@code accounts.findAndModify}), and how long
+ * each request waits to check out a connection from the pool. Registered with
+ * every client created by MongodbConfig, so that the time spent in MongoDB can
+ * be distinguished from the time spent in the service itself.
+ */
+public class MongoCommandMetrics implements CommandListener, ConnectionPoolListener {
+
+    private static final MongoCommandMetrics DEFAULT = new MongoCommandMetrics();
+
+    // the name of each command in progress, by request ID, since only the
+    // started event includes the collection
+    private final Map<Integer, String> inProgress = new ConcurrentHashMap<>();
+    private final Map<String, LatencyStats> commands = new ConcurrentHashMap<>();
+    private final LatencyStats checkOut = new LatencyStats();
+
+    /**
+     * Returns the instance shared by every client.
+     */
+    public static MongoCommandMetrics getDefault() {
+        return DEFAULT;
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        inProgress.put(event.getRequestId(), metricName(event));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        String name = inProgress.remove(event.getRequestId());
+        getStats(name != null ? name : event.getCommandName())
+            .record(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        String name = inProgress.remove(event.getRequestId());
+        getStats(name != null ? name : event.getCommandName())
+            .recordFailure(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        checkOut.record(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        checkOut.recordFailure(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the latencies of the commands of each kind, keyed by collection
+     * and command name, or just the command name for commands that do not
+     * apply to a collection.
+     */
+    public Map<String, LatencyStats> getCommandStats() {
+        return new TreeMap<>(commands);
+    }
+
+    /**
+     * Returns the time taken to check out a connection from the pool.
+     */
+    public LatencyStats getCheckOutStats() {
+        return checkOut;
+    }
+
+    /**
+     * Summarizes every latency recorded so far, in microseconds.
+     */
+    public Map<String, Object> summarize() {
+        Map<String, Object> summary = new TreeMap<>();
+        for (Map.Entry<String, LatencyStats> entry : commands.entrySet()) {
+            summary.put(entry.getKey(), entry.getValue().summarize());
+        }
+        return Map.of("commands", summary, "connectionCheckOut", checkOut.summarize());
+    }
+
+    /**
+     * Writes every latency in the Prometheus text exposition format.
+     */
+    public void writeTo(PrometheusWriter writer) {
+        Map<String, LatencyStats> stats = getCommandStats();
+        Map<String, Long> failures = new TreeMap<>();
+        stats.forEach((name, latency) -> failures.put(name, latency.getFailures()));
+
+        writer.summary("bank_mongo_command_duration_seconds", "Time taken by MongoDB commands, by collection and command.", "command", stats)
+            .counter("bank_mongo_command_failures_total", "MongoDB commands that failed, by collection and command.", "command", failures)
+            .summary("bank_mongo_connection_checkout_seconds", "Time taken to check out a connection from the pool.", "pool", Map.of("default", checkOut))
+            .counter("bank_mongo_connection_checkout_failures_total", "Failed checkouts from the connection pool.", "pool", Map.of("default", checkOut.getFailures()));
+    }
+
+    private LatencyStats getStats(String name) {
+        return commands.computeIfAbsent(name, k -> new LatencyStats());
+    }
+
+    /**
+     * For commands that apply to a collection, such as find, the value of the
+     * command name field is the collection name.
+     */
+    private static String metricName(CommandStartedEvent event) {
+        String commandName = event.getCommandName();
+        BsonValue target = event.getCommand().get(commandName);
+        if (target != null && target.isString()) {
+            return target.asString().getValue() + "." + commandName;
+        }
+        return commandName;
+    }
+}
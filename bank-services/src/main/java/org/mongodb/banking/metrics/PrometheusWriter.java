@@ -0,0 +1,85 @@
+package org.mongodb.banking.metrics;
+
+import java.util.Map;
+
+/**
+ * Writes metrics in the Prometheus text exposition format. Each metric has
+ * at most one label, whose values are escaped as the format requires.
+ */
+public class PrometheusWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final StringBuilder out = new StringBuilder();
+
+    public PrometheusWriter counter(String name, String help, String label, Map<String, ? extends Number> values) {
+        return samples(name, help, "counter", label, values);
+    }
+
+    public PrometheusWriter gauge(String name, String help, String label, Map<String, ? extends Number> values) {
+        return samples(name, help, "gauge", label, values);
+    }
+
+    /**
+     * Writes a summary, in seconds, for each set of latencies, with their
+     * median, 90th, 99th and 99.9th percentiles.
+     */
+    public PrometheusWriter summary(String name, String help, String label, Map<String, LatencyStats> values) {
+        header(name, help, "summary");
+        for (Map.Entry<String, LatencyStats> entry : values.entrySet()) {
+            LatencyStats stats = entry.getValue();
+            for (double quantile : QUANTILES) {
+                out.append(name).append('{').append(label).append("=\"");
+                escape(entry.getKey());
+                out.append("\",quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(stats.getPercentile(quantile * 100))).append('\n');
+            }
+            sample(name + "_sum", label, entry.getKey(), seconds(stats.getTotalMicros()));
+            sample(name + "_count", label, entry.getKey(), stats.getCount());
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private PrometheusWriter samples(String name, String help, String type, String label, Map<String, ? extends Number> values) {
+        header(name, help, type);
+        for (Map.Entry<String, ? extends Number> entry : values.entrySet()) {
+            sample(name, label, entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    private void header(String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private void sample(String name, String label, String labelValue, Number value) {
+        out.append(name).append('{').append(label).append("=\"");
+        escape(labelValue);
+        out.append("\"} ").append(value).append('\n');
+    }
+
+    private void escape(String labelValue) {
+        for (int i = 0; i < labelValue.length(); i++) {
+            char c = labelValue.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private static double seconds(long micros) {
+        return micros / 1_000_000.0;
+    }
+}
@@ -0,0 +1,36 @@
+package org.mongodb.banking.repository;
+
+/**
+ * Receives the changes to the accounts and their availability made through
+ * the repository, including those made by other instances of the service.
+ * Every method is called on the thread that follows the changes, so none
+ * should block for long.
+ */
+public interface AccountChangeListener {
+
+    void accountCreated(String bankName, int balance, long version);
+
+    /**
+     * Called when the balance of an account changes. The version increases
+     * with every change to the account, so a change whose version is no newer
+     * than one already seen can be ignored.
+     */
+    void accountChanged(String bankName, int balance, long version);
+
+    void accountDeleted(String bankName);
+
+    void availabilityChanged(String bankName, boolean available);
+
+    /**
+     * Called when changes to the accounts may have been missed, such as when
+     * following them starts or restarts from the present, so whatever the
+     * listener holds should be read again.
+     */
+    void accountsReset();
+
+    /**
+     * Called when changes to the availability of the accounts may have been
+     * missed, as for accountsReset.
+     */
+    void availabilityReset();
+}
@@ -0,0 +1,256 @@
+package org.mongodb.banking.repository;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Projections.include;
+
+/**
+ * Follows the changes to the accounts and availability collections through
+ * change streams, which require a replica set or sharded cluster, and passes
+ * them to a listener. This lets each instance of the service keep what it
+ * holds in memory up to date with the writes made by every other instance.
+ * Each collection is followed by its own daemon thread. If a stream fails, it
+ * is opened again after the resume token of the last change it returned, so
+ * no change is missed unless the server no longer has it, in which case the
+ * stream starts again from the present and the listener is reset.
+ */
+public class AccountChangeWatcher implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccountChangeWatcher.class);
+
+    // how long each wait for a change lasts, which bounds how long close takes
+    private static final long MAX_AWAIT_MILLIS = 1_000;
+
+    // how long to wait before opening a stream again after it failed
+    private static final long RETRY_DELAY_MILLIS = 1_000;
+
+    // the server no longer has the changes after the resume token
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+    private static final int CHANGE_STREAM_FATAL_ERROR = 280;
+
+    private static final List<String> CHANGES = List.of("insert", "update", "replace", "delete");
+
+    // only the fields used are sent, rather than the whole description of each update
+    private static final List<Bson> ACCOUNT_PIPELINE = List.of(
+        Aggregates.match(in("operationType", CHANGES)),
+        Aggregates.project(include("operationType", "documentKey",
+            "fullDocument.bankName", "fullDocument.balance", "fullDocument.version")));
+
+    private static final List<Bson> AVAILABILITY_PIPELINE = List.of(
+        Aggregates.match(in("operationType", CHANGES)),
+        Aggregates.project(include("operationType", "documentKey")));
+
+    private final MongoCollection<Document> accountsCollection;
+    private final MongoCollection<Document> availabilityCollection;
+    private final AccountChangeListener listener;
+
+    // A deleted account is identified only by its ID, so this maps the ID of
+    // every account to its name. It is used only by the accounts thread.
+    private final Map<BsonValue, String> namesById = new HashMap<>();
+
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+
+    public AccountChangeWatcher(MongoDatabase database, AccountChangeListener listener) {
+        this.accountsCollection = database.getCollection("accounts");
+        this.availabilityCollection = database.getCollection(BankRepositoryImpl.AVAILABILITY_COLLECTION);
+        this.listener = listener;
+    }
+
+    /**
+     * Starts following both collections. Changes made before this is called
+     * are not reported, so the listener is reset once each stream is open.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+
+        startThread("change-stream-accounts", new Stream(accountsCollection, ACCOUNT_PIPELINE,
+            FullDocument.UPDATE_LOOKUP, this::accountChanged, this::resetAccounts));
+        startThread("change-stream-availability", new Stream(availabilityCollection, AVAILABILITY_PIPELINE,
+            FullDocument.DEFAULT, this::availabilityChanged, listener::availabilityReset));
+    }
+
+    /**
+     * Stops following the changes, waiting briefly for each thread to finish.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        for (Thread thread : threads) {
+            try {
+                thread.join(2 * MAX_AWAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        threads.clear();
+    }
+
+    private void startThread(String name, Stream stream) {
+        Thread thread = new Thread(() -> follow(stream), name);
+        thread.setDaemon(true);
+        thread.start();
+        threads.add(thread);
+    }
+
+    /**
+     * Reports the changes from a stream until closed, opening the stream again
+     * whenever it fails.
+     */
+    private void follow(Stream stream) {
+        String collectionName = stream.collection.getNamespace().getCollectionName();
+        BsonDocument resumeToken = null;
+        while (running) {
+            ChangeStreamIterable<Document> changes = stream.collection.watch(stream.pipeline)
+                .fullDocument(stream.fullDocument)
+                .maxAwaitTime(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS);
+            if (resumeToken != null) {
+                changes = changes.resumeAfter(resumeToken);
+            }
+
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = changes.cursor()) {
+                if (resumeToken == null) {
+                    logger.info("Following changes to '{}'", collectionName);
+                    stream.reset.run();
+                }
+                while (running) {
+                    ChangeStreamDocument<Document> change = cursor.tryNext();
+                    if (change != null && change.getOperationType() == OperationType.INVALIDATE) {
+                        // the collection was dropped or renamed, so start again
+                        logger.warn("Changes to '{}' can no longer be followed, starting again", collectionName);
+                        resumeToken = null;
+                        break;
+                    }
+                    if (change != null) {
+                        report(stream, change);
+                    }
+                    // this advances even when no change matched the pipeline,
+                    // so a stream opened again does not examine those again
+                    BsonDocument token = cursor.getResumeToken();
+                    if (token != null) {
+                        resumeToken = token;
+                    }
+                }
+            } catch (MongoException e) {
+                if (!running) {
+                    return;
+                }
+                if (e.getCode() == CHANGE_STREAM_HISTORY_LOST || e.getCode() == CHANGE_STREAM_FATAL_ERROR) {
+                    logger.warn("Unable to resume changes to '{}', starting again from the present", collectionName, e);
+                    resumeToken = null;
+                } else {
+                    logger.warn("Following changes to '{}' failed, resuming", collectionName, e);
+                }
+                pause();
+            } catch (RuntimeException e) {
+                logger.error("Unable to reset the listener for '{}', trying again", collectionName, e);
+                pause();
+            }
+        }
+    }
+
+    // a failure in the listener must not stop the stream
+    private void report(Stream stream, ChangeStreamDocument<Document> change) {
+        try {
+            stream.handler.accept(change);
+        } catch (RuntimeException e) {
+            logger.error("Unable to apply change to '{}'", change.getDocumentKey(), e);
+        }
+    }
+
+    private void accountChanged(ChangeStreamDocument<Document> change) {
+        BsonValue id = change.getDocumentKey().get("_id");
+        if (change.getOperationType() == OperationType.DELETE) {
+            String bankName = namesById.remove(id);
+            if (bankName != null) {
+                listener.accountDeleted(bankName);
+            }
+            return;
+        }
+
+        // null if the account was deleted before it was looked up, in which
+        // case the deletion follows
+        Document account = change.getFullDocument();
+        if (account == null) {
+            return;
+        }
+        String bankName = account.getString("bankName");
+        int balance = account.getInteger("balance");
+        // accounts created by earlier versions of the service have none
+        Number storedVersion = account.get("version", Number.class);
+        long version = (storedVersion == null) ? 0 : storedVersion.longValue();
+        namesById.put(id, bankName);
+        if (change.getOperationType() == OperationType.INSERT) {
+            listener.accountCreated(bankName, balance, version);
+        } else {
+            listener.accountChanged(bankName, balance, version);
+        }
+    }
+
+    // the document for an unavailable account exists only while it is unavailable
+    private void availabilityChanged(ChangeStreamDocument<Document> change) {
+        String bankName = change.getDocumentKey().getString("_id").getValue();
+        listener.availabilityChanged(bankName, change.getOperationType() == OperationType.DELETE);
+    }
+
+    private void resetAccounts() {
+        namesById.clear();
+        for (BsonDocument account : accountsCollection.withDocumentClass(BsonDocument.class)
+                .find().projection(include("bankName"))) {
+            namesById.put(account.get("_id"), account.getString("bankName").getValue());
+        }
+        listener.accountsReset();
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(RETRY_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private static class Stream {
+        private final MongoCollection<Document> collection;
+        private final List<Bson> pipeline;
+        private final FullDocument fullDocument;
+        private final Consumer<ChangeStreamDocument<Document>> handler;
+        private final Runnable reset;
+
+        Stream(MongoCollection<Document> collection, List<Bson> pipeline, FullDocument fullDocument,
+                Consumer<ChangeStreamDocument<Document>> handler, Runnable reset) {
+            this.collection = collection;
+            this.pipeline = pipeline;
+            this.fullDocument = fullDocument;
+            this.handler = handler;
+            this.reset = reset;
+        }
+    }
+}
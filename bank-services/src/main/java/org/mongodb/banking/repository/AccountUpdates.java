@@ -0,0 +1,120 @@
+package org.mongodb.banking.repository;
+
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.mongodb.banking.exceptions.InsufficientFundsException;
+import org.mongodb.banking.exceptions.NoSuchAccountException;
+import org.mongodb.banking.exceptions.VersionConflictException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+
+/**
+ * Builds the writes that apply a deposit or withdrawal to an account, so that
+ * the synchronous and asynchronous repositories apply exactly the same checks.
+ * Each transaction is a document in the transactions collection, whose unique
+ * index on the account name and idempotency key rejects a key that was used
+ * before, and a conditional update of the account's balance. Both are written
+ * in one MongoDB transaction, so either both are applied or neither is.
+ */
+final class AccountUpdates {
+
+    static final String TRANSACTIONS_COLLECTION = "transactions";
+
+    static final FindOneAndUpdateOptions RETURN_BALANCE = new FindOneAndUpdateOptions()
+        .projection(include("balance"))
+        .returnDocument(ReturnDocument.AFTER);
+
+    private AccountUpdates() {
+    }
+
+    /**
+     * The record of a transaction, as inserted into the transactions collection.
+     */
+    static Document transactionRecord(String type, int amount, String transactionId, String idempotencyKey,
+            String bankName, Date timestamp) {
+        return new Document("bankName", bankName)
+            .append("idempotencyKey", idempotencyKey)
+            .append("transactionId", transactionId)
+            .append("type", type)
+            .append("amount", amount)
+            .append("timestamp", timestamp);
+    }
+
+    /**
+     * The account only matches if, for a withdrawal, the balance covers it, so
+     * the check and the update happen together on the server.
+     */
+    static Bson transactionFilter(String type, int amount, String bankName) {
+        Bson filter = eq("bankName", bankName);
+        if ("withdraw".equals(type)) {
+            filter = and(filter, gte("balance", amount));
+        }
+        return filter;
+    }
+
+    /**
+     * The account only matches if its balance covers the net change of a
+     * batch and, unless any version is accepted, it is at the expected
+     * version. Accounts created by earlier versions of the service have no
+     * version field, which is treated as version 0.
+     */
+    static Bson batchFilter(String bankName, int delta, long expectedVersion) {
+        List<Bson> conditions = new ArrayList<>(3);
+        conditions.add(eq("bankName", bankName));
+        if (delta < 0) {
+            conditions.add(gte("balance", -delta));
+        }
+        if (expectedVersion != BankRepository.ANY_VERSION) {
+            conditions.add((expectedVersion == 0) ? in("version", 0L, null) : eq("version", expectedVersion));
+        }
+        return and(conditions);
+    }
+
+    static Bson transactionUpdate(String type, int amount) {
+        return combine(
+            inc("balance", "withdraw".equals(type) ? -amount : amount),
+            inc("version", 1L));
+    }
+
+    /**
+     * Determines why a conditional update matched no account. This only runs
+     * after an update was rejected, so it adds no cost to the usual case.
+     *
+     * @param account the account, or null if it does not exist
+     */
+    static RuntimeException explainRejection(Document account, String bankName, int amount) {
+        if (account == null) {
+            return new NoSuchAccountException(bankName);
+        }
+        return new InsufficientFundsException("Insufficient funds: balance=" + account.getInteger("balance") + ", withdrawal=" + amount);
+    }
+
+    /**
+     * Determines why an update built by batchFilter matched no account.
+     *
+     * @param account the account, or null if it does not exist
+     */
+    static RuntimeException explainBatchRejection(Document account, String bankName, int delta, long expectedVersion) {
+        if (account == null) {
+            return new NoSuchAccountException(bankName);
+        }
+        Number version = account.get("version", Number.class);
+        long actualVersion = (version == null) ? 0 : version.longValue();
+        if (expectedVersion != BankRepository.ANY_VERSION && actualVersion != expectedVersion) {
+            return new VersionConflictException(bankName, expectedVersion);
+        }
+        return new InsufficientFundsException("Insufficient funds: balance=" + account.getInteger("balance") + ", withdrawal=" + -delta);
+    }
+}
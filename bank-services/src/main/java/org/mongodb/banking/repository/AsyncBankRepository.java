@@ -0,0 +1,38 @@
+package org.mongodb.banking.repository;
+
+import org.bson.Document;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The asynchronous counterpart of the BankRepository operations used on the
+ * path of every request. None of these methods blocks: each returns a future
+ * that completes once the database has responded, so the calling thread is
+ * free to handle other requests in the meantime. The futures may complete on
+ * a thread owned by the driver, so dependent stages must not block.
+ */
+public interface AsyncBankRepository {
+
+    /**
+     * @see BankRepository#findAccountByBankName
+     * @return a future that completes with the account, or null if it does not exist
+     */
+    CompletableFuture<Document> findAccountByBankName(String bankName);
+
+    /**
+     * Applies a deposit or withdrawal as a single atomic operation, with the
+     * same checks as BankRepository.applyTransaction.
+     *
+     * @return a future that completes with the balance of the account after
+     *         applying the transaction, or exceptionally with the exception
+     *         that BankRepository.applyTransaction would have thrown
+     * @see BankRepository#applyTransaction
+     */
+    CompletableFuture<Integer> applyTransaction(String type, int amount, String transactionId, String idempotencyKey, String bankName);
+
+    /**
+     * @see BankRepository#findTransactionId
+     * @return a future that completes with the transaction ID, or null if there is none
+     */
+    CompletableFuture<String> findTransactionId(String bankName, String idempotencyKey);
+}
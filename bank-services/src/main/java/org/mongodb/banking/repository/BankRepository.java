@@ -1,20 +1,107 @@
 package org.mongodb.banking.repository;
 
 import org.bson.Document;
+import org.mongodb.banking.exceptions.NoSuchAccountException;
 
 import java.util.List;
 
 public interface BankRepository {
 
+    /**
+     * Passed to applyTransactions to apply a batch whatever the version of
+     * the account.
+     */
+    long ANY_VERSION = -1;
+
     Document findAccountByBankName(String bankName);
 
     void updateBalance(String bankName, int newBalance);
 
-    void logTransaction(String type, int amount, String transactionId, String idempotencyKey, String bankName);
+    /**
+     * Adjusts the balance of the account by the amount of a deposit or withdrawal and
+     * records the transaction in the account's history, as a single atomic operation.
+     * A withdrawal is only applied if the balance covers it, and nothing is applied if
+     * a transaction with the same idempotency key is recorded for the account, however
+     * long ago. Each change also increments the version number of the account.
+     *
+     * @return the balance of the account after applying the transaction
+     * @throws org.mongodb.banking.exceptions.InsufficientFundsException if a withdrawal exceeds the balance
+     * @throws org.mongodb.banking.exceptions.DuplicateTransactionException if the key was already used
+     * @throws NoSuchAccountException if the account does not exist
+     */
+    int applyTransaction(String type, int amount, String transactionId, String idempotencyKey, String bankName);
+
+    /**
+     * Applies a batch of deposits and withdrawals to one account, and records
+     * them, as a single atomic operation. Each transaction is a document with
+     * the type, amount, transactionId and idempotencyKey fields. Unlike
+     * applyTransaction, this does not check each withdrawal in turn, since the
+     * caller is expected to have done so, but nothing is applied unless the
+     * balance covers the net change of the batch, unless the account is still
+     * at the expected version, or if any of the keys is already recorded for
+     * the account. The version is then incremented once for each transaction.
+     *
+     * @param expectedVersion the version of the account that the caller read,
+     *        or ANY_VERSION to apply the batch whatever the version
+     * @return the balance of the account after applying the transactions
+     * @throws org.mongodb.banking.exceptions.VersionConflictException if the account is at another version
+     * @throws org.mongodb.banking.exceptions.InsufficientFundsException if the net change exceeds the balance
+     * @throws org.mongodb.banking.exceptions.DuplicateTransactionException if any key was already used
+     * @throws NoSuchAccountException if the account does not exist
+     */
+    int applyTransactions(String bankName, List<Document> transactions, long expectedVersion);
+
+    /**
+     * Moves money from one account to another as a single multi-document
+     * transaction, so that either both changes are applied or neither is.
+     * The withdrawal and deposit are recorded with each account, using the
+     * same transaction ID and idempotency key. As with applyTransaction, the
+     * withdrawal is only applied if the balance covers it, and nothing is
+     * applied if the key is already recorded for either account.
+     *
+     * @throws org.mongodb.banking.exceptions.InsufficientFundsException if the amount exceeds the sender's balance
+     * @throws org.mongodb.banking.exceptions.DuplicateTransactionException if the key was already used
+     * @throws NoSuchAccountException if either account does not exist
+     */
+    void transfer(String fromBank, String toBank, int amount, String transactionId, String idempotencyKey);
+
+    /**
+     * Returns the ID of the transaction recorded for the account with the
+     * specified idempotency key, or null if there is none.
+     */
+    String findTransactionId(String bankName, String idempotencyKey);
+
+    /**
+     * Returns the most recent transactions across all accounts, newest first.
+     * Each contains the bankName, idempotencyKey and transactionId fields.
+     */
+    List<Document> findRecentTransactions(int limit);
 
     void createAccount(String bankName, int initialBalance);
 
     boolean deleteAccount(String bankName);
 
     List<String> getAllBankNames();
+
+    /**
+     * Returns the bankName, balance and version of every account, read with a
+     * single query.
+     */
+    List<Document> findAllAccounts();
+
+    /**
+     * Records whether the account is accepting transactions, where the
+     * repository shares this with other instances of the service. Otherwise,
+     * this does nothing, and availability is tracked by each instance alone.
+     */
+    default void setAvailability(String bankName, boolean available) {
+    }
+
+    /**
+     * Returns the names of the accounts recorded as unavailable by
+     * setAvailability, which is none unless the repository records them.
+     */
+    default List<String> findUnavailableBankNames() {
+        return List.of();
+    }
 }
@@ -1,25 +1,66 @@
 package org.mongodb.banking.repository;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.mongodb.banking.exceptions.DuplicateTransactionException;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Projections.excludeId;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
 import static com.mongodb.client.model.Updates.set;
 
+/**
+ * Keeps the accounts in MongoDB. Each account is a document in the accounts
+ * collection, and each deposit, withdrawal and side of a transfer is a
+ * document in the transactions collection, which holds the full history of
+ * every account. A transaction is recorded and applied to the balance in one
+ * MongoDB transaction, so this requires that MongoDB is deployed as a replica
+ * set or sharded cluster (a single-node replica set is sufficient).
+ */
 public class BankRepositoryImpl implements BankRepository {
 
+    static final String AVAILABILITY_COLLECTION = "availability";
+
+    private final MongoClient client;
     private final MongoCollection<Document> accountsCollection;
     private final MongoCollection<Document> transactionsCollection;
+    private final MongoCollection<Document> availabilityCollection; // holds only the unavailable accounts
 
-    public BankRepositoryImpl(MongoDatabase database) {
+    /**
+     * Creates a new instance, which requires the client in order to start
+     * multi-document transactions.
+     *
+     * @param client the client through which the database is accessed
+     * @param databaseName the name of the database containing the accounts
+     */
+    public BankRepositoryImpl(MongoClient client, String databaseName) {
+        MongoDatabase database = client.getDatabase(databaseName);
+        this.client = client;
         this.accountsCollection = database.getCollection("accounts");
-        this.transactionsCollection = database.getCollection("transactions");
+        this.transactionsCollection = database.getCollection(AccountUpdates.TRANSACTIONS_COLLECTION);
+        this.availabilityCollection = database.getCollection(AVAILABILITY_COLLECTION);
+
+        new IndexManager(database).ensureIndexes();
     }
 
     @Override
@@ -29,17 +70,139 @@ public class BankRepositoryImpl implements BankRepository {
 
     @Override
     public void updateBalance(String bankName, int newBalance) {
-        accountsCollection.updateOne(eq("bankName", bankName), set("balance", newBalance));
+        accountsCollection.updateOne(eq("bankName", bankName), combine(set("balance", newBalance), inc("version", 1L)));
+    }
+
+    @Override
+    public int applyTransaction(String type, int amount, String transactionId, String idempotencyKey, String bankName) {
+        try (ClientSession session = client.startSession()) {
+            return session.withTransaction(() ->
+                applyTransaction(session, type, amount, transactionId, idempotencyKey, bankName));
+        } catch (MongoWriteException e) {
+            throw explainWriteError(e, idempotencyKey, bankName);
+        }
+    }
+
+    /**
+     * Records and applies one transaction within a MongoDB transaction. If the
+     * idempotency key was used before, recording it fails with a duplicate key
+     * error, and if the update is rejected, the exception thrown aborts the
+     * MongoDB transaction, so in either case nothing is written.
+     */
+    private int applyTransaction(ClientSession session, String type, int amount, String transactionId,
+            String idempotencyKey, String bankName) {
+        transactionsCollection.insertOne(session,
+            AccountUpdates.transactionRecord(type, amount, transactionId, idempotencyKey, bankName, new Date()));
+
+        Document account = accountsCollection.findOneAndUpdate(session,
+            AccountUpdates.transactionFilter(type, amount, bankName),
+            AccountUpdates.transactionUpdate(type, amount),
+            AccountUpdates.RETURN_BALANCE);
+        if (account == null) {
+            Document rejected = accountsCollection.find(session, eq("bankName", bankName))
+                .projection(include("balance"))
+                .first();
+            throw AccountUpdates.explainRejection(rejected, bankName, amount);
+        }
+
+        return account.getInteger("balance");
+    }
+
+    @Override
+    public void transfer(String fromBank, String toBank, int amount, String transactionId, String idempotencyKey) {
+        if (fromBank.equals(toBank)) {
+            throw new IllegalArgumentException("Cannot transfer from '" + fromBank + "' to itself");
+        }
+
+        // The driver retries the whole transaction on transient errors, such
+        // as a write conflict with a concurrent update to one of the accounts.
+        try (ClientSession session = client.startSession()) {
+            session.withTransaction(() -> {
+                applyTransaction(session, "withdraw", amount, transactionId, idempotencyKey, fromBank);
+                applyTransaction(session, "deposit", amount, transactionId, idempotencyKey, toBank);
+                return null;
+            });
+        } catch (MongoWriteException e) {
+            throw explainWriteError(e, idempotencyKey, fromBank, toBank);
+        }
+    }
+
+    @Override
+    public int applyTransactions(String bankName, List<Document> transactions, long expectedVersion) {
+        int delta = 0;
+        List<Document> records = new ArrayList<>(transactions.size());
+        Date now = new Date();
+        for (Document transaction : transactions) {
+            String type = transaction.getString("type");
+            int amount = transaction.getInteger("amount");
+            delta += "withdraw".equals(type) ? -amount : amount;
+            records.add(AccountUpdates.transactionRecord(type, amount, transaction.getString("transactionId"),
+                transaction.getString("idempotencyKey"), bankName, now));
+        }
+        Bson filter = AccountUpdates.batchFilter(bankName, delta, expectedVersion);
+        Bson update = combine(inc("balance", delta), inc("version", (long) transactions.size()));
+        int netChange = delta;
+
+        try (ClientSession session = client.startSession()) {
+            return session.withTransaction(() -> {
+                transactionsCollection.insertMany(session, records);
+                Document account = accountsCollection.findOneAndUpdate(session, filter, update,
+                    AccountUpdates.RETURN_BALANCE);
+                if (account == null) {
+                    Document rejected = accountsCollection.find(session, eq("bankName", bankName))
+                        .projection(include("balance", "version"))
+                        .first();
+                    throw AccountUpdates.explainBatchRejection(rejected, bankName, netChange, expectedVersion);
+                }
+                return account.getInteger("balance");
+            });
+        } catch (MongoBulkWriteException e) {
+            BulkWriteError error = e.getWriteErrors().isEmpty() ? null : e.getWriteErrors().get(0);
+            if (error == null || ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+            String idempotencyKey = records.get(error.getIndex()).getString("idempotencyKey");
+            throw duplicateOf(e, idempotencyKey, bankName);
+        }
+    }
+
+    /**
+     * Translates a write error from recording a transaction. A duplicate key
+     * means the idempotency key is already recorded for one of the accounts.
+     */
+    private RuntimeException explainWriteError(MongoWriteException e, String idempotencyKey, String... bankNames) {
+        if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+            return e;
+        }
+        return duplicateOf(e, idempotencyKey, bankNames);
+    }
+
+    private RuntimeException duplicateOf(RuntimeException e, String idempotencyKey, String... bankNames) {
+        for (String bankName : bankNames) {
+            String transactionId = findTransactionId(bankName, idempotencyKey);
+            if (transactionId != null) {
+                return new DuplicateTransactionException(transactionId);
+            }
+        }
+        return e;
     }
 
     @Override
-    public void logTransaction(String type, int amount, String transactionId, String idempotencyKey, String bankName) {
-        Document transaction = new Document("type", type)
-            .append("amount", amount)
-            .append("transactionId", transactionId)
-            .append("idempotencyKey", idempotencyKey)
-            .append("bankName", bankName);
-        transactionsCollection.insertOne(transaction);
+    public String findTransactionId(String bankName, String idempotencyKey) {
+        Document transaction = transactionsCollection
+            .find(and(eq("bankName", bankName), eq("idempotencyKey", idempotencyKey)))
+            .projection(include("transactionId"))
+            .first();
+        return (transaction == null) ? null : transaction.getString("transactionId");
+    }
+
+    @Override
+    public List<Document> findRecentTransactions(int limit) {
+        return transactionsCollection.find()
+            .sort(Sorts.descending("timestamp"))
+            .limit(limit)
+            .projection(fields(excludeId(), include("bankName", "idempotencyKey", "transactionId")))
+            .into(new ArrayList<>());
     }
 
     @Override
@@ -52,7 +215,17 @@ public class BankRepositoryImpl implements BankRepository {
             throw new IllegalArgumentException("Initial balance must be >= 0");
         }
 
-        accountsCollection.insertOne(new Document("bankName", bankName).append("balance", initialBalance));
+        try {
+            accountsCollection.insertOne(new Document("bankName", bankName)
+                .append("balance", initialBalance)
+                .append("version", 0L));
+        } catch (MongoWriteException e) {
+            // the unique index rejects a second account with the same name
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                throw new IllegalArgumentException("Bank with name '" + bankName + "' already exists.");
+            }
+            throw e;
+        }
     }
 
     @Override
@@ -61,8 +234,10 @@ public class BankRepositoryImpl implements BankRepository {
             return false;
         }
 
+        // the account's history goes with it, so its keys may be used again
         Bson query = eq("bankName", bankName);
         accountsCollection.deleteMany(query);
+        transactionsCollection.deleteMany(query);
 
         return true;
     }
@@ -73,4 +248,36 @@ public class BankRepositoryImpl implements BankRepository {
             .map(doc -> doc.getString("bankName"))
             .collect(Collectors.toList());
     }
+
+    @Override
+    public List<Document> findAllAccounts() {
+        return accountsCollection.find()
+            .projection(fields(include("bankName", "balance", "version"), excludeId()))
+            .into(new ArrayList<>());
+    }
+
+    /**
+     * Records an unavailable account as a document whose ID is its name, and
+     * removes that document when it becomes available again, so that other
+     * instances can follow the changes to this collection.
+     */
+    @Override
+    public void setAvailability(String bankName, boolean available) {
+        if (available) {
+            availabilityCollection.deleteOne(eq("_id", bankName));
+        } else {
+            availabilityCollection.replaceOne(eq("_id", bankName),
+                new Document("_id", bankName).append("since", new Date()),
+                new ReplaceOptions().upsert(true));
+        }
+    }
+
+    @Override
+    public List<String> findUnavailableBankNames() {
+        List<String> names = new ArrayList<>();
+        for (Document unavailable : availabilityCollection.find()) {
+            names.add(unavailable.getString("_id"));
+        }
+        return names;
+    }
 }
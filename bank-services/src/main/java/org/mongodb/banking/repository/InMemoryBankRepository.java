@@ -0,0 +1,315 @@
+package org.mongodb.banking.repository;
+
+import org.bson.Document;
+import org.mongodb.banking.exceptions.DuplicateTransactionException;
+import org.mongodb.banking.exceptions.InsufficientFundsException;
+import org.mongodb.banking.exceptions.NoSuchAccountException;
+import org.mongodb.banking.exceptions.VersionConflictException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the accounts in memory instead of in MongoDB. It is intended for
+ * benchmarks, load tests and builds on machines without a database, since it
+ * measures the service without the cost of the database. Nothing is persisted.
+ *
+ * The accounts are held in a ConcurrentHashMap and there is no lock covering
+ * all of them. Each account has its own lock, which is only held while
+ * applying a change to that account, so that checking the balance and the
+ * idempotency key and applying the change happen together, as they do in a
+ * conditional update in MongoDB. Requests for different accounts never wait
+ * for each other. Every transaction is appended to a ledger, which can be read
+ * without taking any lock.
+ *
+ * As in MongoDB, where each transaction is a document under a unique index on
+ * the account name and idempotency key, every key is kept for as long as its
+ * account exists, however many transactions follow it, so a retried request
+ * is never applied twice. Deleting an account deletes its transactions, after
+ * which its keys may be used again. An account is deleted while holding its lock, so a change that
+ * was waiting for the lock finds that the account no longer exists, as it
+ * would in MongoDB.
+ */
+public class InMemoryBankRepository implements BankRepository {
+
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+    // every transaction for every account, oldest first
+    private final ConcurrentLinkedDeque<LedgerEntry> ledger = new ConcurrentLinkedDeque<>();
+
+    @Override
+    public Document findAccountByBankName(String bankName) {
+        Account account = (bankName == null) ? null : accounts.get(bankName);
+        if (account == null) {
+            return null;
+        }
+
+        account.lock.lock();
+        try {
+            return new Document("bankName", bankName)
+                .append("balance", account.balance)
+                .append("version", account.version);
+        } finally {
+            account.lock.unlock();
+        }
+    }
+
+    @Override
+    public void updateBalance(String bankName, int newBalance) {
+        Account account = accounts.get(bankName);
+        if (account == null) {
+            return; // as for an update that matches no document
+        }
+
+        account.lock.lock();
+        try {
+            if (!isActive(account)) {
+                return;
+            }
+            account.balance = newBalance;
+            account.version++;
+        } finally {
+            account.lock.unlock();
+        }
+    }
+
+    @Override
+    public int applyTransaction(String type, int amount, String transactionId, String idempotencyKey, String bankName) {
+        Account account = lockAccount(bankName);
+        try {
+            apply(account, type, amount, transactionId, idempotencyKey);
+            return account.balance;
+        } finally {
+            account.lock.unlock();
+        }
+    }
+
+    @Override
+    public int applyTransactions(String bankName, List<Document> transactions, long expectedVersion) {
+        Account account = lockAccount(bankName);
+        try {
+            if (expectedVersion != ANY_VERSION && account.version != expectedVersion) {
+                throw new VersionConflictException(bankName, expectedVersion);
+            }
+
+            int delta = 0;
+            for (Document transaction : transactions) {
+                String previous = account.transactionIds.get(transaction.getString("idempotencyKey"));
+                if (previous != null) {
+                    throw new DuplicateTransactionException(previous);
+                }
+                int amount = transaction.getInteger("amount");
+                delta += "withdraw".equals(transaction.getString("type")) ? -amount : amount;
+            }
+            if (account.balance + delta < 0) {
+                throw new InsufficientFundsException("Insufficient funds: balance=" + account.balance + ", withdrawal=" + -delta);
+            }
+
+            for (Document transaction : transactions) {
+                record(account, transaction.getString("transactionId"), transaction.getString("idempotencyKey"));
+            }
+            account.balance += delta;
+            account.version += transactions.size();
+            return account.balance;
+        } finally {
+            account.lock.unlock();
+        }
+    }
+
+    @Override
+    public void transfer(String fromBank, String toBank, int amount, String transactionId, String idempotencyKey) {
+        if (fromBank.equals(toBank)) {
+            throw new IllegalArgumentException("Cannot transfer from '" + fromBank + "' to itself");
+        }
+
+        Account from = getAccount(fromBank);
+        Account to = getAccount(toBank);
+
+        // always lock in the same order, to avoid deadlock
+        Account first = fromBank.compareTo(toBank) < 0 ? from : to;
+        Account second = (first == from) ? to : from;
+        first.lock.lock();
+        second.lock.lock();
+        try {
+            ensureActive(from);
+            ensureActive(to);
+            String previous = to.transactionIds.get(idempotencyKey);
+            if (previous != null) {
+                throw new DuplicateTransactionException(previous);
+            }
+            apply(from, "withdraw", amount, transactionId, idempotencyKey);
+            apply(to, "deposit", amount, transactionId, idempotencyKey);
+        } finally {
+            second.lock.unlock();
+            first.lock.unlock();
+        }
+    }
+
+    @Override
+    public String findTransactionId(String bankName, String idempotencyKey) {
+        Account account = accounts.get(bankName);
+        return (account == null) ? null : account.transactionIds.get(idempotencyKey);
+    }
+
+    @Override
+    public List<Document> findRecentTransactions(int limit) {
+        List<Document> transactions = new ArrayList<>();
+        Iterator<LedgerEntry> iterator = ledger.descendingIterator();
+        while (iterator.hasNext() && transactions.size() < limit) {
+            LedgerEntry entry = iterator.next();
+
+            // skip the transactions of an account that is being deleted
+            if (accounts.get(entry.account.name) != entry.account) {
+                continue;
+            }
+            transactions.add(new Document("bankName", entry.account.name)
+                .append("idempotencyKey", entry.idempotencyKey)
+                .append("transactionId", entry.transactionId));
+        }
+        return transactions;
+    }
+
+    @Override
+    public void createAccount(String bankName, int initialBalance) {
+        if (bankName == null || bankName.trim().isEmpty()) {
+            throw new IllegalArgumentException("Invalid bank name '" + bankName + "'");
+        }
+
+        if (initialBalance < 0) {
+            throw new IllegalArgumentException("Initial balance must be >= 0");
+        }
+
+        if (accounts.putIfAbsent(bankName, new Account(bankName, initialBalance)) != null) {
+            throw new IllegalArgumentException("Bank with name '" + bankName + "' already exists.");
+        }
+    }
+
+    @Override
+    public boolean deleteAccount(String bankName) {
+        if (bankName == null || bankName.trim().isEmpty()) {
+            return false;
+        }
+
+        Account account = accounts.get(bankName);
+        if (account == null) {
+            return true;
+        }
+
+        account.lock.lock();
+        try {
+            accounts.remove(bankName, account);
+        } finally {
+            account.lock.unlock();
+        }
+        // no entry can be added for the account once it is removed
+        ledger.removeIf(entry -> entry.account == account);
+        return true;
+    }
+
+    @Override
+    public List<String> getAllBankNames() {
+        return new ArrayList<>(accounts.keySet());
+    }
+
+    @Override
+    public List<Document> findAllAccounts() {
+        List<Document> found = new ArrayList<>(accounts.size());
+        for (String bankName : accounts.keySet()) {
+            Document account = findAccountByBankName(bankName);
+            if (account != null) { // unless deleted meanwhile
+                found.add(account);
+            }
+        }
+        return found;
+    }
+
+    private Account getAccount(String bankName) {
+        Account account = accounts.get(bankName);
+        if (account == null) {
+            throw new NoSuchAccountException(bankName);
+        }
+        return account;
+    }
+
+    /**
+     * Returns the account with its lock held, once it is certain that the
+     * account was not deleted while waiting for the lock.
+     */
+    private Account lockAccount(String bankName) {
+        Account account = getAccount(bankName);
+        account.lock.lock();
+        if (!isActive(account)) {
+            account.lock.unlock();
+            throw new NoSuchAccountException(bankName);
+        }
+        return account;
+    }
+
+    /**
+     * Throws NoSuchAccountException if the account was deleted. The caller
+     * must hold the lock.
+     */
+    private void ensureActive(Account account) {
+        if (!isActive(account)) {
+            throw new NoSuchAccountException(account.name);
+        }
+    }
+
+    private boolean isActive(Account account) {
+        return accounts.get(account.name) == account;
+    }
+
+    /**
+     * Checks and applies one transaction. The caller must hold the lock.
+     */
+    private void apply(Account account, String type, int amount, String transactionId, String idempotencyKey) {
+        String previous = account.transactionIds.get(idempotencyKey);
+        if (previous != null) {
+            throw new DuplicateTransactionException(previous);
+        }
+
+        boolean isWithdrawal = "withdraw".equals(type);
+        if (isWithdrawal && account.balance < amount) {
+            throw new InsufficientFundsException("Insufficient funds: balance=" + account.balance + ", withdrawal=" + amount);
+        }
+
+        record(account, transactionId, idempotencyKey);
+        account.balance += isWithdrawal ? -amount : amount;
+        account.version++;
+    }
+
+    private void record(Account account, String transactionId, String idempotencyKey) {
+        account.transactionIds.put(idempotencyKey, transactionId);
+        ledger.addLast(new LedgerEntry(account, transactionId, idempotencyKey));
+    }
+
+    private static class Account {
+        private final String name;
+        private final ReentrantLock lock = new ReentrantLock(); // guards the balance and version
+        private final Map<String, String> transactionIds = new ConcurrentHashMap<>(); // by idempotency key
+        private int balance;
+        private long version;
+
+        Account(String name, int balance) {
+            this.name = name;
+            this.balance = balance;
+        }
+    }
+
+    private static class LedgerEntry {
+        private final Account account;
+        private final String transactionId;
+        private final String idempotencyKey;
+
+        LedgerEntry(Account account, String transactionId, String idempotencyKey) {
+            this.account = account;
+            this.transactionId = transactionId;
+            this.idempotencyKey = idempotencyKey;
+        }
+    }
+}
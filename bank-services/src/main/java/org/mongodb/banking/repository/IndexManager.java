@@ -0,0 +1,76 @@
+package org.mongodb.banking.repository;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the indexes used by the repository's queries, so that none of them
+ * needs to scan a whole collection. This runs when the repository is created.
+ * Creating an index that already exists has no effect, so it is safe to run
+ * every time the service starts, and on every instance of the service.
+ */
+public class IndexManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexManager.class);
+
+    static final String ACCOUNT_NAME_INDEX = "bankName_unique";
+    static final String TRANSACTION_KEY_INDEX = "bankName_idempotencyKey";
+    static final String TRANSACTION_TIME_INDEX = "timestamp";
+
+    private final MongoCollection<Document> accountsCollection;
+    private final MongoCollection<Document> transactionsCollection;
+
+    public IndexManager(MongoDatabase database) {
+        this.accountsCollection = database.getCollection("accounts");
+        this.transactionsCollection = database.getCollection(AccountUpdates.TRANSACTIONS_COLLECTION);
+    }
+
+    /**
+     * Creates any indexes that do not yet exist.
+     * The following indexes are created:
+     *
+     * <ul>
+     *   <li>accounts: a unique index on the account name, used to find,
+     *       update and delete an account, including the conditional updates
+     *       that apply transactions</li>
+     *   <li>transactions: a unique compound index on the account name and
+     *       idempotency key, which rejects a transaction whose key was used
+     *       before, and is used to look up a transaction by its key and to
+     *       delete an account's transactions</li>
+     *   <li>transactions: an index on the time of each transaction, used to
+     *       find the most recent transactions</li>
+     * </ul>
+     */
+    public void ensureIndexes() {
+        logger.info("Ensuring indexes on the accounts and transactions collections");
+
+        // Fails if the collection already contains two accounts with the same
+        // name. The service still works without this index, but it would no
+        // longer prevent such duplicates, so the problem is logged instead.
+        createIndex(accountsCollection, Indexes.ascending("bankName"),
+            new IndexOptions().name(ACCOUNT_NAME_INDEX).unique(true));
+
+        // Unlike the others, this index is required: without it a retried
+        // request would be applied again, so a failure to create it is fatal.
+        transactionsCollection.createIndex(Indexes.ascending("bankName", "idempotencyKey"),
+            new IndexOptions().name(TRANSACTION_KEY_INDEX).unique(true));
+        createIndex(transactionsCollection, Indexes.descending("timestamp"),
+            new IndexOptions().name(TRANSACTION_TIME_INDEX));
+    }
+
+    private void createIndex(MongoCollection<Document> collection, Bson keys, IndexOptions options) {
+        try {
+            collection.createIndex(keys, options);
+        } catch (MongoException e) {
+            logger.error("Unable to create index '{}' on collection '{}'", options.getName(),
+                collection.getNamespace().getCollectionName(), e);
+        }
+    }
+}
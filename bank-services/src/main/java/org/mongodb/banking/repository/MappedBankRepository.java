@@ -0,0 +1,682 @@
+package org.mongodb.banking.repository;
+
+import org.bson.Document;
+import org.mongodb.banking.exceptions.DuplicateTransactionException;
+import org.mongodb.banking.exceptions.InsufficientFundsException;
+import org.mongodb.banking.exceptions.NoSuchAccountException;
+import org.mongodb.banking.exceptions.VersionConflictException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the accounts in two memory-mapped files in a local directory, for
+ * deployments where the round trip to MongoDB would dominate the latency of
+ * each request. Every change is appended to a ledger file of fixed-width
+ * records, and the balance of each account is kept in an account table, in
+ * which each account occupies a fixed-width slot.
+ *
+ * <p>A ledger record only becomes part of the ledger once its type byte is
+ * written, which happens after the rest of the record. When several records
+ * must be applied together (a batch, or both sides of a transfer), their type
+ * bytes are written in reverse order, so that the first one is written last.
+ * Since the ledger ends at the first record without a type, a group of
+ * records is recovered completely or not at all.
+ *
+ * <p>After the records are appended, the account's slot is updated. Each slot
+ * holds two copies of the balance, version and index of the last record
+ * applied, along with a byte that selects the current copy. An update writes
+ * the other copy and then switches to it, so a slot is never seen half written.
+ * On startup, the ledger is scanned once, which rebuilds the index of
+ * idempotency keys, and any record that was appended but not yet applied to
+ * its account's slot is applied then.
+ *
+ * <p>Writes to the mapped files survive the process crashing. To survive the
+ * operating system crashing, or a loss of power, the repository must be
+ * created with sync enabled, which forces the ledger to disk before the
+ * account table is updated, at a considerable cost in latency.
+ *
+ * <p>As in InMemoryBankRepository, each account has its own lock, which is
+ * held while checking and applying a change to it. Appending to the ledger
+ * takes a separate lock, which is only held while copying the records.
+ */
+public class MappedBankRepository implements BankRepository, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedBankRepository.class);
+
+    public static final int DEFAULT_CAPACITY = 65_536;
+
+    static final String LEDGER_FILE = "ledger.dat";
+    static final String ACCOUNTS_FILE = "accounts.dat";
+
+    // ledger record layout
+    static final int RECORD_SIZE = 128;              // the fields take 119 bytes, and the rest is padding
+    private static final int RECORD_TYPE = 0;        // written last, and 0 marks the end of the ledger
+    private static final int RECORD_SLOT = 1;
+    private static final int RECORD_GENERATION = 5;
+    private static final int RECORD_AMOUNT = 9;
+    private static final int RECORD_TRANSACTION_ID = 13; // a length byte, followed by the UTF-8 bytes
+    private static final int RECORD_KEY = 46;            // a length byte, followed by the UTF-8 bytes
+    private static final int MAX_TRANSACTION_ID_BYTES = 32;
+    private static final int MAX_KEY_BYTES = 72;
+    private static final int RECORDS_PER_CHUNK = 1 << 19; // each mapping of the ledger is 64 MiB
+
+    private static final byte TYPE_DEPOSIT = 1;
+    private static final byte TYPE_WITHDRAWAL = 2;
+
+    // account slot layout
+    static final int SLOT_SIZE = 128;
+    private static final int SLOT_STATUS = 0;
+    private static final int SLOT_NAME = 1;          // a length byte, followed by the UTF-8 bytes
+    private static final int SLOT_GENERATION = 66;   // incremented each time the slot is reused
+    private static final int SLOT_CURRENT_COPY = 70;
+    private static final int SLOT_COPIES = 72;       // two copies of the balance, version and last record
+    private static final int COPY_SIZE = 20;
+    private static final int COPY_BALANCE = 0;
+    private static final int COPY_VERSION = 4;
+    private static final int COPY_APPLIED_THROUGH = 12;
+    private static final int MAX_NAME_BYTES = 64;
+
+    private static final byte STATUS_FREE = 0;
+    private static final byte STATUS_ACTIVE = 1;
+    private static final byte STATUS_DELETED = 2;
+
+    private final int capacity;
+    private final boolean sync;
+    private final FileChannel ledgerChannel;
+    private final FileChannel accountsChannel;
+    private final MappedByteBuffer table;
+    private volatile MappedByteBuffer[] chunks;
+
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<Account> accountsBySlot;
+
+    private final ReentrantLock ledgerLock = new ReentrantLock(); // guards appending to the ledger
+    private final ReentrantLock tableLock = new ReentrantLock();  // guards allocating and freeing slots
+    private volatile long nextIndex; // every record before this one is complete
+
+    public MappedBankRepository(Path directory) {
+        this(directory, DEFAULT_CAPACITY, true);
+    }
+
+    /**
+     * Opens the repository in the specified directory, creating the files if
+     * they do not exist, and recovers the state of every account.
+     *
+     * @param directory where the ledger and account table are kept
+     * @param capacity the maximum number of accounts, which must not change
+     *        after the account table is created
+     * @param sync whether to force each change to disk before returning
+     */
+    public MappedBankRepository(Path directory, int capacity, boolean sync) {
+        this.capacity = capacity;
+        this.sync = sync;
+        this.accountsBySlot = new AtomicReferenceArray<>(capacity);
+
+        try {
+            Files.createDirectories(directory);
+            accountsChannel = FileChannel.open(directory.resolve(ACCOUNTS_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long tableSize = (long) capacity * SLOT_SIZE;
+            if (accountsChannel.size() > tableSize) {
+                throw new IllegalArgumentException("Account table holds more than " + capacity + " accounts");
+            }
+            table = accountsChannel.map(FileChannel.MapMode.READ_WRITE, 0, tableSize);
+
+            ledgerChannel = FileChannel.open(directory.resolve(LEDGER_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long chunkSize = (long) RECORDS_PER_CHUNK * RECORD_SIZE;
+            int chunkCount = (int) Math.max(1, (ledgerChannel.size() + chunkSize - 1) / chunkSize);
+            chunks = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                chunks[i] = ledgerChannel.map(FileChannel.MapMode.READ_WRITE, i * chunkSize, chunkSize);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open repository in " + directory, e);
+        }
+
+        recover();
+    }
+
+    /**
+     * Rebuilds the in-memory state from the files: the accounts from the
+     * table, and the idempotency keys from the ledger. Any ledger record that
+     * was appended, but not applied to its account, is applied now.
+     */
+    private void recover() {
+        long start = System.nanoTime();
+
+        for (int slot = 0; slot < capacity; slot++) {
+            if (table.get(slotOffset(slot) + SLOT_STATUS) == STATUS_ACTIVE) {
+                int offset = slotOffset(slot);
+                String name = readString(table, offset + SLOT_NAME);
+                Account account = new Account(name, slot, table.getInt(offset + SLOT_GENERATION));
+                accounts.put(name, account);
+                accountsBySlot.set(slot, account);
+            }
+        }
+
+        long index = 0;
+        long limit = (long) chunks.length * RECORDS_PER_CHUNK;
+        int replayed = 0;
+        for (; index < limit; index++) {
+            MappedByteBuffer chunk = chunk(index);
+            int offset = recordOffset(index);
+            byte type = chunk.get(offset + RECORD_TYPE);
+            if (type == 0) {
+                break;
+            }
+
+            Account account = accountsBySlot.get(chunk.getInt(offset + RECORD_SLOT));
+            if (account == null || account.generation != chunk.getInt(offset + RECORD_GENERATION)) {
+                continue; // the account was since deleted
+            }
+
+            String key = readString(chunk, offset + RECORD_KEY);
+            account.transactionIds.put(key, readString(chunk, offset + RECORD_TRANSACTION_ID));
+
+            if (index > readAppliedThrough(account.slot)) {
+                int amount = chunk.getInt(offset + RECORD_AMOUNT);
+                int delta = (type == TYPE_WITHDRAWAL) ? -amount : amount;
+                writeState(account.slot, readBalance(account.slot) + delta, readVersion(account.slot) + 1, index);
+                replayed++;
+            }
+        }
+        nextIndex = index;
+
+        logger.info("Recovered {} accounts and {} ledger records in {} ms ({} applied during recovery)",
+            accounts.size(), index, (System.nanoTime() - start) / 1_000_000, replayed);
+    }
+
+    @Override
+    public Document findAccountByBankName(String bankName) {
+        Account account = (bankName == null) ? null : accounts.get(bankName);
+        if (account == null) {
+            return null;
+        }
+
+        account.lock.lock();
+        try {
+            return new Document("bankName", bankName)
+                .append("balance", readBalance(account.slot))
+                .append("version", readVersion(account.slot));
+        } finally {
+            account.lock.unlock();
+        }
+    }
+
+    @Override
+    public void updateBalance(String bankName, int newBalance) {
+        Account account = accounts.get(bankName);
+        if (account == null) {
+            return; // as for an update that matches no document
+        }
+
+        account.lock.lock();
+        try {
+            writeState(account.slot, newBalance, readVersion(account.slot) + 1, readAppliedThrough(account.slot));
+        } finally {
+            account.lock.unlock();
+        }
+    }
+
+    @Override
+    public int applyTransaction(String type, int amount, String transactionId, String idempotencyKey, String bankName) {
+        Account account = getAccount(bankName);
+        Entry entry = new Entry(account, type, amount, transactionId, idempotencyKey);
+
+        account.lock.lock();
+        try {
+            ensureActive(account);
+            checkDuplicate(account, idempotencyKey);
+
+            int balance = readBalance(account.slot);
+            if (entry.type == TYPE_WITHDRAWAL && balance < amount) {
+                throw new InsufficientFundsException("Insufficient funds: balance=" + balance + ", withdrawal=" + amount);
+            }
+
+            long index = append(List.of(entry));
+            balance += entry.delta();
+            writeState(account.slot, balance, readVersion(account.slot) + 1, index);
+            account.transactionIds.put(idempotencyKey, transactionId);
+            return balance;
+        } finally {
+            account.lock.unlock();
+        }
+    }
+
+    @Override
+    public int applyTransactions(String bankName, List<Document> transactions, long expectedVersion) {
+        Account account = getAccount(bankName);
+        List<Entry> entries = new ArrayList<>(transactions.size());
+        int delta = 0;
+        for (Document transaction : transactions) {
+            Entry entry = new Entry(account, transaction.getString("type"), transaction.getInteger("amount"),
+                transaction.getString("transactionId"), transaction.getString("idempotencyKey"));
+            entries.add(entry);
+            delta += entry.delta();
+        }
+
+        account.lock.lock();
+        try {
+            ensureActive(account);
+            long version = readVersion(account.slot);
+            if (expectedVersion != ANY_VERSION && version != expectedVersion) {
+                throw new VersionConflictException(bankName, expectedVersion);
+            }
+            for (Entry entry : entries) {
+                checkDuplicate(account, entry.idempotencyKey);
+            }
+            int balance = readBalance(account.slot) + delta;
+            if (balance < 0) {
+                throw new InsufficientFundsException("Insufficient funds: balance=" + (balance - delta) + ", withdrawal=" + -delta);
+            }
+
+            long first = append(entries);
+            writeState(account.slot, balance, version + entries.size(), first + entries.size() - 1);
+            for (Entry entry : entries) {
+                account.transactionIds.put(entry.idempotencyKey, entry.transactionId);
+            }
+            return balance;
+        } finally {
+            account.lock.unlock();
+        }
+    }
+
+    @Override
+    public void transfer(String fromBank, String toBank, int amount, String transactionId, String idempotencyKey) {
+        if (fromBank.equals(toBank)) {
+            throw new IllegalArgumentException("Cannot transfer from '" + fromBank + "' to itself");
+        }
+
+        Account from = getAccount(fromBank);
+        Account to = getAccount(toBank);
+        Entry withdrawal = new Entry(from, "withdraw", amount, transactionId, idempotencyKey);
+        Entry deposit = new Entry(to, "deposit", amount, transactionId, idempotencyKey);
+
+        // always lock in the same order, to avoid deadlock
+        Account first = fromBank.compareTo(toBank) < 0 ? from : to;
+        Account second = (first == from) ? to : from;
+        first.lock.lock();
+        second.lock.lock();
+        try {
+            ensureActive(from);
+            ensureActive(to);
+            checkDuplicate(from, idempotencyKey);
+            checkDuplicate(to, idempotencyKey);
+
+            int balance = readBalance(from.slot);
+            if (balance < amount) {
+                throw new InsufficientFundsException("Insufficient funds: balance=" + balance + ", withdrawal=" + amount);
+            }
+
+            // both records are recovered, or neither is
+            long index = append(List.of(withdrawal, deposit));
+            writeState(from.slot, balance - amount, readVersion(from.slot) + 1, index);
+            writeState(to.slot, readBalance(to.slot) + amount, readVersion(to.slot) + 1, index + 1);
+            from.transactionIds.put(idempotencyKey, transactionId);
+            to.transactionIds.put(idempotencyKey, transactionId);
+        } finally {
+            second.lock.unlock();
+            first.lock.unlock();
+        }
+    }
+
+    @Override
+    public String findTransactionId(String bankName, String idempotencyKey) {
+        Account account = accounts.get(bankName);
+        return (account == null) ? null : account.transactionIds.get(idempotencyKey);
+    }
+
+    @Override
+    public List<Document> findRecentTransactions(int limit) {
+        List<Document> transactions = new ArrayList<>();
+        for (long index = nextIndex - 1; index >= 0 && transactions.size() < limit; index--) {
+            MappedByteBuffer chunk = chunk(index);
+            int offset = recordOffset(index);
+
+            Account account = accountsBySlot.get(chunk.getInt(offset + RECORD_SLOT));
+            if (account == null || account.generation != chunk.getInt(offset + RECORD_GENERATION)) {
+                continue;
+            }
+            transactions.add(new Document("bankName", account.name)
+                .append("idempotencyKey", readString(chunk, offset + RECORD_KEY))
+                .append("transactionId", readString(chunk, offset + RECORD_TRANSACTION_ID)));
+        }
+        return transactions;
+    }
+
+    @Override
+    public void createAccount(String bankName, int initialBalance) {
+        if (bankName == null || bankName.trim().isEmpty()) {
+            throw new IllegalArgumentException("Invalid bank name '" + bankName + "'");
+        }
+
+        if (initialBalance < 0) {
+            throw new IllegalArgumentException("Initial balance must be >= 0");
+        }
+
+        byte[] name = encode(bankName, MAX_NAME_BYTES, "Bank name");
+
+        tableLock.lock();
+        try {
+            if (accounts.containsKey(bankName)) {
+                throw new IllegalArgumentException("Bank with name '" + bankName + "' already exists.");
+            }
+
+            int slot = findFreeSlot();
+            int offset = slotOffset(slot);
+            int generation = table.getInt(offset + SLOT_GENERATION) + 1;
+
+            // the slot only becomes active once everything else is written
+            table.putInt(offset + SLOT_GENERATION, generation);
+            writeBytes(table, offset + SLOT_NAME, name);
+            writeState(slot, initialBalance, 0, nextIndex - 1);
+            table.put(offset + SLOT_STATUS, STATUS_ACTIVE);
+            if (sync) {
+                table.force();
+            }
+
+            Account account = new Account(bankName, slot, generation);
+            accountsBySlot.set(slot, account);
+            accounts.put(bankName, account);
+        } finally {
+            tableLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteAccount(String bankName) {
+        if (bankName == null || bankName.trim().isEmpty()) {
+            return false;
+        }
+
+        tableLock.lock();
+        try {
+            Account account = accounts.get(bankName);
+            if (account == null) {
+                return true;
+            }
+
+            account.lock.lock();
+            try {
+                table.put(slotOffset(account.slot) + SLOT_STATUS, STATUS_DELETED);
+                if (sync) {
+                    table.force();
+                }
+                accounts.remove(bankName);
+                accountsBySlot.set(account.slot, null);
+            } finally {
+                account.lock.unlock();
+            }
+            return true;
+        } finally {
+            tableLock.unlock();
+        }
+    }
+
+    @Override
+    public List<String> getAllBankNames() {
+        return new ArrayList<>(accounts.keySet());
+    }
+
+    @Override
+    public List<Document> findAllAccounts() {
+        List<Document> found = new ArrayList<>(accounts.size());
+        for (String bankName : accounts.keySet()) {
+            Document account = findAccountByBankName(bankName);
+            if (account != null) { // unless deleted meanwhile
+                found.add(account);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Forces any changes to disk and closes the files. The repository must not
+     * be used afterward.
+     */
+    @Override
+    public void close() throws IOException {
+        ledgerLock.lock();
+        tableLock.lock();
+        try {
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+            table.force();
+            ledgerChannel.close();
+            accountsChannel.close();
+        } finally {
+            tableLock.unlock();
+            ledgerLock.unlock();
+        }
+    }
+
+    private Account getAccount(String bankName) {
+        Account account = accounts.get(bankName);
+        if (account == null) {
+            throw new NoSuchAccountException(bankName);
+        }
+        return account;
+    }
+
+    // the account may have been deleted while waiting for its lock
+    private void ensureActive(Account account) {
+        if (accounts.get(account.name) != account) {
+            throw new NoSuchAccountException(account.name);
+        }
+    }
+
+    private void checkDuplicate(Account account, String idempotencyKey) {
+        String previous = account.transactionIds.get(idempotencyKey);
+        if (previous != null) {
+            throw new DuplicateTransactionException(previous);
+        }
+    }
+
+    private int findFreeSlot() {
+        int deleted = -1;
+        for (int slot = 0; slot < capacity; slot++) {
+            byte status = table.get(slotOffset(slot) + SLOT_STATUS);
+            if (status == STATUS_FREE) {
+                return slot;
+            }
+            if (status == STATUS_DELETED && deleted < 0) {
+                deleted = slot;
+            }
+        }
+        if (deleted < 0) {
+            throw new IllegalStateException("Account table is full (capacity is " + capacity + ")");
+        }
+        return deleted;
+    }
+
+    /**
+     * Appends records to the ledger, so that they are recovered together.
+     *
+     * @return the index of the first record
+     */
+    private long append(List<Entry> entries) {
+        ledgerLock.lock();
+        try {
+            long first = nextIndex;
+            ensureLedgerCapacity(first + entries.size());
+
+            for (int i = 0; i < entries.size(); i++) {
+                entries.get(i).writeTo(chunk(first + i), recordOffset(first + i));
+            }
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                chunk(first + i).put(recordOffset(first + i) + RECORD_TYPE, entries.get(i).type);
+            }
+            if (sync) {
+                chunk(first).force();
+                if (chunk(first) != chunk(first + entries.size() - 1)) {
+                    chunk(first + entries.size() - 1).force();
+                }
+            }
+
+            nextIndex = first + entries.size();
+            return first;
+        } finally {
+            ledgerLock.unlock();
+        }
+    }
+
+    private void ensureLedgerCapacity(long records) {
+        MappedByteBuffer[] current = chunks;
+        if (records <= (long) current.length * RECORDS_PER_CHUNK) {
+            return;
+        }
+
+        long chunkSize = (long) RECORDS_PER_CHUNK * RECORD_SIZE;
+        try {
+            MappedByteBuffer[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = ledgerChannel.map(FileChannel.MapMode.READ_WRITE, current.length * chunkSize, chunkSize);
+            chunks = grown;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to extend the ledger", e);
+        }
+    }
+
+    private MappedByteBuffer chunk(long index) {
+        return chunks[(int) (index / RECORDS_PER_CHUNK)];
+    }
+
+    private static int recordOffset(long index) {
+        return (int) (index % RECORDS_PER_CHUNK) * RECORD_SIZE;
+    }
+
+    private static int slotOffset(int slot) {
+        return slot * SLOT_SIZE;
+    }
+
+    private int currentCopyOffset(int slot) {
+        int offset = slotOffset(slot);
+        return offset + SLOT_COPIES + table.get(offset + SLOT_CURRENT_COPY) * COPY_SIZE;
+    }
+
+    private int readBalance(int slot) {
+        return table.getInt(currentCopyOffset(slot) + COPY_BALANCE);
+    }
+
+    private long readVersion(int slot) {
+        return table.getLong(currentCopyOffset(slot) + COPY_VERSION);
+    }
+
+    private long readAppliedThrough(int slot) {
+        return table.getLong(currentCopyOffset(slot) + COPY_APPLIED_THROUGH);
+    }
+
+    /**
+     * Writes the state of an account to the copy that is not current, and
+     * then makes it current, so the slot is never seen half written.
+     */
+    private void writeState(int slot, int balance, long version, long appliedThrough) {
+        int offset = slotOffset(slot);
+        byte next = (byte) (1 - table.get(offset + SLOT_CURRENT_COPY));
+        int copy = offset + SLOT_COPIES + next * COPY_SIZE;
+
+        table.putInt(copy + COPY_BALANCE, balance);
+        table.putLong(copy + COPY_VERSION, version);
+        table.putLong(copy + COPY_APPLIED_THROUGH, appliedThrough);
+        table.put(offset + SLOT_CURRENT_COPY, next);
+        if (sync) {
+            table.force();
+        }
+    }
+
+    private static byte[] encode(String value, int maxBytes, String description) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) {
+            throw new IllegalArgumentException(description + " exceeds " + maxBytes + " bytes: " + value);
+        }
+        return bytes;
+    }
+
+    // absolute bulk puts require Java 16, so copy one byte at a time
+    private static void writeBytes(MappedByteBuffer buffer, int offset, byte[] bytes) {
+        buffer.put(offset, (byte) bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + 1 + i, bytes[i]);
+        }
+    }
+
+    private static String readString(MappedByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[buffer.get(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + 1 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Account {
+        private final String name;
+        private final int slot;
+        private final int generation; // distinguishes this account from earlier ones in the same slot
+        private final ReentrantLock lock = new ReentrantLock(); // guards the account's slot
+        private final Map<String, String> transactionIds = new ConcurrentHashMap<>(); // by idempotency key
+
+        Account(String name, int slot, int generation) {
+            this.name = name;
+            this.slot = slot;
+            this.generation = generation;
+        }
+    }
+
+    // a ledger record, validated and encoded before any lock is taken
+    private static class Entry {
+        private final Account account;
+        private final byte type;
+        private final int amount;
+        private final String transactionId;
+        private final String idempotencyKey;
+        private final byte[] transactionIdBytes;
+        private final byte[] keyBytes;
+
+        Entry(Account account, String type, int amount, String transactionId, String idempotencyKey) {
+            if ("deposit".equals(type)) {
+                this.type = TYPE_DEPOSIT;
+            } else if ("withdraw".equals(type)) {
+                this.type = TYPE_WITHDRAWAL;
+            } else {
+                throw new IllegalArgumentException("Invalid operation type: " + type);
+            }
+            this.account = account;
+            this.amount = amount;
+            this.transactionId = transactionId;
+            this.idempotencyKey = idempotencyKey;
+            this.transactionIdBytes = encode(transactionId, MAX_TRANSACTION_ID_BYTES, "Transaction ID");
+            this.keyBytes = encode(idempotencyKey, MAX_KEY_BYTES, "Idempotency key");
+        }
+
+        int delta() {
+            return (type == TYPE_WITHDRAWAL) ? -amount : amount;
+        }
+
+        // writes everything except the type, which marks the record as complete
+        void writeTo(MappedByteBuffer chunk, int offset) {
+            chunk.putInt(offset + RECORD_SLOT, account.slot);
+            chunk.putInt(offset + RECORD_GENERATION, account.generation);
+            chunk.putInt(offset + RECORD_AMOUNT, amount);
+            writeBytes(chunk, offset + RECORD_TRANSACTION_ID, transactionIdBytes);
+            writeBytes(chunk, offset + RECORD_KEY, keyBytes);
+        }
+    }
+}
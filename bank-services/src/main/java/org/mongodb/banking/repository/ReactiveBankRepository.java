@@ -0,0 +1,209 @@
+package org.mongodb.banking.repository;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.reactivestreams.client.ClientSession;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import org.bson.Document;
+import org.mongodb.banking.exceptions.DuplicateTransactionException;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Projections.include;
+
+/**
+ * Implements AsyncBankRepository using the reactive streams driver, writing
+ * each transaction in the same way as BankRepositoryImpl. It relies on the
+ * indexes created by BankRepositoryImpl, which the service always creates as
+ * well, for operations other than those on the request path.
+ */
+public class ReactiveBankRepository implements AsyncBankRepository {
+
+    // how many times a MongoDB transaction is attempted, if it fails with a
+    // transient error such as a write conflict with a concurrent update
+    private static final int MAX_TRANSACTION_ATTEMPTS = 10;
+
+    private final MongoClient client;
+    private final MongoCollection<Document> accountsCollection;
+    private final MongoCollection<Document> transactionsCollection;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param client the client through which the database is accessed
+     * @param databaseName the name of the database containing the accounts
+     */
+    public ReactiveBankRepository(MongoClient client, String databaseName) {
+        MongoDatabase database = client.getDatabase(databaseName);
+        this.client = client;
+        this.accountsCollection = database.getCollection("accounts");
+        this.transactionsCollection = database.getCollection(AccountUpdates.TRANSACTIONS_COLLECTION);
+    }
+
+    @Override
+    public CompletableFuture<Document> findAccountByBankName(String bankName) {
+        return first(accountsCollection.find(eq("bankName", bankName)).first());
+    }
+
+    @Override
+    public CompletableFuture<Integer> applyTransaction(String type, int amount, String transactionId,
+            String idempotencyKey, String bankName) {
+        Document record = AccountUpdates.transactionRecord(type, amount, transactionId, idempotencyKey, bankName, new Date());
+
+        return withTransaction(session -> first(transactionsCollection.insertOne(session, record))
+                .thenCompose(inserted -> first(accountsCollection.findOneAndUpdate(session,
+                    AccountUpdates.transactionFilter(type, amount, bankName),
+                    AccountUpdates.transactionUpdate(type, amount),
+                    AccountUpdates.RETURN_BALANCE)))
+                .thenCompose(account -> {
+                    if (account != null) {
+                        return CompletableFuture.completedFuture(account.getInteger("balance"));
+                    }
+                    return first(accountsCollection.find(session, eq("bankName", bankName))
+                            .projection(include("balance"))
+                            .first())
+                        .thenApply(rejected -> {
+                            throw AccountUpdates.explainRejection(rejected, bankName, amount);
+                        });
+                }))
+            .handle((balance, error) -> (error == null)
+                ? CompletableFuture.completedFuture(balance)
+                : this.<Integer>explainWriteError(unwrap(error), idempotencyKey, bankName))
+            .thenCompose(Function.identity());
+    }
+
+    @Override
+    public CompletableFuture<String> findTransactionId(String bankName, String idempotencyKey) {
+        Publisher<Document> publisher = transactionsCollection
+            .find(and(eq("bankName", bankName), eq("idempotencyKey", idempotencyKey)))
+            .projection(include("transactionId"))
+            .first();
+
+        return first(publisher).thenApply(transaction ->
+            (transaction == null) ? null : transaction.getString("transactionId"));
+    }
+
+    /**
+     * Fails with a DuplicateTransactionException if recording a transaction
+     * failed because its idempotency key is already recorded for the account,
+     * and otherwise with the original error.
+     */
+    private <T> CompletableFuture<T> explainWriteError(Throwable error, String idempotencyKey, String bankName) {
+        if (!(error instanceof MongoWriteException)
+                || ((MongoWriteException) error).getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+            return CompletableFuture.failedFuture(error);
+        }
+        return findTransactionId(bankName, idempotencyKey).thenApply(transactionId -> {
+            if (transactionId == null) {
+                throw new CompletionException(error);
+            }
+            throw new DuplicateTransactionException(transactionId);
+        });
+    }
+
+    /**
+     * Runs the body in a MongoDB transaction on a new session, as
+     * ClientSession.withTransaction does in the synchronous driver, which the
+     * reactive streams driver lacks. The whole transaction is attempted again
+     * if it fails with a transient error, and the commit alone if its result
+     * is unknown.
+     */
+    private <T> CompletableFuture<T> withTransaction(Function<ClientSession, CompletableFuture<T>> body) {
+        return first(client.startSession()).thenCompose(session ->
+            attemptTransaction(session, body, 1).whenComplete((result, error) -> session.close()));
+    }
+
+    private <T> CompletableFuture<T> attemptTransaction(ClientSession session,
+            Function<ClientSession, CompletableFuture<T>> body, int attempt) {
+        session.startTransaction();
+        CompletableFuture<T> result;
+        try {
+            result = body.apply(session);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+
+        return result
+            .thenCompose(value -> commit(session, 1).thenApply(committed -> value))
+            .handle((value, error) -> {
+                if (error == null) {
+                    return CompletableFuture.completedFuture(value);
+                }
+                Throwable cause = unwrap(error);
+                CompletableFuture<Void> aborted = session.hasActiveTransaction()
+                    ? first(session.abortTransaction()).handle((ignored, abortError) -> null)
+                    : CompletableFuture.completedFuture(null);
+                return aborted.thenCompose(ignored -> hasLabel(cause, MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL)
+                        && attempt < MAX_TRANSACTION_ATTEMPTS
+                    ? attemptTransaction(session, body, attempt + 1)
+                    : CompletableFuture.<T>failedFuture(cause));
+            })
+            .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<Void> commit(ClientSession session, int attempt) {
+        return first(session.commitTransaction())
+            .handle((ignored, error) -> {
+                if (error == null) {
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+                Throwable cause = unwrap(error);
+                return hasLabel(cause, MongoException.UNKNOWN_TRANSACTION_COMMIT_RESULT_LABEL)
+                        && attempt < MAX_TRANSACTION_ATTEMPTS
+                    ? commit(session, attempt + 1)
+                    : CompletableFuture.<Void>failedFuture(cause);
+            })
+            .thenCompose(Function.identity());
+    }
+
+    private static boolean hasLabel(Throwable error, String label) {
+        return error instanceof MongoException && ((MongoException) error).hasErrorLabel(label);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+    }
+
+    /**
+     * Subscribes to a publisher of at most one item, returning a future that
+     * completes with that item, or with null if there is none.
+     */
+    private static <T> CompletableFuture<T> first(Publisher<T> publisher) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        publisher.subscribe(new Subscriber<T>() {
+            private T item;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(T next) {
+                item = next;
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                future.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(item);
+            }
+        });
+        return future;
+    }
+}
@@ -1,6 +1,7 @@
 package org.mongodb.banking.ui.controller;
 
 import java.beans.PropertyChangeEvent;
+import org.mongodb.banking.client.BankStatus;
 import org.mongodb.banking.client.BankingApiClient;
 import org.mongodb.banking.ui.model.BankDetailModel;
 import org.slf4j.Logger;
@@ -15,12 +16,22 @@ public class BankDetailController {
     private final BankingApiClient client;
     
     public BankDetailController(String bankName, BankingApiClient bankClient) {
+        this(bankName, bankClient, bankClient.getBalance(bankName), bankClient.isAvailable(bankName));
+    }
+
+    /**
+     * Creates a new instance whose model starts with the state reported in
+     * a snapshot, which avoids requesting it separately.
+     */
+    public BankDetailController(BankStatus status, BankingApiClient bankClient) {
+        this(status.getBankName(), bankClient,
+            status.isAvailable() ? status.getBalance() : BankDetailModel.FLAG_BALANCE_UNKNOWN, status.isAvailable());
+    }
+
+    private BankDetailController(String bankName, BankingApiClient bankClient, int balance, boolean available) {
         name = bankName;
 
         logger.debug("Creating BankDetailController for {}", bankName);
-        int balance = bankClient.getBalance(name);
-        boolean available = bankClient.isAvailable(name);
-        
         model = new BankDetailModel(name, balance, available);
         client = bankClient;
 
@@ -40,8 +51,38 @@ public class BankDetailController {
         logger.trace("BankDetailController is refreshing model for {}", name);
 
         boolean newAvailable = client.isAvailable(name);
-        int newBalance = getNewBalance(newAvailable);
+        update(getNewBalance(newAvailable), newAvailable);
+    }
+
+    /**
+     * Updates the model with the state reported in a snapshot.
+     */
+    void refresh(BankStatus status) {
+        logger.trace("BankDetailController is refreshing model for {} from snapshot", name);
+
+        boolean newAvailable = status.isAvailable();
+        update(newAvailable ? status.getBalance() : BankDetailModel.FLAG_BALANCE_UNKNOWN, newAvailable);
+    }
+
+    /**
+     * Updates the model with a balance received as an event.
+     */
+    void balanceChanged(int newBalance) {
+        if (model.isAvailable()) {
+            update(newBalance, true);
+        }
+    }
+
+    /**
+     * Updates the model with an availability received as an event. The
+     * balance of an unavailable account is unknown, and once it is available
+     * again, its balance follows as a separate event.
+     */
+    void availabilityChanged(boolean newAvailable) {
+        update(newAvailable ? model.getBalance() : BankDetailModel.FLAG_BALANCE_UNKNOWN, newAvailable);
+    }
 
+    private void update(int newBalance, boolean newAvailable) {
         if (model.getBalance() != newBalance) {
             model.setBalance(newBalance);
         }
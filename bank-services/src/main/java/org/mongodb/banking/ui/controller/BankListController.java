@@ -2,6 +2,8 @@ package org.mongodb.banking.ui.controller;
 
 import io.temporal.client.WorkflowClient;
 import io.temporal.serviceclient.WorkflowServiceStubs;
+import org.mongodb.banking.client.BankEventListener;
+import org.mongodb.banking.client.BankStatus;
 import org.mongodb.banking.client.BankingApiClient;
 import org.mongodb.banking.ui.model.BankDetailModel;
 import org.mongodb.banking.ui.model.BankListModel;
@@ -15,19 +17,24 @@ public class BankListController {
 
     private static final Logger logger = LoggerFactory.getLogger(BankListController.class);
 
-    // how many milliseconds should elapse between refreshing data shown in the UI
+    // how many milliseconds should elapse between refreshing data shown in
+    // the UI, which is only done while not subscribed to the event stream
     private static final int REFRESH_INTERVAL_MILLIS = 2000;
 
     private final BankListModel model;
     private final BankingApiClient bankClient;
     private final Map<String, BankDetailController> detailControllers;
 
+    // whether changes are being received from the event stream
+    private volatile boolean subscribed;
+
     public BankListController(BankingApiClient bankClient) {
         this.bankClient = bankClient;
         detailControllers = Collections.synchronizedMap(new HashMap<>());
 
         model = new BankListModel();
         refresh();
+        subscribe();
 
         model.addPropertyChangeListener((PropertyChangeEvent evt) -> {
             if (evt.getNewValue() != null) {
@@ -46,22 +53,54 @@ public class BankListController {
         timer.scheduleAtFixedRate(new TimerTask() {
             @Override
             public void run() {
-                refresh();
+                if (!subscribed) {
+                    // poll until the event stream can be opened again
+                    subscribe();
+                    refresh();
+                }
             }
-        }, 0, REFRESH_INTERVAL_MILLIS);
+        }, REFRESH_INTERVAL_MILLIS, REFRESH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens the event stream, through which the models receive each change
+     * as it happens, rather than on the next refresh. If the stream cannot
+     * be opened, or is closed later, the models are refreshed periodically
+     * instead, while trying to open it again.
+     */
+    private void subscribe() {
+        subscribed = true;
+        bankClient.subscribe(new EventHandler()).whenComplete((ignored, error) -> {
+            subscribed = false;
+            if (error != null) {
+                logger.debug("Unable to receive events, so refreshing periodically", error);
+            } else {
+                logger.info("Event stream closed, so refreshing periodically");
+            }
+        });
     }
 
     public BankDetailModel getBankDetailModel(String bankName) {
         return detailControllers.get(bankName).getModel();
     }
 
+    // updates every account from a single snapshot, if it has changed since the last one
     private void refresh() {
         logger.trace("BankListController is refreshing model");
-        List<String> latest = bankClient.getAllBankNames();
+        Optional<List<BankStatus>> snapshot = bankClient.getSnapshot();
+        if (snapshot.isEmpty()) {
+            logger.trace("BankListController found no changes");
+            return;
+        }
+
+        Map<String, BankStatus> latest = new LinkedHashMap<>();
+        for (BankStatus status : snapshot.get()) {
+            latest.put(status.getBankName(), status);
+        }
         List<String> modelNames = model.getBankNames();
 
         List<String> namesToAdd = new ArrayList<>();
-        for (String name : latest) {
+        for (String name : latest.keySet()) {
             if (!modelNames.contains(name)) {
                 namesToAdd.add(name);
             }
@@ -69,14 +108,14 @@ public class BankListController {
 
         List<String> namesToRemove = new ArrayList<>();
         for (String name : modelNames) {
-            if (!latest.contains(name)) {
+            if (!latest.containsKey(name)) {
                 namesToRemove.add(name);
             }
         }
 
         logger.trace("BankListController found {} new items to add", namesToAdd.size());
         for (String name : namesToAdd) {
-            BankDetailController detailController = new BankDetailController(name, bankClient);
+            BankDetailController detailController = new BankDetailController(latest.get(name), bankClient);
             detailControllers.put(name, detailController);
             model.addBankName(name);
         }
@@ -87,17 +126,58 @@ public class BankListController {
             model.removeBankName(name);
         }
 
-        for (String name : latest) {
-            if (!namesToAdd.contains(name) && !namesToRemove.contains(name)) {
+        for (BankStatus status : latest.values()) {
+            if (!namesToAdd.contains(status.getBankName())) {
                 // this was there before, update it
-                BankDetailController detailController = detailControllers.get(name);
+                BankDetailController detailController = detailControllers.get(status.getBankName());
                 if (detailController != null) {
-                    detailController.refresh();
+                    detailController.refresh(status);
                 }
             }
         }
     }
 
+    /**
+     * Applies the changes received from the event stream to the models.
+     */
+    private class EventHandler implements BankEventListener {
+        @Override
+        public void connected() {
+            // bring the models up to date with any changes made before now
+            refresh();
+        }
+
+        @Override
+        public void bankCreated(String bankName, int balance) {
+            if (!detailControllers.containsKey(bankName)) {
+                detailControllers.put(bankName, new BankDetailController(new BankStatus(bankName, balance, true), bankClient));
+                model.addBankName(bankName);
+            }
+        }
+
+        @Override
+        public void bankDeleted(String bankName) {
+            detailControllers.remove(bankName);
+            model.removeBankName(bankName);
+        }
+
+        @Override
+        public void balanceChanged(String bankName, int balance) {
+            BankDetailController detailController = detailControllers.get(bankName);
+            if (detailController != null) {
+                detailController.balanceChanged(balance);
+            }
+        }
+
+        @Override
+        public void availabilityChanged(String bankName, boolean available) {
+            BankDetailController detailController = detailControllers.get(bankName);
+            if (detailController != null) {
+                detailController.availabilityChanged(available);
+            }
+        }
+    }
+
     public BankListModel getModel() {
         return model;
     }
@@ -0,0 +1,187 @@
+package org.mongodb.banking;
+
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mongodb.banking.exceptions.InsufficientFundsException;
+import org.mongodb.banking.idempotency.IdempotencyCache;
+import org.mongodb.banking.repository.AsyncBankRepository;
+import org.mongodb.banking.repository.BankRepository;
+import org.mongodb.banking.repository.InMemoryBankRepository;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exercises the asynchronous deposits, withdrawals and balance requests of
+ * BankService, using an asynchronous repository that completes each operation
+ * on a separate thread, as the reactive streams driver does.
+ */
+public class AsyncBankServiceTest {
+
+    private final String name = "Async";
+    private final int initialBalance = 1000;
+
+    private ExecutorService driverThreads;
+    private BankRepository repo;
+    private AsyncBankRepository asyncRepo;
+    private volatile boolean failWrites;
+
+    @Before
+    public void setUp() {
+        driverThreads = Executors.newFixedThreadPool(2);
+        repo = new InMemoryBankRepository();
+        repo.createAccount(name, initialBalance);
+
+        asyncRepo = new AsyncBankRepository() {
+            @Override
+            public CompletableFuture<Document> findAccountByBankName(String bankName) {
+                return CompletableFuture.supplyAsync(() -> repo.findAccountByBankName(bankName), driverThreads);
+            }
+
+            @Override
+            public CompletableFuture<Integer> applyTransaction(String type, int amount, String transactionId,
+                    String idempotencyKey, String bankName) {
+                return CompletableFuture.supplyAsync(() -> {
+                    if (failWrites) {
+                        throw new IllegalStateException("Simulated write failure");
+                    }
+                    return repo.applyTransaction(type, amount, transactionId, idempotencyKey, bankName);
+                }, driverThreads);
+            }
+
+            @Override
+            public CompletableFuture<String> findTransactionId(String bankName, String idempotencyKey) {
+                return CompletableFuture.supplyAsync(() -> repo.findTransactionId(bankName, idempotencyKey), driverThreads);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        driverThreads.shutdownNow();
+    }
+
+    @Test
+    public void depositAndWithdraw() throws Exception {
+        for (WriteMode mode : WriteMode.values()) {
+            BankService service = createService(mode);
+            String account = name + "-" + mode;
+            repo.createAccount(account, initialBalance);
+
+            String depositId = get(service.depositAsync(account, 100, "deposit"));
+            String withdrawalId = get(service.withdrawAsync(account, 300, "withdraw"));
+
+            assertTrue(depositId.startsWith("D"));
+            assertTrue(withdrawalId.startsWith("W"));
+            assertEquals(initialBalance - 200, (int) get(service.getBalanceAsync(account)));
+            assertEquals(initialBalance - 200, (int) repo.findAccountByBankName(account).getInteger("balance"));
+        }
+    }
+
+    @Test
+    public void duplicateReturnsOriginalTransactionId() throws Exception {
+        for (WriteMode mode : WriteMode.values()) {
+            BankService service = createService(mode);
+            String account = name + "-" + mode;
+            repo.createAccount(account, initialBalance);
+
+            String first = get(service.depositAsync(account, 250, "same-key"));
+            String second = get(service.depositAsync(account, 250, "same-key"));
+
+            assertEquals(first, second);
+            assertEquals(initialBalance + 250, (int) get(service.getBalanceAsync(account)));
+        }
+    }
+
+    @Test
+    public void duplicateRecordedBeforeStartIsRecognized() throws Exception {
+        repo.applyTransaction("deposit", 50, "D-earlier", "earlier-key", name);
+
+        // a new service has not seen the key, so it is found in the repository
+        BankService service = createService(WriteMode.STATELESS);
+        assertEquals("D-earlier", get(service.depositAsync(name, 50, "earlier-key")));
+        assertEquals(initialBalance + 50, (int) get(service.getBalanceAsync(name)));
+    }
+
+    @Test
+    public void withdrawalExceedingBalanceFails() {
+        for (WriteMode mode : WriteMode.values()) {
+            BankService service = createService(mode);
+
+            ExecutionException e = assertThrows(ExecutionException.class,
+                () -> get(service.withdrawAsync(name, initialBalance + 1, "too-much-" + mode)));
+            assertTrue(e.getCause() instanceof InsufficientFundsException);
+        }
+    }
+
+    @Test
+    public void failedWriteIsReversed() throws Exception {
+        BankService service = createService(WriteMode.DIRECT);
+        assertEquals(initialBalance, (int) get(service.getBalanceAsync(name)));
+
+        failWrites = true;
+        ExecutionException e = assertThrows(ExecutionException.class,
+            () -> get(service.withdrawAsync(name, 100, "will-fail")));
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        assertEquals(initialBalance, (int) get(service.getBalanceAsync(name)));
+
+        // the key was not recorded, so the request can be retried
+        failWrites = false;
+        get(service.withdrawAsync(name, 100, "will-fail"));
+        assertEquals(initialBalance - 100, (int) get(service.getBalanceAsync(name)));
+    }
+
+    @Test
+    public void unavailableBankFails() {
+        BankService service = createService(WriteMode.STATELESS);
+        service.stopBank(name);
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+            () -> get(service.depositAsync(name, 100, "while-stopped")));
+        assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void missingKeyRejected() throws Exception {
+        repo.createAccount("Recipient", 0);
+        for (WriteMode mode : WriteMode.values()) {
+            BankService service = createService(mode);
+            for (String key : Arrays.asList(null, "", " ")) {
+                ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> get(service.depositAsync(name, 100, key)));
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+
+                assertThrows(IllegalArgumentException.class, () -> service.deposit(name, 100, key));
+                assertThrows(IllegalArgumentException.class, () -> service.withdraw(name, 100, key));
+                assertThrows(IllegalArgumentException.class, () -> service.transfer(name, "Recipient", 100, key));
+                assertThrows(IllegalArgumentException.class, () -> service.applyBatch(name, List.of(
+                    new BatchOperation(BatchOperation.DEPOSIT, name, 100, "keyed"),
+                    new BatchOperation(BatchOperation.DEPOSIT, name, 100, key))));
+            }
+            assertEquals(initialBalance, (int) get(service.getBalanceAsync(name)));
+        }
+        assertEquals(initialBalance, (int) repo.findAccountByBankName(name).getInteger("balance"));
+        assertEquals(0, (int) repo.findAccountByBankName("Recipient").getInteger("balance"));
+    }
+
+    private BankService createService(WriteMode mode) {
+        GroupCommitter committer = (mode == WriteMode.GROUP_COMMIT) ? new GroupCommitter() : null;
+        return new BankService(repo, asyncRepo, new BankNameRegistry(repo), new IdempotencyCache(repo),
+            mode, committer, new BankCache());
+    }
+
+    private static <T> T get(CompletableFuture<T> future) throws Exception {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+}
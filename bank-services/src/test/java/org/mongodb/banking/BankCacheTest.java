@@ -0,0 +1,162 @@
+package org.mongodb.banking;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mongodb.banking.idempotency.IdempotencyCache;
+import org.mongodb.banking.repository.InMemoryBankRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BankCacheTest {
+
+    private InMemoryBankRepository repo;
+
+    @Before
+    public void setUp() {
+        repo = new InMemoryBankRepository();
+        for (int i = 0; i < 20; i++) {
+            repo.createAccount("Bank" + i, 100);
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() throws Exception {
+        BankCache cache = new BankCache(10 * BankCache.ESTIMATED_BANK_BYTES, Duration.ofHours(1));
+        assertEquals(10, cache.getCapacity());
+
+        for (int i = 0; i < 20; i++) {
+            use(cache, "Bank" + i);
+            Thread.sleep(1);
+        }
+        cache.evict();
+
+        assertTrue(cache.getSize() <= 9);
+        assertEquals(20 - cache.getSize(), cache.getEvictions());
+        assertNull(cache.get("Bank0"));
+        assertNotNull(cache.get("Bank19"));
+    }
+
+    @Test
+    public void idleEvicted() {
+        BankCache cache = new BankCache(BankCache.DEFAULT_MEMORY_BUDGET, Duration.ZERO);
+        use(cache, "Bank0");
+        use(cache, "Bank1");
+
+        cache.evict();
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void bankInUseNotEvicted() {
+        BankCache cache = new BankCache(BankCache.DEFAULT_MEMORY_BUDGET, Duration.ZERO);
+        Bank bank = cache.acquire("Bank0", this::load);
+
+        cache.evict();
+        assertSame(bank, cache.get("Bank0"));
+
+        cache.release(bank);
+        cache.evict();
+        assertNull(cache.get("Bank0"));
+    }
+
+    @Test
+    public void evictedBankReloaded() {
+        BankCache cache = new BankCache(BankCache.DEFAULT_MEMORY_BUDGET, Duration.ZERO);
+        BankService service = new BankService(repo, null, new BankNameRegistry(repo),
+            new IdempotencyCache(repo), WriteMode.DIRECT, null, cache);
+        service.deposit("Bank0", 50, "key1");
+        Bank before = cache.get("Bank0");
+
+        cache.evict();
+        assertEquals(150, service.getBalance("Bank0"));
+        assertNotSame(before, cache.get("Bank0"));
+
+        // the key is still recognized, since the idempotency cache is kept
+        service.deposit("Bank0", 50, "key1");
+        assertEquals(150, service.getBalance("Bank0"));
+    }
+
+    @Test
+    public void concurrentMissesLoadOnce() throws Exception {
+        BankCache cache = new BankCache(BankCache.DEFAULT_MEMORY_BUDGET, Duration.ofHours(1));
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Bank>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return cache.acquire("Bank0", name -> {
+                        loads.incrementAndGet();
+                        return load(name);
+                    });
+                }));
+            }
+            start.countDown();
+
+            Bank first = results.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<Bank> result : results) {
+                assertSame(first, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void slowLoadDoesNotDelayOtherAccounts() throws Exception {
+        BankCache cache = new BankCache(BankCache.DEFAULT_MEMORY_BUDGET, Duration.ofHours(1));
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch finishLoad = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Bank> slow = executor.submit(() -> cache.acquire("Bank0", name -> {
+                loading.countDown();
+                try {
+                    finishLoad.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return load(name);
+            }));
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+
+            // every other account loads while Bank0 is still loading
+            for (int i = 1; i < 20; i++) {
+                use(cache, "Bank" + i);
+            }
+            assertEquals(19, cache.getSize());
+
+            finishLoad.countDown();
+            assertSame(slow.get(10, TimeUnit.SECONDS), cache.get("Bank0"));
+        } finally {
+            finishLoad.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private void use(BankCache cache, String bankName) {
+        cache.release(cache.acquire(bankName, this::load));
+    }
+
+    private Bank load(String bankName) {
+        return new Bank(bankName, repo);
+    }
+}
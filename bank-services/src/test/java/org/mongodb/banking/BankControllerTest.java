@@ -0,0 +1,175 @@
+package org.mongodb.banking;
+
+import org.bson.Document;
+import org.junit.Test;
+import org.mongodb.banking.repository.InMemoryBankRepository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Checks the results of batch requests, which the controller applies without
+ * starting its server.
+ */
+public class BankControllerTest {
+
+    private InMemoryBankRepository repo;
+    private BankManager manager;
+
+    @Test
+    public void resultsInRequestOrder() {
+        BankController controller = createController(WriteMode.DIRECT);
+        manager.getService().createBank("Maria", 100);
+        manager.getService().createBank("David", 100);
+
+        // interleaved, so the groups for each bank are not in request order
+        List<Map<String, Object>> results = controller.applyBatch(new BatchOperation[] {
+            new BatchOperation(BatchOperation.DEPOSIT, "Maria", 10, "key-1"),
+            new BatchOperation(BatchOperation.WITHDRAW, "David", 20, "key-2"),
+            new BatchOperation(BatchOperation.WITHDRAW, "Maria", 30, "key-3"),
+            new BatchOperation(BatchOperation.DEPOSIT, "David", 40, "key-4"),
+        }).join();
+
+        assertEquals(4, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(JsonResponses.SUCCESS, results.get(i).get("status"));
+        }
+        assertEquals(results.get(0).get("transactionId"), repo.findTransactionId("Maria", "key-1"));
+        assertEquals(results.get(1).get("transactionId"), repo.findTransactionId("David", "key-2"));
+        assertEquals(results.get(2).get("transactionId"), repo.findTransactionId("Maria", "key-3"));
+        assertEquals(results.get(3).get("transactionId"), repo.findTransactionId("David", "key-4"));
+        assertEquals(80, manager.getService().getBalance("Maria"));
+        assertEquals(120, manager.getService().getBalance("David"));
+    }
+
+    @Test
+    public void rejectionsOnlyFailTheirOwnOperations() {
+        BankController controller = createController(WriteMode.DIRECT);
+        manager.getService().createBank("Maria", 100);
+
+        List<Map<String, Object>> results = controller.applyBatch(new BatchOperation[] {
+            new BatchOperation(BatchOperation.WITHDRAW, "Maria", 60, "key-1"),
+            new BatchOperation(BatchOperation.WITHDRAW, "Maria", 60, "key-2"),
+            new BatchOperation(BatchOperation.DEPOSIT, "Maria", 0, "key-3"),
+            new BatchOperation(BatchOperation.DEPOSIT, "Nobody", 10, "key-4"),
+            new BatchOperation(BatchOperation.WITHDRAW, "Maria", 40, "key-5"),
+            new BatchOperation(BatchOperation.DEPOSIT, " ", 10, "key-6"),
+        }).join();
+
+        assertEquals(JsonResponses.SUCCESS, results.get(0).get("status"));
+        assertEquals(ErrorCode.INSUFFICIENT_FUNDS.name(), results.get(1).get("errorCode"));
+        assertEquals(ErrorCode.INVALID_REQUEST.name(), results.get(2).get("errorCode"));
+        assertEquals(ErrorCode.NO_SUCH_ACCOUNT.name(), results.get(3).get("errorCode"));
+        assertEquals(JsonResponses.SUCCESS, results.get(4).get("status"));
+        assertEquals(ErrorCode.INVALID_REQUEST.name(), results.get(5).get("errorCode"));
+        assertEquals(0, manager.getService().getBalance("Maria"));
+    }
+
+    @Test
+    public void duplicateKeyWithinBatchAppliedOnce() {
+        BankController controller = createController(WriteMode.DIRECT);
+        manager.getService().createBank("Maria", 100);
+
+        List<Map<String, Object>> results = controller.applyBatch(new BatchOperation[] {
+            new BatchOperation(BatchOperation.DEPOSIT, "Maria", 10, "key-1"),
+            new BatchOperation(BatchOperation.DEPOSIT, "Maria", 10, "key-1"),
+        }).join();
+
+        assertEquals(JsonResponses.SUCCESS, results.get(0).get("status"));
+        assertNotEquals(JsonResponses.SUCCESS, results.get(1).get("status"));
+        assertEquals(110, manager.getService().getBalance("Maria"));
+    }
+
+    @Test
+    public void repeatedBatchReturnsSameTransactionIds() {
+        BankController controller = createController(WriteMode.DIRECT);
+        manager.getService().createBank("Maria", 100);
+        BatchOperation[] operations = {
+            new BatchOperation(BatchOperation.DEPOSIT, "Maria", 10, "key-1"),
+            new BatchOperation(BatchOperation.WITHDRAW, "Maria", 20, "key-2"),
+        };
+
+        List<Map<String, Object>> first = controller.applyBatch(operations).join();
+        List<Map<String, Object>> second = controller.applyBatch(operations).join();
+
+        assertEquals(first, second);
+        assertEquals(90, manager.getService().getBalance("Maria"));
+    }
+
+    @Test
+    public void balanceReflectsEarlierOperations() {
+        balanceReflectsEarlierOperations(WriteMode.DIRECT);
+    }
+
+    @Test
+    public void balanceReflectsEarlierOperationsInGroupCommitMode() {
+        balanceReflectsEarlierOperations(WriteMode.GROUP_COMMIT);
+    }
+
+    private void balanceReflectsEarlierOperations(WriteMode mode) {
+        BankController controller = createController(mode);
+        manager.getService().createBank("Maria", 100);
+        manager.getService().createBank("David", 100);
+
+        // a balance is answered once every deposit and withdrawal is applied
+        List<Map<String, Object>> results = controller.applyBatch(new BatchOperation[] {
+            new BatchOperation(BatchOperation.BALANCE, "Maria", 0, null),
+            new BatchOperation(BatchOperation.DEPOSIT, "Maria", 50, "key-1"),
+            new BatchOperation(BatchOperation.WITHDRAW, "David", 30, "key-2"),
+            new BatchOperation(BatchOperation.BALANCE, "David", 0, null),
+            new BatchOperation(BatchOperation.BALANCE, "Nobody", 0, null),
+            new BatchOperation(BatchOperation.BALANCE, null, 0, null),
+        }).join();
+
+        assertEquals(150, results.get(0).get("balance"));
+        assertEquals(JsonResponses.SUCCESS, results.get(1).get("status"));
+        assertEquals(JsonResponses.SUCCESS, results.get(2).get("status"));
+        assertEquals(70, results.get(3).get("balance"));
+        assertEquals(ErrorCode.NO_SUCH_ACCOUNT.name(), results.get(4).get("errorCode"));
+        assertEquals(ErrorCode.INVALID_REQUEST.name(), results.get(5).get("errorCode"));
+    }
+
+    @Test
+    public void directWriteDoesNotHoldCaller() throws Exception {
+        CountDownLatch released = new CountDownLatch(1);
+        repo = new InMemoryBankRepository() {
+            @Override
+            public int applyTransactions(String bankName, List<Document> transactions, long expectedVersion) {
+                try {
+                    released.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.applyTransactions(bankName, transactions, expectedVersion);
+            }
+        };
+        manager = new BankManager(repo, WriteMode.DIRECT);
+        BankController controller = new BankController(manager, 0);
+        manager.getService().createBank("Maria", 100);
+
+        CompletableFuture<List<Map<String, Object>>> pending = controller.applyBatch(new BatchOperation[] {
+            new BatchOperation(BatchOperation.DEPOSIT, "Maria", 10, "key-1"),
+            new BatchOperation(BatchOperation.WITHDRAW, "Maria", 30, "key-2"),
+        });
+        assertFalse(pending.isDone());
+
+        released.countDown();
+        List<Map<String, Object>> results = pending.get(10, TimeUnit.SECONDS);
+        assertEquals(JsonResponses.SUCCESS, results.get(0).get("status"));
+        assertEquals(JsonResponses.SUCCESS, results.get(1).get("status"));
+        assertEquals(80, (int) repo.findAccountByBankName("Maria").getInteger("balance"));
+    }
+
+    private BankController createController(WriteMode mode) {
+        repo = new InMemoryBankRepository();
+        manager = new BankManager(repo, mode);
+        return new BankController(manager, 0);
+    }
+}
@@ -0,0 +1,96 @@
+package org.mongodb.banking;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mongodb.banking.repository.InMemoryBankRepository;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BankEventsTest {
+
+    private BankManager manager;
+    private final List<BankEvent> received = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        manager = new BankManager(new InMemoryBankRepository());
+        manager.getEvents().subscribe(received::add);
+    }
+
+    @Test
+    public void changesPublished() throws InterruptedException {
+        BankService service = manager.getService();
+        service.createBank("Maria", 500);
+        service.stopBank("Maria");
+        service.startBank("Maria");
+        service.deleteBank("Maria");
+        awaitDelivery();
+
+        assertEquals(4, received.size());
+        assertEquals(BankEvent.Type.CREATED, received.get(0).getType());
+        assertEquals(Integer.valueOf(500), received.get(0).getBalance());
+        assertEquals(Boolean.FALSE, received.get(1).getAvailable());
+        assertEquals(Boolean.TRUE, received.get(2).getAvailable());
+        assertEquals(BankEvent.Type.DELETED, received.get(3).getType());
+    }
+
+    @Test
+    public void balanceChangesCoalesced() throws InterruptedException {
+        BankService service = manager.getService();
+        service.createBank("Maria", 500);
+        for (int i = 0; i < 10; i++) {
+            service.deposit("Maria", 10, "key" + i);
+        }
+        service.withdraw("Maria", 50, "key-w");
+        Thread.sleep(BankEvents.BALANCE_INTERVAL_MILLIS * 3);
+        awaitDelivery();
+
+        // the balance is read once the interval ends, so it reflects every change
+        BankEvent last = received.get(received.size() - 1);
+        assertEquals(BankEvent.Type.BALANCE, last.getType());
+        assertEquals(Integer.valueOf(550), last.getBalance());
+        assertTrue(received.size() < 11);
+    }
+
+    @Test
+    public void balancePublishedWhenAvailableAgain() throws InterruptedException {
+        BankService service = manager.getService();
+        service.createBank("Maria", 500);
+        service.stopBank("Maria");
+        service.startBank("Maria");
+        Thread.sleep(BankEvents.BALANCE_INTERVAL_MILLIS * 3);
+        awaitDelivery();
+
+        BankEvent last = received.get(received.size() - 1);
+        assertEquals(BankEvent.Type.BALANCE, last.getType());
+        assertEquals(Integer.valueOf(500), last.getBalance());
+    }
+
+    @Test
+    public void unsubscribedReceivesNothing() throws InterruptedException {
+        List<BankEvent> other = new CopyOnWriteArrayList<>();
+        Consumer<BankEvent> subscriber = other::add;
+        manager.getEvents().subscribe(subscriber);
+        manager.getEvents().unsubscribe(subscriber);
+
+        manager.getService().createBank("David", 100);
+        awaitDelivery();
+
+        assertEquals(1, received.size());
+        assertEquals(0, other.size());
+    }
+
+    // waits for every event published so far to be delivered
+    private void awaitDelivery() throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(1);
+        manager.getEvents().execute(delivered::countDown);
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,250 @@
+package org.mongodb.banking;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.mongodb.banking.exceptions.AccountUnavailableException;
+import org.mongodb.banking.exceptions.InsufficientFundsException;
+import org.mongodb.banking.exceptions.NoSuchAccountException;
+import org.mongodb.banking.repository.AccountChangeListener;
+import org.mongodb.banking.repository.InMemoryBankRepository;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class BankManagerTest {
+
+    private InMemoryBankRepository repo;
+    private BankManager manager;
+
+    @Before
+    public void setUp() {
+        repo = new InMemoryBankRepository();
+        manager = new BankManager(repo);
+    }
+
+    @Test
+    public void snapshotReportsEveryAccount() {
+        manager.getService().createBank("Maria", 500);
+        manager.getService().createBank("David", 300);
+        manager.getService().deposit("David", 25, "key1");
+        manager.getService().stopBank("Maria");
+
+        List<AccountState> snapshot = manager.getSnapshot();
+        assertEquals(2, snapshot.size());
+
+        assertEquals("David", snapshot.get(0).getBankName());
+        assertEquals(Integer.valueOf(325), snapshot.get(0).getBalance());
+        assertTrue(snapshot.get(0).isAvailable());
+
+        assertEquals("Maria", snapshot.get(1).getBankName());
+        assertNull(snapshot.get(1).getBalance());
+        assertFalse(snapshot.get(1).isAvailable());
+    }
+
+    @Test
+    public void snapshotOmitsDeletedAccount() {
+        // in stateless mode, balances are read from the repository every time
+        manager = new BankManager(repo, WriteMode.STATELESS);
+        manager.getService().createBank("Maria", 500);
+        manager.getService().createBank("David", 300);
+        manager.getSnapshot();
+
+        // deleted outside of the service, so still in the registry
+        repo.deleteAccount("David");
+
+        List<AccountState> snapshot = manager.getSnapshot();
+        assertEquals(1, snapshot.size());
+        assertEquals("Maria", snapshot.get(0).getBankName());
+    }
+
+    @Test
+    public void snapshotDoesNotLoadAccounts() {
+        repo.createAccount("Maria", 500);
+        repo.createAccount("David", 300);
+
+        List<AccountState> snapshot = manager.getSnapshot();
+        assertEquals(Integer.valueOf(500), snapshot.get(1).getBalance());
+        assertEquals(0, manager.getBankCache().getSize());
+    }
+
+    @Test
+    public void snapshotReportsAccountAddedOutsideService() {
+        manager.getService().createBank("Maria", 500);
+        manager.getSnapshot();
+
+        repo.createAccount("David", 300);
+
+        List<AccountState> snapshot = manager.getSnapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals("David", snapshot.get(0).getBankName());
+        assertEquals(Integer.valueOf(300), snapshot.get(0).getBalance());
+        assertTrue(manager.isRegistered("David"));
+    }
+
+    @Test
+    public void changeFromOtherInstanceApplied() {
+        // two instances sharing one repository, as two nodes share a database
+        BankManager other = new BankManager(repo);
+        manager.getService().createBank("Maria", 500);
+        assertEquals(500, other.getService().getBalance("Maria"));
+
+        manager.getService().deposit("Maria", 100, "key1");
+        assertEquals(500, other.getService().getBalance("Maria"));
+
+        Document account = repo.findAccountByBankName("Maria");
+        other.getChangeListener().accountChanged("Maria", 600, account.getLong("version"));
+        assertEquals(600, other.getService().getBalance("Maria"));
+    }
+
+    @Test
+    public void groupCommitRereadsChangeFromOtherInstance() {
+        manager = new BankManager(repo, WriteMode.GROUP_COMMIT);
+        BankManager other = new BankManager(repo);
+        manager.getService().createBank("Maria", 500);
+        assertEquals(500, manager.getService().getBalance("Maria"));
+
+        // the change is not delivered to this instance, so its balance is out of date
+        other.getService().withdraw("Maria", 400, "key1");
+        assertThrows(InsufficientFundsException.class,
+            () -> manager.getService().withdraw("Maria", 300, "key2"));
+
+        manager.getService().deposit("Maria", 50, "key3");
+        assertEquals(150, manager.getService().getBalance("Maria"));
+        assertEquals(150, (int) repo.findAccountByBankName("Maria").getInteger("balance"));
+    }
+
+    @Test
+    public void ownChangesIgnored() {
+        manager.getService().createBank("Maria", 500);
+        manager.getService().deposit("Maria", 100, "key1");
+        manager.getService().deposit("Maria", 50, "key2");
+
+        // the change for the first deposit, arriving after the second
+        AccountChangeListener listener = manager.getChangeListener();
+        listener.accountChanged("Maria", 600, 1);
+        assertEquals(650, manager.getService().getBalance("Maria"));
+
+        listener.accountChanged("Maria", 650, 2);
+        assertEquals(650, manager.getService().getBalance("Maria"));
+    }
+
+    @Test
+    public void availabilityFromOtherInstanceApplied() {
+        manager.getService().createBank("Maria", 500);
+        AccountChangeListener listener = manager.getChangeListener();
+
+        listener.availabilityChanged("Maria", false);
+        assertFalse(manager.getService().isAvailable("Maria"));
+
+        listener.availabilityChanged("Maria", true);
+        assertTrue(manager.getService().isAvailable("Maria"));
+    }
+
+    @Test
+    public void transferToUnavailableAccountRejected() {
+        BankService service = manager.getService();
+        service.createBank("Maria", 500);
+        service.createBank("David", 300);
+        service.stopBank("David");
+
+        assertThrows(AccountUnavailableException.class, () -> service.transfer("Maria", "David", 100, "key1"));
+        assertEquals(500, service.getBalance("Maria"));
+        assertEquals(300, repo.findAccountByBankName("David").getInteger("balance").intValue());
+    }
+
+    @Test
+    public void deletionFromOtherInstanceApplied() {
+        manager.getService().createBank("Maria", 500);
+        manager.getService().getBalance("Maria");
+
+        repo.deleteAccount("Maria");
+        manager.getChangeListener().accountDeleted("Maria");
+        assertTrue(manager.getSnapshot().isEmpty());
+    }
+
+    @Test
+    public void deleteBeforeLoadReadsAccountIsNotUndone() throws Exception {
+        Future<Integer> balance = deleteWhileLoading(false);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> balance.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof NoSuchAccountException);
+        assertNull(repo.findAccountByBankName("Maria"));
+        assertNull(manager.getBankCache().get("Maria"));
+    }
+
+    @Test
+    public void deleteAfterLoadReadsAccountRemovesIt() throws Exception {
+        Future<Integer> balance = deleteWhileLoading(true);
+
+        // read before the deletion, so the balance is reported, but not kept
+        assertEquals(500, (int) balance.get(10, TimeUnit.SECONDS));
+        assertNull(manager.getBankCache().get("Maria"));
+        assertThrows(NoSuchAccountException.class, () -> manager.getService().getBalance("Maria"));
+        assertNull(repo.findAccountByBankName("Maria"));
+    }
+
+    /**
+     * Deletes an account while a balance request is loading it, holding the
+     * load either just before or just after it reads the account until the
+     * account has been deleted from the repository.
+     *
+     * @return the result of the balance request
+     */
+    private Future<Integer> deleteWhileLoading(boolean readBeforeHolding) throws Exception {
+        AtomicBoolean holdNextRead = new AtomicBoolean();
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch deleted = new CountDownLatch(1);
+        repo = new InMemoryBankRepository() {
+            @Override
+            public Document findAccountByBankName(String bankName) {
+                if (!holdNextRead.compareAndSet(true, false)) {
+                    return super.findAccountByBankName(bankName);
+                }
+                Document account = readBeforeHolding ? super.findAccountByBankName(bankName) : null;
+                held.countDown();
+                try {
+                    deleted.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return readBeforeHolding ? account : super.findAccountByBankName(bankName);
+            }
+
+            @Override
+            public boolean deleteAccount(String bankName) {
+                boolean wasDeleted = super.deleteAccount(bankName);
+                deleted.countDown();
+                return wasDeleted;
+            }
+        };
+        manager = new BankManager(repo);
+        BankService service = manager.getService();
+        service.createBank("Maria", 500);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            holdNextRead.set(true);
+            Future<Integer> balance = executor.submit(() -> service.getBalance("Maria"));
+            assertTrue(held.await(10, TimeUnit.SECONDS));
+
+            Future<Boolean> deletion = executor.submit(() -> service.deleteBank("Maria"));
+            assertTrue(deletion.get(10, TimeUnit.SECONDS));
+            return balance;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
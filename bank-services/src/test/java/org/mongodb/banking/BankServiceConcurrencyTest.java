@@ -0,0 +1,248 @@
+package org.mongodb.banking;
+
+import org.bson.Document;
+import org.junit.Test;
+import org.mongodb.banking.exceptions.InsufficientFundsException;
+import org.mongodb.banking.idempotency.IdempotencyCache;
+import org.mongodb.banking.repository.InMemoryBankRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Applies deposits, withdrawals, transfers and balance reads to many accounts
+ * from many threads at once, with a cache too small to hold them all, so that
+ * accounts are evicted and loaded again while in use, and checks that no
+ * operation is lost.
+ */
+public class BankServiceConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int OPERATIONS_PER_THREAD = 2_000;
+    private static final int ACCOUNTS = 200;
+    private static final int CACHED_ACCOUNTS = 20;
+    private static final int INITIAL_BALANCE = 1_000_000;
+
+    @Test
+    public void directWritesNotLost() throws Exception {
+        runStress(WriteMode.DIRECT);
+    }
+
+    @Test
+    public void groupCommitWritesNotLost() throws Exception {
+        runStress(WriteMode.GROUP_COMMIT);
+    }
+
+    @Test
+    public void sharedGroupCommitNeverOverdraws() throws Exception {
+        // two instances sharing one repository, as two nodes share a database,
+        // neither of which sees the other's withdrawals in its cached balance
+        InMemoryBankRepository repo = new InMemoryBankRepository();
+        GroupCommitter committer = new GroupCommitter();
+        BankService[] services = new BankService[2];
+        for (int i = 0; i < services.length; i++) {
+            services[i] = new BankService(repo, null, new BankNameRegistry(repo), new IdempotencyCache(repo),
+                WriteMode.GROUP_COMMIT, committer, new BankCache());
+        }
+        services[0].createBank("Shared", 10_000);
+
+        AtomicLong withdrawn = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                workers.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        try {
+                            services[i % services.length].withdraw("Shared", 7, "shared-" + thread + "-" + i);
+                            withdrawn.addAndGet(7);
+                        } catch (InsufficientFundsException e) {
+                            // expected once the balance runs out
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+            committer.shutdown();
+        }
+
+        int balance = repo.findAccountByBankName("Shared").getInteger("balance");
+        assertTrue("Overdrawn: " + balance, balance >= 0);
+        assertEquals(10_000 - withdrawn.get(), balance);
+    }
+
+    @Test
+    public void directBatchesNeverOverdraw() throws Exception {
+        // batches are written alongside individual writes to the same account,
+        // with a balance low enough that withdrawals are often rejected
+        InMemoryBankRepository repo = new InMemoryBankRepository();
+        BankService service = new BankService(repo, null, new BankNameRegistry(repo), new IdempotencyCache(repo),
+            WriteMode.DIRECT, null, new BankCache());
+        service.createBank("Direct", 500);
+        service.createBank("Reserve", INITIAL_BALANCE);
+
+        AtomicLong change = new AtomicLong();
+        AtomicLong written = new AtomicLong(); // the transactions applied to Direct
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                workers.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 500; i++) {
+                        int amount = 1 + random.nextInt(50);
+                        String key = "direct-" + thread + "-" + i;
+                        try {
+                            switch (random.nextInt(5)) {
+                                case 0:
+                                    service.deposit("Direct", amount, key);
+                                    change.addAndGet(amount);
+                                    written.incrementAndGet();
+                                    break;
+                                case 1:
+                                    service.withdraw("Direct", amount, key);
+                                    change.addAndGet(-amount);
+                                    written.incrementAndGet();
+                                    break;
+                                case 2:
+                                    if (random.nextBoolean()) {
+                                        service.transfer("Direct", "Reserve", amount, key);
+                                        change.addAndGet(-amount);
+                                    } else {
+                                        service.transfer("Reserve", "Direct", amount, key);
+                                        change.addAndGet(amount);
+                                    }
+                                    written.incrementAndGet();
+                                    break;
+                                default:
+                                    List<BatchOperation> operations = new ArrayList<>();
+                                    for (int j = 0; j < 1 + random.nextInt(5); j++) {
+                                        String type = random.nextBoolean() ? BatchOperation.DEPOSIT : BatchOperation.WITHDRAW;
+                                        operations.add(new BatchOperation(type, "Direct", 1 + random.nextInt(50), key + "-" + j));
+                                    }
+                                    List<CompletableFuture<String>> results = service.applyBatch("Direct", operations);
+                                    for (int j = 0; j < operations.size(); j++) {
+                                        try {
+                                            results.get(j).join();
+                                        } catch (CompletionException e) {
+                                            if (!(e.getCause() instanceof InsufficientFundsException)) {
+                                                throw e;
+                                            }
+                                            continue;
+                                        }
+                                        BatchOperation operation = operations.get(j);
+                                        boolean isWithdrawal = BatchOperation.WITHDRAW.equals(operation.getType());
+                                        change.addAndGet(isWithdrawal ? -operation.getAmount() : operation.getAmount());
+                                        written.incrementAndGet();
+                                    }
+                            }
+                        } catch (InsufficientFundsException e) {
+                            // expected whenever the balance runs low
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Document account = repo.findAccountByBankName("Direct");
+        int balance = account.getInteger("balance");
+        assertTrue("Overdrawn: " + balance, balance >= 0);
+        assertEquals(500 + change.get(), balance);
+        assertEquals(balance, service.getBalance("Direct"));
+        assertEquals(written.get(), account.getLong("version").longValue());
+    }
+
+    private void runStress(WriteMode mode) throws Exception {
+        InMemoryBankRepository repo = new InMemoryBankRepository();
+        BankCache cache = new BankCache(CACHED_ACCOUNTS * BankCache.ESTIMATED_BANK_BYTES, Duration.ofHours(1));
+        GroupCommitter committer = (mode == WriteMode.GROUP_COMMIT) ? new GroupCommitter() : null;
+        BankService service = new BankService(repo, null, new BankNameRegistry(repo),
+            new IdempotencyCache(repo), mode, committer, cache);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            service.createBank(name(i), INITIAL_BALANCE);
+        }
+
+        // the expected change in each balance, updated as operations succeed
+        AtomicLongArray changes = new AtomicLongArray(ACCOUNTS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                workers.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        int account = random.nextInt(ACCOUNTS);
+                        int amount = 1 + random.nextInt(10);
+                        String key = "stress-" + thread + "-" + i;
+                        switch (random.nextInt(4)) {
+                            case 0:
+                                service.deposit(name(account), amount, key);
+                                changes.addAndGet(account, amount);
+                                break;
+                            case 1:
+                                service.withdraw(name(account), amount, key);
+                                changes.addAndGet(account, -amount);
+                                break;
+                            case 2:
+                                int other = (account + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+                                service.transfer(name(account), name(other), amount, key);
+                                changes.addAndGet(account, -amount);
+                                changes.addAndGet(other, amount);
+                                break;
+                            default:
+                                int balance = service.getBalance(name(account));
+                                assertTrue(balance > 0);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get(60, TimeUnit.SECONDS); // rethrows any failure
+            }
+        } finally {
+            executor.shutdownNow();
+            if (committer != null) {
+                committer.shutdown();
+            }
+        }
+
+        for (int i = 0; i < ACCOUNTS; i++) {
+            long expected = INITIAL_BALANCE + changes.get(i);
+            assertEquals(name(i), expected, service.getBalance(name(i)));
+            assertEquals(name(i), expected, (long) repo.findAccountByBankName(name(i)).getInteger("balance"));
+        }
+        assertTrue("Expected accounts to be evicted", cache.getEvictions() > 0);
+    }
+
+    private static String name(int account) {
+        return "Stress" + account;
+    }
+}
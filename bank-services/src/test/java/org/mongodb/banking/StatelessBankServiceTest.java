@@ -0,0 +1,149 @@
+package org.mongodb.banking;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mongodb.banking.config.MongodbConfig;
+import org.mongodb.banking.exceptions.InsufficientFundsException;
+import org.mongodb.banking.repository.BankRepository;
+import org.mongodb.banking.repository.BankRepositoryImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs two stateless BankService instances, each with its own connection,
+ * against the same database to simulate two nodes behind a load balancer.
+ */
+public class StatelessBankServiceTest {
+
+    private static final String CONNECTION_STRING = "mongodb://127.0.0.1:27017";
+
+    private BankRepository repo;
+    private MongoClient clientA;
+    private MongoClient clientB;
+    private BankService nodeA;
+    private BankService nodeB;
+    private final String name = "Stateless";
+    private final int initialBalance = 1000;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new BankRepositoryImpl(MongodbConfig.getClient(CONNECTION_STRING), "bankingdemo");
+        repo.createAccount(name, initialBalance);
+
+        // not the shared client, so that each node has its own connections
+        clientA = MongoClients.create(MongodbConfig.buildSettings(CONNECTION_STRING, Map.of()));
+        clientB = MongoClients.create(MongodbConfig.buildSettings(CONNECTION_STRING, Map.of()));
+        BankRepository repoA = new BankRepositoryImpl(clientA, "bankingdemo");
+        BankRepository repoB = new BankRepositoryImpl(clientB, "bankingdemo");
+        nodeA = new BankService(repoA, new BankNameRegistry(repoA), WriteMode.STATELESS);
+        nodeB = new BankService(repoB, new BankNameRegistry(repoB), WriteMode.STATELESS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        repo.deleteAccount(name);
+        clientA.close();
+        clientB.close();
+    }
+
+    @Test
+    public void concurrentWithdrawalsNeverOverdraw() throws Exception {
+        int amount = 10;
+        int attempts = 200; // twice as many as the balance can cover
+
+        AtomicInteger succeeded = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < attempts; i++) {
+            BankService node = (i % 2 == 0) ? nodeA : nodeB;
+            String key = "withdraw-" + i;
+            tasks.add(() -> {
+                try {
+                    node.withdraw(name, amount, key);
+                    succeeded.incrementAndGet();
+                } catch (InsufficientFundsException expected) {
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+
+        assertEquals(initialBalance / amount, succeeded.get());
+        assertEquals(0, nodeA.getBalance(name));
+        assertEquals(0, nodeB.getBalance(name));
+    }
+
+    @Test
+    public void concurrentDepositsAreNotLost() throws Exception {
+        int amount = 5;
+        int deposits = 100;
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < deposits; i++) {
+            BankService node = (i % 2 == 0) ? nodeA : nodeB;
+            String key = "deposit-" + i;
+            tasks.add(() -> {
+                node.deposit(name, amount, key);
+                return null;
+            });
+        }
+        runAll(tasks);
+
+        assertEquals(initialBalance + deposits * amount, nodeA.getBalance(name));
+    }
+
+    @Test
+    public void duplicateAcrossNodesIgnored() throws Exception {
+        int amount = 250;
+
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            BankService node = (i % 2 == 0) ? nodeA : nodeB;
+            tasks.add(() -> node.deposit(name, amount, "same-key"));
+        }
+        List<String> transactionIds = runAll(tasks);
+
+        assertEquals(initialBalance + amount, nodeB.getBalance(name));
+        for (String transactionId : transactionIds) {
+            assertEquals(transactionIds.get(0), transactionId);
+        }
+    }
+
+    @Test
+    public void duplicateIgnoredAfterManyTransactionsAndRestart() {
+        String transactionId = nodeA.deposit(name, 100, "first-key");
+        for (int i = 0; i < 150; i++) {
+            nodeA.deposit(name, 1, "key-" + i);
+        }
+
+        // a new node has none of the keys in memory, so only the record in
+        // the transactions collection identifies the duplicate
+        BankService restarted = new BankService(repo, new BankNameRegistry(repo), WriteMode.STATELESS);
+        assertEquals(transactionId, restarted.deposit(name, 100, "first-key"));
+        assertEquals(initialBalance + 250, restarted.getBalance(name));
+    }
+
+    private <T> List<T> runAll(List<Callable<T>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.mongodb.banking;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionIdGeneratorTest {
+
+    @Test
+    public void idsAreUniqueAcrossThreads() throws Exception {
+        int threads = 8;
+        int idsPerThread = 200_000;
+        TransactionIdGenerator generator = new TransactionIdGenerator(7);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Callable<long[]>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            tasks.add(() -> {
+                start.await();
+                long[] ids = new long[idsPerThread];
+                for (int i = 0; i < idsPerThread; i++) {
+                    ids[i] = generator.nextId();
+                }
+                return ids;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (Callable<long[]> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            start.countDown();
+
+            Set<Long> seen = new HashSet<>();
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get();
+                for (int i = 0; i < ids.length; i++) {
+                    assertTrue("Duplicate ID " + ids[i], seen.add(ids[i]));
+                    if (i > 0) {
+                        assertTrue("IDs must increase within a thread", ids[i] > ids[i - 1]);
+                    }
+                }
+            }
+            assertEquals(threads * idsPerThread, seen.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void idsIncreaseWhenClockMovesBackwards() {
+        AtomicLong clock = new AtomicLong(TransactionIdGenerator.EPOCH_MILLIS + 1_000_000);
+        TransactionIdGenerator generator = new TransactionIdGenerator(3, clock::get);
+
+        long first = generator.nextId();
+        clock.addAndGet(-5_000);
+        long second = generator.nextId();
+
+        assertTrue(second > first);
+    }
+
+    @Test
+    public void sequenceOverflowBorrowsNextMillisecond() {
+        AtomicLong clock = new AtomicLong(TransactionIdGenerator.EPOCH_MILLIS + 1_000_000);
+        TransactionIdGenerator generator = new TransactionIdGenerator(3, clock::get);
+
+        // more IDs than the sequence can hold within one millisecond
+        Set<Long> seen = new HashSet<>();
+        long previous = -1;
+        for (int i = 0; i < 3 * (1 << TransactionIdGenerator.SEQUENCE_BITS); i++) {
+            long id = generator.nextId();
+            assertTrue(seen.add(id));
+            assertTrue(id > previous);
+            previous = id;
+        }
+    }
+
+    @Test
+    public void nodeIdIsEncoded() {
+        TransactionIdGenerator generator = new TransactionIdGenerator(TransactionIdGenerator.MAX_NODE_ID);
+
+        long id = generator.nextId();
+        long nodeId = (id >>> TransactionIdGenerator.SEQUENCE_BITS) & TransactionIdGenerator.MAX_NODE_ID;
+        assertEquals(TransactionIdGenerator.MAX_NODE_ID, nodeId);
+    }
+
+    @Test
+    public void prefixIsKept() {
+        TransactionIdGenerator generator = new TransactionIdGenerator(0);
+
+        assertTrue(generator.next("D").matches("D\\d+"));
+        assertTrue(generator.next("W").matches("W\\d+"));
+    }
+
+    @Test
+    public void invalidNodeIdRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new TransactionIdGenerator(TransactionIdGenerator.MAX_NODE_ID + 1));
+        assertThrows(IllegalArgumentException.class, () -> new TransactionIdGenerator(-1));
+    }
+}
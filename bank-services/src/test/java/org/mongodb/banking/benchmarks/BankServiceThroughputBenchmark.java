@@ -0,0 +1,79 @@
+package org.mongodb.banking.benchmarks;
+
+import org.mongodb.banking.BankService;
+import org.mongodb.banking.repository.InMemoryBankRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of deposits and balance reads from many threads at
+ * once, each using a random account out of many, which shows whether requests
+ * for unrelated accounts wait for one another. It runs with one thread and
+ * then with one per processor, so that the scores can be compared, and with
+ * logging at warn, since the service logs every request at info:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.mongodb.banking.benchmarks.BankServiceThroughputBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BankServiceThroughputBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private BankService service;
+
+    @Setup
+    public void setUp() {
+        service = new BankService(new InMemoryBankRepository());
+        for (int i = 0; i < ACCOUNTS; i++) {
+            service.createBank(name(i), 1_000_000);
+        }
+    }
+
+    @Benchmark
+    public String deposit() {
+        int account = ThreadLocalRandom.current().nextInt(ACCOUNTS);
+        return service.deposit(name(account), 1, "bench-" + sequence.incrementAndGet());
+    }
+
+    @Benchmark
+    public int getBalance() {
+        return service.getBalance(name(ThreadLocalRandom.current().nextInt(ACCOUNTS)));
+    }
+
+    private static String name(int account) {
+        return "Bench" + account;
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[] {1, Runtime.getRuntime().availableProcessors()}) {
+            new Runner(new OptionsBuilder()
+                .include(BankServiceThroughputBenchmark.class.getSimpleName())
+                .threads(threads)
+                .jvmArgsAppend("-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+                .build()).run();
+        }
+    }
+}
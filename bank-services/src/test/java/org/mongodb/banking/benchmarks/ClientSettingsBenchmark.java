@@ -0,0 +1,96 @@
+package org.mongodb.banking.benchmarks;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.mongodb.banking.config.MongodbConfig;
+import org.mongodb.banking.repository.BankRepository;
+import org.mongodb.banking.repository.BankRepositoryImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the throughput of deposits and account reads, from many threads
+ * at once, with clients created using different settings. Each profile is a
+ * set of the options read by MongodbConfig from the environment, so the
+ * best-performing one can be applied by setting those environment variables.
+ * This requires a MongoDB instance running locally.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.mongodb.banking.benchmarks.ClientSettingsBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(64)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientSettingsBenchmark {
+
+    private static final String CONNECTION_STRING = "mongodb://127.0.0.1:27017";
+    private static final String ACCOUNT = "ClientSettingsBenchmark";
+
+    private static final Map<String, Map<String, String>> PROFILES = Map.of(
+        "default", Map.of(),
+        "small-pool", Map.of(MongodbConfig.MAX_POOL_SIZE, "8", MongodbConfig.MAX_CONNECTING, "2"),
+        "large-pool", Map.of(MongodbConfig.MAX_POOL_SIZE, "256", MongodbConfig.MIN_POOL_SIZE, "64", MongodbConfig.MAX_CONNECTING, "8"),
+        "majority", Map.of(MongodbConfig.WRITE_CONCERN, "majority"),
+        "snappy", Map.of(MongodbConfig.COMPRESSORS, "snappy"),
+        "zstd", Map.of(MongodbConfig.COMPRESSORS, "zstd"));
+
+    @Param({"default", "small-pool", "large-pool", "majority", "snappy", "zstd"})
+    public String profile;
+
+    private MongoClient client;
+    private BankRepository repo;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup
+    public void setUp() {
+        client = MongoClients.create(MongodbConfig.buildSettings(CONNECTION_STRING, PROFILES.get(profile)));
+        repo = new BankRepositoryImpl(client, "bankingdemo");
+        repo.createAccount(ACCOUNT, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        repo.deleteAccount(ACCOUNT);
+        client.close();
+    }
+
+    @Benchmark
+    public int deposit() {
+        long n = sequence.incrementAndGet();
+        return repo.applyTransaction("deposit", 1, "D" + n, "benchmark-" + n, ACCOUNT);
+    }
+
+    @Benchmark
+    public Object findAccount() {
+        return repo.findAccountByBankName(ACCOUNT);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(ClientSettingsBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,156 @@
+package org.mongodb.banking.benchmarks;
+
+import org.mongodb.banking.BankController;
+import org.mongodb.banking.BankManager;
+import org.mongodb.banking.config.MongodbConfig;
+import org.mongodb.banking.repository.BankRepository;
+import org.mongodb.banking.repository.BankRepositoryImpl;
+import org.mongodb.banking.repository.InMemoryBankRepository;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the throughput and latency of BankController when handling
+ * requests on platform threads with that when using virtual threads. It
+ * sends deposits to a set of accounts, keeping a fixed number of requests
+ * in flight, against a MongoDB instance running locally, or, if the third
+ * argument is "memory", against accounts held in memory. In that case no
+ * request waits for I/O, so the comparison reflects only the cost of the
+ * threads, not how each kind performs while waiting for MongoDB.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.mongodb.banking.benchmarks.ControllerLoadComparison \
+ *     -Dexec.args="[concurrency] [seconds] [mongodb|memory]"
+ * </pre>
+ *
+ * It requires Java 21 or later, since otherwise both runs would use platform
+ * threads.
+ */
+public class ControllerLoadComparison {
+
+    private static final String CONNECTION_STRING = "mongodb://127.0.0.1:27017";
+    private static final int PORT = 8499;
+    private static final int ACCOUNTS = 16;
+    private static final int WARM_UP_SECONDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        if (Runtime.version().feature() < 21) {
+            System.err.println("Virtual threads require Java 21 or later, but this is Java " + Runtime.version());
+            System.exit(1);
+        }
+
+        boolean inMemory = args.length > 2 && args[2].equals("memory");
+        BankRepository repository = inMemory
+            ? new InMemoryBankRepository()
+            : new BankRepositoryImpl(MongodbConfig.getClient(CONNECTION_STRING), "bankingdemo");
+        for (int i = 0; i < ACCOUNTS; i++) {
+            repository.createAccount(accountName(i), 0);
+        }
+
+        try {
+            Result platform = run(repository, false, concurrency, seconds);
+            Result virtual = run(repository, true, concurrency, seconds);
+
+            System.out.printf("%nconcurrency=%d, duration=%ds, repository=%s, java=%s%n", concurrency, seconds,
+                inMemory ? "memory" : "mongodb", Runtime.version());
+            System.out.printf("%-10s %12s %10s %10s %10s %8s%n", "mode", "requests/s", "p50 ms", "p99 ms", "max ms", "errors");
+            platform.print("platform");
+            virtual.print("virtual");
+        } finally {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                repository.deleteAccount(accountName(i));
+            }
+        }
+    }
+
+    private static Result run(BankRepository repository, boolean useVirtualThreads, int concurrency, int seconds) throws Exception {
+        BankController controller = new BankController(new BankManager(repository), PORT, useVirtualThreads);
+        controller.start();
+        try {
+            HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+            drive(client, concurrency, WARM_UP_SECONDS, useVirtualThreads + "-warmup");
+            return drive(client, concurrency, seconds, String.valueOf(useVirtualThreads));
+        } finally {
+            controller.stop();
+        }
+    }
+
+    private static Result drive(HttpClient client, int concurrency, int seconds, String keyPrefix) throws Exception {
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicInteger sequence = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicLong completed = new AtomicLong();
+        long[] latencies = new long[8 * 1024 * 1024];
+
+        long start = System.nanoTime();
+        long end = start + Duration.ofSeconds(seconds).toNanos();
+        while (System.nanoTime() < end) {
+            inFlight.acquire();
+            int n = sequence.getAndIncrement();
+            String url = String.format("http://localhost:%d/api/deposit?bankName=%s&amount=1&idempotencyKey=%s-%d",
+                PORT, accountName(n % ACCOUNTS), keyPrefix, n);
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url)).build();
+
+            long sent = System.nanoTime();
+            CompletableFuture<HttpResponse<String>> response = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            response.whenComplete((r, e) -> {
+                if (e != null || r.statusCode() != 200) {
+                    errors.incrementAndGet();
+                }
+                long index = completed.getAndIncrement();
+                if (index < latencies.length) {
+                    latencies[(int) index] = System.nanoTime() - sent;
+                }
+                inFlight.release();
+            });
+        }
+        inFlight.acquire(concurrency); // wait for the remaining requests
+        long elapsed = System.nanoTime() - start;
+
+        int count = (int) Math.min(completed.get(), latencies.length);
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return new Result(completed.get() * 1e9 / elapsed, sorted, errors.get());
+    }
+
+    private static String accountName(int i) {
+        return "LoadTest" + i;
+    }
+
+    private static class Result {
+        private final double throughput;
+        private final long[] sortedLatencies;
+        private final int errors;
+
+        Result(double throughput, long[] sortedLatencies, int errors) {
+            this.throughput = throughput;
+            this.sortedLatencies = sortedLatencies;
+            this.errors = errors;
+        }
+
+        void print(String mode) {
+            System.out.printf("%-10s %12.0f %10.2f %10.2f %10.2f %8d%n", mode, throughput,
+                percentile(0.50), percentile(0.99), percentile(1.0), errors);
+        }
+
+        private double percentile(double p) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.min(sortedLatencies.length - 1, Math.ceil(p * sortedLatencies.length) - 1);
+            return sortedLatencies[Math.max(0, index)] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.mongodb.banking.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.mongodb.banking.JsonResponses;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways of writing a deposit or withdrawal response: the original
+ * one, which created an ObjectMapper for every response and serialized a map
+ * to a string; the same with a shared ObjectMapper; and the JsonResponses
+ * streaming writer used now. Each writes the response bytes to a stream that
+ * discards them, so this measures only encoding a response, not the latency
+ * of a request, which includes its MongoDB round trip. Run with the GC
+ * profiler to compare allocation per response:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.mongodb.banking.benchmarks.JsonResponseBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonResponseBenchmark {
+
+    private static final ObjectMapper sharedMapper = new ObjectMapper();
+
+    private final OutputStream out = OutputStream.nullOutputStream();
+    private final String transactionId = "D369935592593944576";
+
+    @Benchmark
+    public void newMapperPerResponse() throws IOException {
+        String result = new ObjectMapper().writeValueAsString(Map.of("status", "SUCCESS", "transactionId", transactionId));
+        out.write(result.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void sharedMapper() throws IOException {
+        String result = sharedMapper.writeValueAsString(Map.of("status", "SUCCESS", "transactionId", transactionId));
+        out.write(result.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void streaming() throws IOException {
+        JsonResponses.writeTransactionId(out, transactionId);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(JsonResponseBenchmark.class.getSimpleName())
+            .addProfiler("gc")
+            .build()).run();
+    }
+}
@@ -0,0 +1,104 @@
+package org.mongodb.banking.benchmarks;
+
+import org.mongodb.banking.config.MongodbConfig;
+import org.mongodb.banking.repository.BankRepository;
+import org.mongodb.banking.repository.BankRepositoryImpl;
+import org.mongodb.banking.repository.InMemoryBankRepository;
+import org.mongodb.banking.repository.MappedBankRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares the cost of applying a deposit, and of reading an account, with
+ * each BankRepository implementation. Each iteration performs a fixed number
+ * of operations, which bounds the size of the ledger file, so the score is
+ * the time taken for 10,000 operations. The MongoDB variant requires a
+ * MongoDB instance running locally, and is reported as an error otherwise.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.mongodb.banking.benchmarks.RepositoryBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 10_000)
+@Measurement(iterations = 5, batchSize = 10_000)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+
+    private static final String CONNECTION_STRING = "mongodb://127.0.0.1:27017";
+    private static final String ACCOUNT = "RepositoryBenchmark";
+
+    @Param({"mapped", "mapped-sync", "memory", "mongodb"})
+    public String repository;
+
+    private BankRepository repo;
+    private Path directory;
+    private long sequence;
+
+    @Setup
+    public void setUp() throws IOException {
+        switch (repository) {
+            case "mapped":
+            case "mapped-sync":
+                directory = Files.createTempDirectory("ledger");
+                repo = new MappedBankRepository(directory, MappedBankRepository.DEFAULT_CAPACITY, "mapped-sync".equals(repository));
+                break;
+            case "memory":
+                repo = new InMemoryBankRepository();
+                break;
+            default:
+                repo = new BankRepositoryImpl(MongodbConfig.getClient(CONNECTION_STRING), "bankingdemo");
+        }
+        repo.createAccount(ACCOUNT, 0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        repo.deleteAccount(ACCOUNT);
+        if (repo instanceof MappedBankRepository) {
+            ((MappedBankRepository) repo).close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public int deposit() {
+        long n = sequence++;
+        return repo.applyTransaction("deposit", 1, "D" + n, "benchmark-" + n, ACCOUNT);
+    }
+
+    @Benchmark
+    public Object findAccount() {
+        return repo.findAccountByBankName(ACCOUNT);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(RepositoryBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,81 @@
+package org.mongodb.banking.benchmarks;
+
+import org.mongodb.banking.TransactionIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares TransactionIdGenerator with the previous approach, which built
+ * each ID from ten digits drawn from a new Random instance, when called from
+ * one thread and from eight. Neither touches MongoDB, so this measures only
+ * the cost of generating an ID, not its effect on the throughput of requests,
+ * each of which also waits for a write. Run with the GC profiler to compare
+ * allocation:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.mongodb.banking.benchmarks.TransactionIdBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransactionIdBenchmark {
+
+    private final TransactionIdGenerator generator = new TransactionIdGenerator(1);
+
+    @Benchmark
+    public String generator() {
+        return generator.next("D");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String generatorContended() {
+        return generator.next("D");
+    }
+
+    @Benchmark
+    public String randomDigits() {
+        return randomDigits("D", 10);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String randomDigitsContended() {
+        return randomDigits("D", 10);
+    }
+
+    // the implementation that TransactionIdGenerator replaced
+    private static String randomDigits(String prefix, int length) {
+        Random random = new Random();
+        StringBuilder builder = new StringBuilder(prefix);
+        for (int i = 0; i < length; i++) {
+            builder.append(random.nextInt(10));
+        }
+        return builder.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(TransactionIdBenchmark.class.getSimpleName())
+            .addProfiler("gc")
+            .build()).run();
+    }
+}
@@ -0,0 +1,67 @@
+package org.mongodb.banking.config;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadConcern;
+import com.mongodb.WriteConcern;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class MongodbConfigTest {
+
+    private static final String CONNECTION_STRING = "mongodb://127.0.0.1:27017/?maxPoolSize=50&compressors=zlib";
+
+    @Test
+    public void connectionStringUsedWithoutOptions() {
+        MongoClientSettings settings = MongodbConfig.buildSettings(CONNECTION_STRING, Map.of());
+
+        assertEquals(50, settings.getConnectionPoolSettings().getMaxSize());
+        assertEquals(1, settings.getCompressorList().size());
+        assertEquals("zlib", settings.getCompressorList().get(0).getName());
+    }
+
+    @Test
+    public void optionsOverrideConnectionString() {
+        MongoClientSettings settings = MongodbConfig.buildSettings(CONNECTION_STRING, Map.of(
+            MongodbConfig.MAX_POOL_SIZE, "200",
+            MongodbConfig.MIN_POOL_SIZE, "10",
+            MongodbConfig.MAX_CONNECTING, "4",
+            MongodbConfig.MAX_WAIT_TIME_MS, "250",
+            MongodbConfig.CONNECT_TIMEOUT_MS, "1000",
+            MongodbConfig.READ_TIMEOUT_MS, "5000",
+            MongodbConfig.SERVER_SELECTION_TIMEOUT_MS, "2000",
+            MongodbConfig.WRITE_CONCERN, "majority",
+            MongodbConfig.READ_CONCERN, "local",
+            MongodbConfig.COMPRESSORS, "zstd, snappy"));
+
+        assertEquals(200, settings.getConnectionPoolSettings().getMaxSize());
+        assertEquals(10, settings.getConnectionPoolSettings().getMinSize());
+        assertEquals(4, settings.getConnectionPoolSettings().getMaxConnecting());
+        assertEquals(250, settings.getConnectionPoolSettings().getMaxWaitTime(TimeUnit.MILLISECONDS));
+        assertEquals(1000, settings.getSocketSettings().getConnectTimeout(TimeUnit.MILLISECONDS));
+        assertEquals(5000, settings.getSocketSettings().getReadTimeout(TimeUnit.MILLISECONDS));
+        assertEquals(2000, settings.getClusterSettings().getServerSelectionTimeout(TimeUnit.MILLISECONDS));
+        assertEquals(WriteConcern.MAJORITY, settings.getWriteConcern());
+        assertEquals(ReadConcern.LOCAL, settings.getReadConcern());
+        assertEquals("zstd", settings.getCompressorList().get(0).getName());
+        assertEquals("snappy", settings.getCompressorList().get(1).getName());
+    }
+
+    @Test
+    public void numericWriteConcern() {
+        MongoClientSettings settings = MongodbConfig.buildSettings(CONNECTION_STRING, Map.of(MongodbConfig.WRITE_CONCERN, "2"));
+        assertEquals(new WriteConcern(2), settings.getWriteConcern());
+    }
+
+    @Test
+    public void invalidOptionsRejected() {
+        assertThrows(IllegalArgumentException.class,
+            () -> MongodbConfig.buildSettings(CONNECTION_STRING, Map.of(MongodbConfig.MAX_POOL_SIZE, "lots")));
+        assertThrows(IllegalArgumentException.class,
+            () -> MongodbConfig.buildSettings(CONNECTION_STRING, Map.of(MongodbConfig.COMPRESSORS, "lz4")));
+    }
+}
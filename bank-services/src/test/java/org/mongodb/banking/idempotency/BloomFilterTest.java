@@ -0,0 +1,39 @@
+package org.mongodb.banking.idempotency;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+    @Test
+    public void addedValuesAreAlwaysFound() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("withdrawal-for-" + i);
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("withdrawal-for-" + i));
+        }
+    }
+
+    @Test
+    public void falsePositiveRateIsNearTarget() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("deposit-for-" + i);
+        }
+
+        int falsePositives = 0;
+        int trials = 100_000;
+        for (int i = 0; i < trials; i++) {
+            if (filter.mightContain("never-added-" + i)) {
+                falsePositives++;
+            }
+        }
+
+        double rate = (double) falsePositives / trials;
+        assertTrue("False positive rate was " + rate, rate < 0.02);
+    }
+}
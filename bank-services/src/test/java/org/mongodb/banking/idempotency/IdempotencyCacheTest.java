@@ -0,0 +1,62 @@
+package org.mongodb.banking.idempotency;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mongodb.banking.repository.InMemoryBankRepository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class IdempotencyCacheTest {
+
+    private InMemoryBankRepository repo;
+
+    @Before
+    public void setUp() {
+        repo = new InMemoryBankRepository();
+        repo.createAccount("Alice", 1000);
+    }
+
+    @Test
+    public void unusedKeyNotFound() {
+        IdempotencyCache cache = new IdempotencyCache(repo);
+        assertNull(cache.lookup("Alice", "key-1"));
+    }
+
+    @Test
+    public void evictedKeyFoundInRepository() {
+        // one entry per shard, so most of the keys recorded below are evicted
+        IdempotencyCache cache = new IdempotencyCache(repo, 64, IdempotencyCache.DEFAULT_TTL_MILLIS, 10_000);
+        for (int i = 0; i < 1000; i++) {
+            repo.applyTransaction("deposit", 1, "D" + i, "key-" + i, "Alice");
+            cache.record("Alice", "key-" + i, "D" + i);
+        }
+
+        assertNull(cache.get("Alice", "key-0"));
+        assertEquals("D0", cache.lookup("Alice", "key-0"));
+        assertEquals("D0", cache.get("Alice", "key-0"));
+    }
+
+    @Test
+    public void expiredKeyFoundInRepository() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(repo, 1000, 1, 10_000);
+        repo.applyTransaction("deposit", 1, "D1", "key-1", "Alice");
+        cache.record("Alice", "key-1", "D1");
+        Thread.sleep(10);
+
+        assertNull(cache.get("Alice", "key-1"));
+        assertEquals("D1", cache.lookup("Alice", "key-1"));
+    }
+
+    @Test
+    public void warmUpLoadsRecentTransactions() {
+        repo.applyTransaction("deposit", 1, "D1", "key-1", "Alice");
+        repo.applyTransaction("withdraw", 1, "W1", "key-2", "Alice");
+
+        IdempotencyCache cache = new IdempotencyCache(repo);
+        cache.warmUp(10);
+
+        assertEquals("D1", cache.get("Alice", "key-1"));
+        assertEquals("W1", cache.get("Alice", "key-2"));
+    }
+}
@@ -0,0 +1,98 @@
+package org.mongodb.banking.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HttpMetricsTest {
+
+    @Test
+    public void requestsRecordedByRoute() {
+        HttpMetrics metrics = new HttpMetrics();
+        metrics.addRoute("/api/deposit");
+
+        metrics.requestStarted("/api/deposit");
+        metrics.requestStarted("/api/deposit");
+        assertEquals(2, metrics.getInFlight("/api/deposit"));
+
+        metrics.requestFinished("/api/deposit", "Maria", 200, 1_500);
+        metrics.requestFinished("/api/deposit", "Maria", 500, 3_000);
+        assertEquals(0, metrics.getInFlight("/api/deposit"));
+
+        LatencyStats deposits = metrics.getLatencies().get("/api/deposit");
+        assertEquals(2, deposits.getCount());
+        assertEquals(1, deposits.getFailures());
+        assertEquals(4_500, deposits.getTotalMicros());
+    }
+
+    @Test
+    public void unknownPathsCountedTogether() {
+        HttpMetrics metrics = new HttpMetrics();
+        metrics.addRoute("/api/deposit");
+
+        for (int i = 0; i < 10; i++) {
+            String path = "/no-such-path-" + i;
+            metrics.requestStarted(path);
+            metrics.requestFinished(path, null, 404, 100);
+        }
+
+        Map<String, LatencyStats> latencies = metrics.getLatencies();
+        assertEquals(2, latencies.size());
+        assertEquals(10, latencies.get(HttpMetrics.OTHER).getFailures());
+    }
+
+    @Test
+    public void bankLabelsBounded() {
+        HttpMetrics metrics = new HttpMetrics(5, bankName -> true);
+        metrics.addRoute("/api/balance");
+
+        for (int i = 0; i < 1000; i++) {
+            metrics.requestStarted("/api/balance");
+            metrics.requestFinished("/api/balance", "Bank" + i, 200, 100);
+        }
+
+        Map<String, Long> requests = metrics.getBankRequests();
+        assertTrue(requests.size() <= 7);
+        assertEquals(1000, requests.values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    public void unknownBanksCountedTogether() {
+        HttpMetrics metrics = new HttpMetrics(5, bankName -> bankName.startsWith("Bank"));
+        metrics.addRoute("/api/balance");
+
+        for (int i = 0; i < 100; i++) {
+            metrics.requestStarted("/api/balance");
+            metrics.requestFinished("/api/balance", "NoSuchBank" + i, 404, 100);
+        }
+        metrics.requestStarted("/api/balance");
+        metrics.requestFinished("/api/balance", "Bank1", 200, 100);
+
+        Map<String, Long> requests = metrics.getBankRequests();
+        assertEquals(2, requests.size());
+        assertEquals(100, (long) requests.get(HttpMetrics.OTHER));
+        assertEquals(1, (long) requests.get("Bank1"));
+    }
+
+    @Test
+    public void prometheusFormat() {
+        HttpMetrics metrics = new HttpMetrics();
+        metrics.addRoute("/api/withdraw");
+        metrics.requestStarted("/api/withdraw");
+        metrics.requestFinished("/api/withdraw", "Say \"hi\"", 200, 2_000);
+
+        PrometheusWriter writer = new PrometheusWriter();
+        metrics.writeTo(writer);
+        String text = writer.toString();
+
+        assertTrue(text.contains("# TYPE bank_http_requests_total counter\n"));
+        assertTrue(text.contains("bank_http_requests_total{route=\"/api/withdraw\"} 1\n"));
+        assertTrue(text.contains("bank_http_requests_in_flight{route=\"/api/withdraw\"} 0\n"));
+        assertTrue(text.contains("bank_http_request_duration_seconds{route=\"/api/withdraw\",quantile=\"0.99\"} 0.002"));
+        assertTrue(text.contains("bank_http_request_duration_seconds_sum{route=\"/api/withdraw\"} 0.002\n"));
+        assertTrue(text.contains("bank_http_bank_requests_total{bank=\"Say \\\"hi\\\"\"} 1\n"));
+    }
+}
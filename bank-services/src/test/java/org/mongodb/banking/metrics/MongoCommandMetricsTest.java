@@ -0,0 +1,78 @@
+package org.mongodb.banking.metrics;
+
+import com.mongodb.MongoException;
+import com.mongodb.RequestContext;
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ConnectionId;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MongoCommandMetricsTest {
+
+    private static final ServerId SERVER = new ServerId(new ClusterId(), new ServerAddress());
+    private static final ConnectionDescription CONNECTION = new ConnectionDescription(SERVER);
+    private static final RequestContext CONTEXT = null; // not used by the listener
+
+    private final MongoCommandMetrics metrics = new MongoCommandMetrics();
+
+    @Test
+    public void commandsRecordedByCollection() {
+        succeed(1, "findAndModify", new BsonDocument("findAndModify", new BsonString("accounts")), 2_000);
+        succeed(2, "findAndModify", new BsonDocument("findAndModify", new BsonString("accounts")), 4_000);
+        succeed(3, "insert", new BsonDocument("insert", new BsonString("transactions")), 1_000);
+        succeed(4, "aggregate", new BsonDocument("aggregate", new BsonInt32(1)), 1_000);
+
+        Map<String, LatencyStats> stats = metrics.getCommandStats();
+        assertEquals(2, stats.get("accounts.findAndModify").getCount());
+        assertEquals(4_000, stats.get("accounts.findAndModify").getPercentile(100), 4);
+        assertEquals(1, stats.get("transactions.insert").getCount());
+        assertEquals(1, stats.get("aggregate").getCount());
+    }
+
+    @Test
+    public void failuresCounted() {
+        metrics.commandStarted(new CommandStartedEvent(CONTEXT, 1, 7, CONNECTION, "bankingdemo", "find",
+            new BsonDocument("find", new BsonString("accounts"))));
+        metrics.commandFailed(new CommandFailedEvent(CONTEXT, 1, 7, CONNECTION, "bankingdemo", "find",
+            TimeUnit.MICROSECONDS.toNanos(500), new MongoException("failed")));
+
+        LatencyStats find = metrics.getCommandStats().get("accounts.find");
+        assertEquals(1, find.getCount());
+        assertEquals(1, find.getFailures());
+    }
+
+    @Test
+    public void connectionCheckOutRecorded() {
+        ConnectionId connectionId = new ConnectionId(SERVER);
+        metrics.connectionCheckedOut(new ConnectionCheckedOutEvent(connectionId, 1, TimeUnit.MICROSECONDS.toNanos(300)));
+        metrics.connectionCheckOutFailed(new ConnectionCheckOutFailedEvent(SERVER, 2,
+            ConnectionCheckOutFailedEvent.Reason.TIMEOUT, TimeUnit.MILLISECONDS.toNanos(50)));
+
+        assertEquals(2, metrics.getCheckOutStats().getCount());
+        assertEquals(1, metrics.getCheckOutStats().getFailures());
+        assertTrue(metrics.summarize().containsKey("connectionCheckOut"));
+    }
+
+    private void succeed(int requestId, String commandName, BsonDocument command, long micros) {
+        metrics.commandStarted(new CommandStartedEvent(CONTEXT, requestId, requestId, CONNECTION, "bankingdemo",
+            commandName, command));
+        metrics.commandSucceeded(new CommandSucceededEvent(CONTEXT, requestId, requestId, CONNECTION, "bankingdemo",
+            commandName, new BsonDocument("ok", new BsonInt32(1)), TimeUnit.MICROSECONDS.toNanos(micros)));
+    }
+}
@@ -0,0 +1,142 @@
+package org.mongodb.banking.repository;
+
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mongodb.banking.config.MongodbConfig;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that changes made through the repository are reported. Change
+ * streams require a replica set, so this must run against one, such as a
+ * local mongod started with {@code --replSet rs0} and initiated.
+ */
+public class AccountChangeWatcherTest {
+
+    private static final String CONNECTION_STRING = "mongodb://127.0.0.1:27017";
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private MongoDatabase database;
+    private BankRepository repo;
+    private RecordingListener listener;
+    private AccountChangeWatcher watcher;
+    private final String name = "Watched";
+
+    @Before
+    public void setUp() throws Exception {
+        database = MongodbConfig.getDatabase("bankingdemo", CONNECTION_STRING);
+        repo = new BankRepositoryImpl(MongodbConfig.getClient(CONNECTION_STRING), "bankingdemo");
+        listener = new RecordingListener();
+        watcher = new AccountChangeWatcher(database, listener);
+        watcher.start();
+
+        // each stream resets the listener once it is open
+        await(() -> listener.resets.get() == 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        watcher.close();
+        repo.deleteAccount(name);
+        repo.setAvailability(name, true);
+    }
+
+    @Test
+    public void balanceChangesReported() {
+        repo.createAccount(name, 100);
+        await(() -> listener.balances.containsKey(name));
+        assertEquals(Integer.valueOf(100), listener.balances.get(name));
+
+        repo.applyTransaction("deposit", 50, "D0000000001", "watch-key", name);
+        await(() -> listener.versions.getOrDefault(name, 0L) == 1L);
+        assertEquals(Integer.valueOf(150), listener.balances.get(name));
+    }
+
+    @Test
+    public void accountWithoutVersionReported() {
+        // as created by earlier versions of the service
+        database.getCollection("accounts").insertOne(new Document("bankName", name).append("balance", 100));
+        await(() -> listener.balances.containsKey(name));
+        assertEquals(Long.valueOf(0), listener.versions.get(name));
+    }
+
+    @Test
+    public void deletionReported() {
+        repo.createAccount(name, 100);
+        await(() -> listener.balances.containsKey(name));
+
+        repo.deleteAccount(name);
+        await(() -> listener.deleted.contains(name));
+    }
+
+    @Test
+    public void availabilityReported() {
+        repo.setAvailability(name, false);
+        await(() -> Boolean.FALSE.equals(listener.availability.get(name)));
+
+        repo.setAvailability(name, true);
+        await(() -> Boolean.TRUE.equals(listener.availability.get(name)));
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        assertTrue("Change was not reported in time", condition.getAsBoolean());
+    }
+
+    private static class RecordingListener implements AccountChangeListener {
+        private final Map<String, Integer> balances = new ConcurrentHashMap<>();
+        private final Map<String, Long> versions = new ConcurrentHashMap<>();
+        private final Set<String> deleted = ConcurrentHashMap.newKeySet();
+        private final Map<String, Boolean> availability = new ConcurrentHashMap<>();
+        private final AtomicInteger resets = new AtomicInteger();
+
+        @Override
+        public void accountCreated(String bankName, int balance, long version) {
+            accountChanged(bankName, balance, version);
+        }
+
+        @Override
+        public void accountChanged(String bankName, int balance, long version) {
+            balances.put(bankName, balance);
+            versions.put(bankName, version);
+        }
+
+        @Override
+        public void accountDeleted(String bankName) {
+            deleted.add(bankName);
+        }
+
+        @Override
+        public void availabilityChanged(String bankName, boolean available) {
+            availability.put(bankName, available);
+        }
+
+        @Override
+        public void accountsReset() {
+            resets.incrementAndGet();
+        }
+
+        @Override
+        public void availabilityReset() {
+            resets.incrementAndGet();
+        }
+    }
+}
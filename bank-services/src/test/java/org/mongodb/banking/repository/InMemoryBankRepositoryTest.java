@@ -0,0 +1,192 @@
+package org.mongodb.banking.repository;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.mongodb.banking.exceptions.DuplicateTransactionException;
+import org.mongodb.banking.exceptions.InsufficientFundsException;
+import org.mongodb.banking.exceptions.VersionConflictException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryBankRepositoryTest {
+
+    private BankRepository repo;
+
+    @Before
+    public void setUp() {
+        repo = new InMemoryBankRepository();
+        repo.createAccount("Alice", 1000);
+        repo.createAccount("Bob", 0);
+    }
+
+    @Test
+    public void applyTransaction() {
+        assertEquals(1500, repo.applyTransaction("deposit", 500, "D1", "key-1", "Alice"));
+        assertEquals(1300, repo.applyTransaction("withdraw", 200, "W1", "key-2", "Alice"));
+
+        Document account = repo.findAccountByBankName("Alice");
+        assertEquals(1300, (int) account.getInteger("balance"));
+        assertEquals(2L, (long) account.getLong("version"));
+        assertEquals("W1", repo.findTransactionId("Alice", "key-2"));
+    }
+
+    @Test
+    public void duplicateRejected() {
+        repo.applyTransaction("deposit", 500, "D1", "key-1", "Alice");
+
+        DuplicateTransactionException e = assertThrows(DuplicateTransactionException.class,
+            () -> repo.applyTransaction("deposit", 500, "D2", "key-1", "Alice"));
+        assertEquals("D1", e.getTransactionId());
+        assertEquals(1500, (int) repo.findAccountByBankName("Alice").getInteger("balance"));
+    }
+
+    @Test
+    public void withdrawalExceedingBalanceRejected() {
+        assertThrows(InsufficientFundsException.class,
+            () -> repo.applyTransaction("withdraw", 1001, "W1", "key-1", "Alice"));
+        assertNull(repo.findTransactionId("Alice", "key-1"));
+    }
+
+    @Test
+    public void unknownAccountRejected() {
+        assertThrows(IllegalArgumentException.class,
+            () -> repo.applyTransaction("deposit", 1, "D1", "key-1", "Nobody"));
+    }
+
+    @Test
+    public void duplicateRejectedAfterManyTransactions() {
+        repo.applyTransaction("deposit", 100, "D1", "key-1", "Alice");
+        for (int i = 2; i <= 1000; i++) {
+            repo.applyTransaction("deposit", 1, "D" + i, "key-" + i, "Alice");
+        }
+
+        DuplicateTransactionException e = assertThrows(DuplicateTransactionException.class,
+            () -> repo.applyTransaction("deposit", 100, "D1001", "key-1", "Alice"));
+        assertEquals("D1", e.getTransactionId());
+        assertEquals(2099, (int) repo.findAccountByBankName("Alice").getInteger("balance"));
+    }
+
+    @Test
+    public void deletingAccountDeletesItsTransactions() {
+        repo.applyTransaction("deposit", 100, "D1", "key-1", "Alice");
+        repo.deleteAccount("Alice");
+        assertTrue(repo.findRecentTransactions(10).isEmpty());
+
+        repo.createAccount("Alice", 0);
+        assertNull(repo.findTransactionId("Alice", "key-1"));
+        assertEquals(100, repo.applyTransaction("deposit", 100, "D2", "key-1", "Alice"));
+    }
+
+    @Test
+    public void batchWithDuplicateAppliesNothing() {
+        repo.applyTransaction("deposit", 100, "D1", "key-1", "Alice");
+
+        List<Document> batch = List.of(
+            new Document("type", "deposit").append("amount", 10).append("transactionId", "D2").append("idempotencyKey", "key-2"),
+            new Document("type", "deposit").append("amount", 10).append("transactionId", "D3").append("idempotencyKey", "key-1"));
+        assertThrows(DuplicateTransactionException.class, () -> repo.applyTransactions("Alice", batch, 1));
+
+        assertEquals(1100, (int) repo.findAccountByBankName("Alice").getInteger("balance"));
+        assertNull(repo.findTransactionId("Alice", "key-2"));
+    }
+
+    @Test
+    public void batchForOtherVersionAppliesNothing() {
+        repo.applyTransaction("deposit", 100, "D1", "key-1", "Alice");
+
+        List<Document> batch = List.of(
+            new Document("type", "withdraw").append("amount", 1100).append("transactionId", "W1").append("idempotencyKey", "key-2"));
+        assertThrows(VersionConflictException.class, () -> repo.applyTransactions("Alice", batch, 0));
+        assertEquals(1100, (int) repo.findAccountByBankName("Alice").getInteger("balance"));
+
+        assertEquals(0, repo.applyTransactions("Alice", batch, 1));
+        assertEquals(2L, (long) repo.findAccountByBankName("Alice").getLong("version"));
+    }
+
+    @Test
+    public void batchExceedingBalanceAppliesNothing() {
+        List<Document> batch = List.of(
+            new Document("type", "deposit").append("amount", 100).append("transactionId", "D1").append("idempotencyKey", "key-1"),
+            new Document("type", "withdraw").append("amount", 1200).append("transactionId", "W1").append("idempotencyKey", "key-2"));
+        assertThrows(InsufficientFundsException.class,
+            () -> repo.applyTransactions("Alice", batch, BankRepository.ANY_VERSION));
+        assertEquals(1000, (int) repo.findAccountByBankName("Alice").getInteger("balance"));
+        assertNull(repo.findTransactionId("Alice", "key-1"));
+
+        repo.applyTransaction("deposit", 100, "D2", "key-3", "Alice");
+        assertEquals(0, repo.applyTransactions("Alice", batch, BankRepository.ANY_VERSION));
+        assertEquals(3L, (long) repo.findAccountByBankName("Alice").getLong("version"));
+    }
+
+    @Test
+    public void transferMovesMoney() {
+        repo.transfer("Alice", "Bob", 300, "T1", "key-1");
+
+        assertEquals(700, (int) repo.findAccountByBankName("Alice").getInteger("balance"));
+        assertEquals(300, (int) repo.findAccountByBankName("Bob").getInteger("balance"));
+        assertEquals("T1", repo.findTransactionId("Bob", "key-1"));
+
+        assertThrows(DuplicateTransactionException.class, () -> repo.transfer("Alice", "Bob", 300, "T2", "key-1"));
+        assertThrows(InsufficientFundsException.class, () -> repo.transfer("Bob", "Alice", 301, "T3", "key-2"));
+        assertEquals(300, (int) repo.findAccountByBankName("Bob").getInteger("balance"));
+    }
+
+    @Test
+    public void recentTransactionsNewestFirst() {
+        repo.applyTransaction("deposit", 1, "D1", "key-1", "Alice");
+        repo.applyTransaction("deposit", 1, "D2", "key-2", "Bob");
+        repo.applyTransaction("deposit", 1, "D3", "key-3", "Alice");
+
+        List<Document> recent = repo.findRecentTransactions(2);
+        assertEquals(2, recent.size());
+        assertEquals("D3", recent.get(0).getString("transactionId"));
+        assertEquals("D2", recent.get(1).getString("transactionId"));
+
+        repo.deleteAccount("Alice");
+        assertEquals(1, repo.findRecentTransactions(10).size());
+    }
+
+    @Test
+    public void concurrentWithdrawalsNeverOverdraw() throws Exception {
+        int amount = 10;
+        int attempts = 1000; // ten times as many as the balance can cover
+
+        AtomicInteger succeeded = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < attempts; i++) {
+            String key = "withdraw-" + i;
+            tasks.add(() -> {
+                try {
+                    repo.applyTransaction("withdraw", amount, "W" + key, key, "Alice");
+                    succeeded.incrementAndGet();
+                } catch (InsufficientFundsException expected) {
+                }
+                return null;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(100, succeeded.get());
+        assertEquals(0, (int) repo.findAccountByBankName("Alice").getInteger("balance"));
+    }
+}
@@ -0,0 +1,145 @@
+package org.mongodb.banking.repository;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mongodb.banking.config.MongodbConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies, using the query planner, that each kind of query issued by the
+ * repository is answered using an index instead of a collection scan. The
+ * filters are built the same way the repository builds them.
+ */
+public class IndexManagerTest {
+
+    private static final String CONNECTION_STRING = "mongodb://127.0.0.1:27017";
+
+    private MongoDatabase database;
+    private BankRepository repo;
+    private MongoCollection<Document> accounts;
+    private MongoCollection<Document> transactions;
+    private final String name = "Indexed";
+
+    @Before
+    public void setUp() throws Exception {
+        database = MongodbConfig.getDatabase("bankingdemo", CONNECTION_STRING);
+        repo = new BankRepositoryImpl(MongodbConfig.getClient(CONNECTION_STRING), "bankingdemo");
+        repo.createAccount(name, 1000);
+        repo.applyTransaction("deposit", 100, "D0000000001", "index-key", name);
+
+        accounts = database.getCollection("accounts");
+        transactions = database.getCollection(AccountUpdates.TRANSACTIONS_COLLECTION);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        repo.deleteAccount(name);
+    }
+
+    @Test
+    public void findAccountUsesIndex() {
+        Document plan = accounts.find(eq("bankName", name)).explain();
+        assertUsesIndex(plan, IndexManager.ACCOUNT_NAME_INDEX);
+    }
+
+    @Test
+    public void conditionalWithdrawalUsesIndex() {
+        Document plan = explainFindAndModify(AccountUpdates.transactionFilter("withdraw", 10, name),
+            AccountUpdates.transactionUpdate("withdraw", 10));
+        assertUsesIndex(plan, IndexManager.ACCOUNT_NAME_INDEX);
+    }
+
+    @Test
+    public void versionedBatchUsesIndex() {
+        Document plan = explainFindAndModify(AccountUpdates.batchFilter(name, -100, 1),
+            AccountUpdates.transactionUpdate("deposit", 10));
+        assertUsesIndex(plan, IndexManager.ACCOUNT_NAME_INDEX);
+    }
+
+    @Test
+    public void findTransactionIdUsesIndex() {
+        Document plan = transactions.find(and(eq("bankName", name), eq("idempotencyKey", "index-key"))).explain();
+        assertUsesIndex(plan, IndexManager.TRANSACTION_KEY_INDEX);
+    }
+
+    @Test
+    public void recentTransactionsUseIndex() {
+        Document plan = transactions.find().sort(Sorts.descending("timestamp")).limit(10).explain();
+        assertUsesIndex(plan, IndexManager.TRANSACTION_TIME_INDEX);
+    }
+
+    @Test
+    public void deleteTransactionsUsesIndex() {
+        Document command = new Document("delete", AccountUpdates.TRANSACTIONS_COLLECTION)
+            .append("deletes", List.of(new Document("q", eq("bankName", name).toBsonDocument()).append("limit", 0)));
+        Document plan = database.runCommand(new Document("explain", command));
+        assertUsesIndex(plan, IndexManager.TRANSACTION_KEY_INDEX);
+    }
+
+    @Test
+    public void transactionKeyIndexIsUnique() {
+        Document index = findIndex(transactions, IndexManager.TRANSACTION_KEY_INDEX);
+        assertEquals(new Document("bankName", 1).append("idempotencyKey", 1), index.get("key", Document.class));
+        assertEquals(Boolean.TRUE, index.getBoolean("unique"));
+    }
+
+    @Test
+    public void indexesAreDefinedAsDocumented() {
+        Document accountName = findIndex(accounts, IndexManager.ACCOUNT_NAME_INDEX);
+        assertEquals(new Document("bankName", 1), accountName.get("key", Document.class));
+        assertEquals(Boolean.TRUE, accountName.getBoolean("unique"));
+
+        Document transactionTime = findIndex(transactions, IndexManager.TRANSACTION_TIME_INDEX);
+        assertEquals(new Document("timestamp", -1), transactionTime.get("key", Document.class));
+    }
+
+    @Test
+    public void ensureIndexesCanRunAgain() {
+        new IndexManager(database).ensureIndexes();
+        assertEquals(3, transactions.listIndexes().into(new ArrayList<>()).size());
+    }
+
+    @Test
+    public void keyReusedByAnotherAccountIsAccepted() {
+        Document other = new Document("bankName", name + "-other").append("idempotencyKey", "index-key");
+        transactions.insertOne(other);
+        transactions.deleteOne(eq("_id", other.get("_id")));
+    }
+
+    private static Document findIndex(MongoCollection<Document> collection, String indexName) {
+        return collection.listIndexes()
+            .into(new ArrayList<>())
+            .stream()
+            .filter(i -> indexName.equals(i.getString("name")))
+            .findFirst()
+            .orElseThrow();
+    }
+
+    private Document explainFindAndModify(Bson filter, Bson update) {
+        Document command = new Document("findAndModify", "accounts")
+            .append("query", filter.toBsonDocument())
+            .append("update", update.toBsonDocument());
+        return database.runCommand(new Document("explain", command));
+    }
+
+    private void assertUsesIndex(Document plan, String indexName) {
+        String json = plan.toJson();
+        assertTrue("Expected an index scan: " + json, json.contains("\"IXSCAN\""));
+        assertTrue("Expected index '" + indexName + "': " + json, json.contains("\"" + indexName + "\""));
+        assertFalse("Unexpected collection scan: " + json, json.contains("\"COLLSCAN\""));
+    }
+}
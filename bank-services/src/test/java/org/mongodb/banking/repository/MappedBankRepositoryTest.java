@@ -0,0 +1,161 @@
+package org.mongodb.banking.repository;
+
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mongodb.banking.exceptions.DuplicateTransactionException;
+import org.mongodb.banking.exceptions.InsufficientFundsException;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+public class MappedBankRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private MappedBankRepository repo;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.getRoot().toPath();
+        repo = open();
+        repo.createAccount("Alice", 1000);
+        repo.createAccount("Bob", 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        repo.close();
+    }
+
+    @Test
+    public void applyTransaction() {
+        assertEquals(1500, repo.applyTransaction("deposit", 500, "D1", "key-1", "Alice"));
+        assertEquals(1300, repo.applyTransaction("withdraw", 200, "W1", "key-2", "Alice"));
+
+        Document account = repo.findAccountByBankName("Alice");
+        assertEquals(1300, (int) account.getInteger("balance"));
+        assertEquals(2L, (long) account.getLong("version"));
+        assertEquals("W1", repo.findTransactionId("Alice", "key-2"));
+    }
+
+    @Test
+    public void duplicateAndInsufficientFundsRejected() {
+        repo.applyTransaction("deposit", 500, "D1", "key-1", "Alice");
+
+        DuplicateTransactionException e = assertThrows(DuplicateTransactionException.class,
+            () -> repo.applyTransaction("deposit", 500, "D2", "key-1", "Alice"));
+        assertEquals("D1", e.getTransactionId());
+        assertThrows(InsufficientFundsException.class,
+            () -> repo.applyTransaction("withdraw", 1501, "W1", "key-2", "Alice"));
+        assertEquals(1500, (int) repo.findAccountByBankName("Alice").getInteger("balance"));
+    }
+
+    @Test
+    public void stateSurvivesReopening() throws Exception {
+        repo.applyTransaction("deposit", 500, "D1", "key-1", "Alice");
+        repo.transfer("Alice", "Bob", 300, "T1", "key-2");
+        repo.applyTransactions("Bob", List.of(
+            new Document("type", "withdraw").append("amount", 100).append("transactionId", "W1").append("idempotencyKey", "key-3"),
+            new Document("type", "deposit").append("amount", 50).append("transactionId", "D2").append("idempotencyKey", "key-4")),
+            repo.findAccountByBankName("Bob").getLong("version"));
+
+        repo.close();
+        repo = open();
+
+        assertEquals(1200, (int) repo.findAccountByBankName("Alice").getInteger("balance"));
+        assertEquals(250, (int) repo.findAccountByBankName("Bob").getInteger("balance"));
+        assertEquals("T1", repo.findTransactionId("Bob", "key-2"));
+        assertThrows(DuplicateTransactionException.class,
+            () -> repo.applyTransaction("deposit", 500, "D3", "key-1", "Alice"));
+
+        List<Document> recent = repo.findRecentTransactions(2);
+        assertEquals("D2", recent.get(0).getString("transactionId"));
+        assertEquals("W1", recent.get(1).getString("transactionId"));
+    }
+
+    @Test
+    public void recoveryAppliesRecordsMissingFromTable() throws Exception {
+        // keep a copy of the table from before the transactions, then put it
+        // back, as if the process had stopped before updating the table
+        repo.close();
+        Path table = directory.resolve(MappedBankRepository.ACCOUNTS_FILE);
+        Path saved = folder.newFile("saved.dat").toPath();
+        Files.copy(table, saved, StandardCopyOption.REPLACE_EXISTING);
+
+        repo = open();
+        repo.applyTransaction("deposit", 500, "D1", "key-1", "Alice");
+        repo.applyTransaction("withdraw", 200, "W1", "key-2", "Alice");
+        repo.transfer("Alice", "Bob", 300, "T1", "key-3");
+        repo.close();
+        Files.copy(saved, table, StandardCopyOption.REPLACE_EXISTING);
+
+        repo = open();
+        assertEquals(1000, (int) repo.findAccountByBankName("Alice").getInteger("balance"));
+        assertEquals(300, (int) repo.findAccountByBankName("Bob").getInteger("balance"));
+        assertEquals(3L, (long) repo.findAccountByBankName("Alice").getLong("version"));
+    }
+
+    @Test
+    public void incompleteGroupIsDiscarded() throws Exception {
+        repo.applyTransaction("deposit", 500, "D1", "key-1", "Alice");
+        repo.close();
+        Path table = directory.resolve(MappedBankRepository.ACCOUNTS_FILE);
+        Path saved = folder.newFile("saved.dat").toPath();
+        Files.copy(table, saved, StandardCopyOption.REPLACE_EXISTING);
+
+        repo = open();
+        repo.transfer("Alice", "Bob", 300, "T1", "key-2");
+        repo.close();
+
+        // as if the process had stopped after writing the second record's type,
+        // but before the first one's, and so before updating the table
+        Files.copy(saved, table, StandardCopyOption.REPLACE_EXISTING);
+        try (RandomAccessFile ledger = new RandomAccessFile(directory.resolve(MappedBankRepository.LEDGER_FILE).toFile(), "rw")) {
+            ledger.seek(MappedBankRepository.RECORD_SIZE);
+            ledger.write(0);
+        }
+
+        repo = open();
+        assertEquals(1500, (int) repo.findAccountByBankName("Alice").getInteger("balance"));
+        assertEquals(0, (int) repo.findAccountByBankName("Bob").getInteger("balance"));
+        assertNull(repo.findTransactionId("Bob", "key-2"));
+    }
+
+    @Test
+    public void deletedSlotIsReused() throws Exception {
+        // fill every other slot, so that the new account must reuse Bob's
+        for (int i = 2; i < 16; i++) {
+            repo.createAccount("Filler-" + i, 0);
+        }
+        assertThrows(IllegalStateException.class, () -> repo.createAccount("Overflow", 0));
+
+        repo.applyTransaction("deposit", 500, "D1", "key-1", "Bob");
+        repo.deleteAccount("Bob");
+        repo.createAccount("Carol", 10);
+
+        repo.close();
+        repo = open();
+
+        assertNull(repo.findAccountByBankName("Bob"));
+        assertEquals(10, (int) repo.findAccountByBankName("Carol").getInteger("balance"));
+        assertNull(repo.findTransactionId("Carol", "key-1"));
+        assertEquals(0, repo.findRecentTransactions(10).size());
+    }
+
+    private MappedBankRepository open() {
+        return new MappedBankRepository(directory, 16, false);
+    }
+}
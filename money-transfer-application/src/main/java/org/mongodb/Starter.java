@@ -36,9 +36,9 @@ public class Starter {
     private static final Logger logger = LoggerFactory.getLogger(Starter.class);
 
     public static void main(String[] args) {
-        if (args.length != 3) {
+        if (args.length != 3 && !(args.length == 4 && "--same-service".equals(args[3]))) {
             System.out.println("Incorrect number of arguments specified.");
-            System.out.println("Format: SENDER RECIPIENT AMOUNT");
+            System.out.println("Format: SENDER RECIPIENT AMOUNT [--same-service]");
             System.exit(1);
         }
 
@@ -62,9 +62,12 @@ public class Starter {
             System.exit(1);
         }
 
+        // both accounts are held by the same banking service, so it can do the transfer itself
+        boolean sameService = args.length == 4;
+
         String referenceId = UUID.randomUUID().toString();
 
-        TransferDetails details = new TransferDetails(sender, recipient, transferAmount, referenceId);
+        TransferDetails details = new TransferDetails(sender, recipient, transferAmount, referenceId, sameService);
         logger.info("Will transfer {} from {} to {}", transferAmount, sender, recipient);
 
         String workflowId = String.format("transfer-%d-%s-to-%s", transferAmount, sender, recipient).toLowerCase();
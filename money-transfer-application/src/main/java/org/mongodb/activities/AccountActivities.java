@@ -45,4 +45,19 @@ public interface AccountActivities {
     @ActivityMethod
     String deposit(String account, int amount, String referenceId) ;
 
+    /**
+     * Contacts the banking service and moves a specified amount of money
+     * from the sender's account to the recipient's account in a single
+     * request. This can only be used when the same service holds both
+     * accounts, and either both changes take place or neither does.
+     *
+     * @param sender identifies the account to be debited
+     * @param recipient identifies the account to be credited
+     * @param amount the amount to transfer
+     * @param referenceId a caller-specified identifier for this request
+     * @return A string containing the transaction ID for this operation
+     */
+    @ActivityMethod
+    String transfer(String sender, String recipient, int amount, String referenceId);
+
 }
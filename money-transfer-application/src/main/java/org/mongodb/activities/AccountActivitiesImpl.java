@@ -8,9 +8,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Implements the operations that are used to carry out the money transfer.
- * This class includes two Activities, each of which make a request to a
- * banking service. One does this for the withdrawal, while the other does
- * it for the deposit.
+ * This class includes three Activities, each of which make a request to a
+ * banking service. One does this for the withdrawal, another does it for
+ * the deposit, and the third does both together, for a transfer between
+ * two accounts held by the same service.
  */
 public class AccountActivitiesImpl implements AccountActivities {
     private static final Logger logger = LoggerFactory.getLogger(AccountActivitiesImpl.class);
@@ -53,4 +54,20 @@ public class AccountActivitiesImpl implements AccountActivities {
         logger.info("Deposit operation complete. Transaction ID is {}", transactionId);
         return transactionId;
     }
+
+    @Override
+    public String transfer(String sender, String recipient, int amount, String referenceId) {
+        logger.debug("Starting transfer operation");
+
+        String transactionId;
+        try {
+            transactionId = client.transfer(sender, recipient, amount, referenceId);
+        } catch (Exception e) {
+            logger.error("Transfer operation failed", e);
+            throw Activity.wrap(e);
+        }
+
+        logger.info("Transfer operation complete. Transaction ID is {}", transactionId);
+        return transactionId;
+    }
 }
@@ -1,41 +1,108 @@
 package org.mongodb.bankapi;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * This class provides Java methods for interacting with a bank through an
- * HTTP API.
+ * HTTP API. Requests are sent with an HttpClient that is meant to last for
+ * the life of the application, so that its connections are kept open and
+ * reused by later requests, rather than each request opening its own. By
+ * default, every instance shares a single HttpClient.
  */
 public class BankingApiClient {
 
     private static final Logger logger = LoggerFactory.getLogger(BankingApiClient.class);
 
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(2);
+
+    // less than the Activity's start-to-close timeout, so that a request that
+    // hangs fails in time for the Activity to be retried
+    public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(5);
+
+    private static final HttpClient SHARED_CLIENT = newHttpClient(DEFAULT_CONNECT_TIMEOUT);
+
     private final String hostname;
     private final int portNumber;
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
     private final MessageParser parser;
 
     /**
      * Creates a new instance that will access services on the specified
-     * host name and port number.
+     * host name and port number, using the shared HttpClient and the
+     * default timeouts.
      *
      * @param hostname host name on which the service is deployed
      * @param portNumber port number on which the service listed on that host
      */
     public BankingApiClient(String hostname, int portNumber) {
+        this(hostname, portNumber, SHARED_CLIENT, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * Creates a new instance that will access services on the specified
+     * host name and port number, with its own HttpClient.
+     *
+     * @param hostname host name on which the service is deployed
+     * @param portNumber port number on which the service listed on that host
+     * @param connectTimeout the longest time to wait to connect to the service
+     * @param requestTimeout the longest time to wait for a response, once
+     *        the request is sent
+     */
+    public BankingApiClient(String hostname, int portNumber, Duration connectTimeout, Duration requestTimeout) {
+        this(hostname, portNumber, newHttpClient(connectTimeout), requestTimeout);
+    }
+
+    /**
+     * Creates a new instance that will access services on the specified
+     * host name and port number, using the given HttpClient, which may be
+     * shared with other instances.
+     *
+     * @param hostname host name on which the service is deployed
+     * @param portNumber port number on which the service listed on that host
+     * @param httpClient sends the requests
+     * @param requestTimeout the longest time to wait for a response, once
+     *        the request is sent
+     */
+    public BankingApiClient(String hostname, int portNumber, HttpClient httpClient, Duration requestTimeout) {
         this.hostname = hostname;
         this.portNumber = portNumber;
+        this.httpClient = httpClient;
+        this.requestTimeout = requestTimeout;
         parser = new MessageParser();
     }
 
+    /**
+     * Creates an HttpClient suitable for sharing among instances of this
+     * class. It uses HTTP/2 where the service supports it, in which case
+     * concurrent requests share one connection, and otherwise falls back to
+     * HTTP/1.1, keeping connections open for reuse.
+     *
+     * @param connectTimeout the longest time to wait to connect to the service
+     */
+    public static HttpClient newHttpClient(Duration connectTimeout) {
+        return HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(connectTimeout)
+            .build();
+    }
+
     /**
      * Return the current balance for the specified bank account. In addition to the IOException,
      * it may throw NoSuchAccountException (if the account is unknown) or AccountOperationException,
@@ -46,10 +113,7 @@ public class BankingApiClient {
      * @return the current balance of the specified account.
      */
     public int getBalance(String bankName) throws IOException {
-        String name = URLEncoder.encode(bankName, StandardCharsets.UTF_8);
-        String url = String.format("http://%s:%d/api/balance?bankName=%s", hostname, portNumber, name);
-
-        String body = callService(url);
+        String body = callService(balanceUrl(bankName));
         int balance = parser.parseBalanceResponse(body);
 
         return balance;
@@ -70,12 +134,7 @@ public class BankingApiClient {
      * @throws IOException if it encounters failure while making the call or parsing the response
      */
     public String deposit(String bankName, int amount, String idempotencyKey) throws IOException {
-        String name = URLEncoder.encode(bankName, StandardCharsets.UTF_8);
-        String key = URLEncoder.encode(idempotencyKey, StandardCharsets.UTF_8);
-        String baseUrl = "http://%s:%d/api/deposit?bankName=%s&amount=%d&idempotencyKey=%s";
-        String url = String.format(baseUrl, hostname, portNumber, name, amount, key);
-
-        String body = callService(url);
+        String body = callService(transactionUrl("deposit", bankName, amount, idempotencyKey));
         String transactionId = parser.parseDepositResponse(body);
 
         return transactionId;
@@ -96,32 +155,187 @@ public class BankingApiClient {
      * @throws Exception if a problem is encountered during the request
      */
     public String withdraw(String bankName, int amount, String idempotencyKey) throws Exception {
-        String name = URLEncoder.encode(bankName, StandardCharsets.UTF_8);
-        String key = URLEncoder.encode(idempotencyKey, StandardCharsets.UTF_8);
-        String baseUrl = "http://%s:%d/api/withdraw?bankName=%s&amount=%d&idempotencyKey=%s";
-        String url = String.format(baseUrl, hostname, portNumber, name, amount, key);
-
-        String body = callService(url);
+        String body = callService(transactionUrl("withdraw", bankName, amount, idempotencyKey));
         String transactionId = parser.parseWithdrawResponse(body);
 
         return transactionId;
     }
 
+    /**
+     * Requests a transfer of the specified amount from one account to another, both of which
+     * must be held by this service. The withdrawal and deposit are applied together, so either
+     * both take place or neither does. The idempotency key is used to identify duplicate requests,
+     * as for a withdrawal. In addition to IOException, it may throw InsufficientFundsException
+     * (if the amount exceeds the sender's balance), NoSuchAccountException (if either account is
+     * unknown) or AccountOperationException (for other types of application-level failures)
+     *
+     * @param fromBank the account from which the money should be debited
+     * @param toBank the account to which the money should be credited
+     * @param amount the quantity of money to transfer
+     * @param idempotencyKey a user-specified unique key for this request
+     * @return the transaction ID for the transfer
+     * @throws IOException if it encounters failure while making the call or parsing the response
+     */
+    public String transfer(String fromBank, String toBank, int amount, String idempotencyKey) throws IOException {
+        String body = callService(transferUrl(fromBank, toBank, amount, idempotencyKey));
+        String transactionId = parser.parseTransferResponse(body);
+
+        return transactionId;
+    }
+
+    /**
+     * Sends several deposits, withdrawals and balance inquiries in a single
+     * request. The deposits and withdrawals for each account are written
+     * together, while balance inquiries reflect the deposits and withdrawals
+     * in the same batch. As with the individual methods, each deposit and
+     * withdrawal must have its own idempotency key.
+     *
+     * @param operations the operations to perform
+     * @return the result of each operation, in the same order as the operations
+     * @throws IOException if it encounters failure while making the call or parsing the response
+     */
+    public List<BatchResult> batch(List<BatchOperation> operations) throws IOException {
+        StringWriter requestBody = new StringWriter();
+        try (JsonGenerator generator = MessageParser.FACTORY.createGenerator(requestBody)) {
+            generator.writeStartArray();
+            for (BatchOperation operation : operations) {
+                generator.writeStartObject();
+                generator.writeStringField("type", operation.getType());
+                generator.writeStringField("bankName", operation.getBankName());
+                if (!"balance".equals(operation.getType())) {
+                    generator.writeNumberField("amount", operation.getAmount());
+                    generator.writeStringField("idempotencyKey", operation.getIdempotencyKey());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+
+        String url = String.format("http://%s:%d/api/batch", hostname, portNumber);
+        String body = callService(url, requestBody.toString());
+        return parser.parseBatchResponse(body);
+    }
+
+    /**
+     * Requests the current balance of the specified account without waiting
+     * for the response. The future completes with the balance, or fails with
+     * the exception that getBalance would throw, wrapped in a
+     * CompletionException.
+     *
+     * @param bankName identifies the account for which the balance is being requested
+     * @return a future that completes with the current balance
+     */
+    public CompletableFuture<Integer> getBalanceAsync(String bankName) {
+        return sendAsync(balanceUrl(bankName), parser::parseBalanceResponse);
+    }
+
+    /**
+     * Requests a deposit without waiting for the response, otherwise as for
+     * deposit. The future fails with the exception that deposit would throw,
+     * wrapped in a CompletionException.
+     *
+     * @return a future that completes with the transaction ID for the deposit
+     */
+    public CompletableFuture<String> depositAsync(String bankName, int amount, String idempotencyKey) {
+        return sendAsync(transactionUrl("deposit", bankName, amount, idempotencyKey), parser::parseDepositResponse);
+    }
+
+    /**
+     * Requests a withdrawal without waiting for the response, otherwise as
+     * for withdraw. The future fails with the exception that withdraw would
+     * throw, wrapped in a CompletionException.
+     *
+     * @return a future that completes with the transaction ID for the withdrawal
+     */
+    public CompletableFuture<String> withdrawAsync(String bankName, int amount, String idempotencyKey) {
+        return sendAsync(transactionUrl("withdraw", bankName, amount, idempotencyKey), parser::parseWithdrawResponse);
+    }
+
+    /**
+     * Requests a transfer without waiting for the response, otherwise as for
+     * transfer. The future fails with the exception that transfer would
+     * throw, wrapped in a CompletionException.
+     *
+     * @return a future that completes with the transaction ID for the transfer
+     */
+    public CompletableFuture<String> transferAsync(String fromBank, String toBank, int amount, String idempotencyKey) {
+        return sendAsync(transferUrl(fromBank, toBank, amount, idempotencyKey), parser::parseTransferResponse);
+    }
+
+    private String balanceUrl(String bankName) {
+        String name = URLEncoder.encode(bankName, StandardCharsets.UTF_8);
+        return String.format("http://%s:%d/api/balance?bankName=%s", hostname, portNumber, name);
+    }
+
+    // the URL for a deposit or withdrawal, depending on the operation
+    private String transactionUrl(String operation, String bankName, int amount, String idempotencyKey) {
+        String name = URLEncoder.encode(bankName, StandardCharsets.UTF_8);
+        String key = URLEncoder.encode(idempotencyKey, StandardCharsets.UTF_8);
+        String baseUrl = "http://%s:%d/api/%s?bankName=%s&amount=%d&idempotencyKey=%s";
+        return String.format(baseUrl, hostname, portNumber, operation, name, amount, key);
+    }
+
+    private String transferUrl(String fromBank, String toBank, int amount, String idempotencyKey) {
+        String from = URLEncoder.encode(fromBank, StandardCharsets.UTF_8);
+        String to = URLEncoder.encode(toBank, StandardCharsets.UTF_8);
+        String key = URLEncoder.encode(idempotencyKey, StandardCharsets.UTF_8);
+        String baseUrl = "http://%s:%d/api/transfer?fromBank=%s&toBank=%s&amount=%d&idempotencyKey=%s";
+        return String.format(baseUrl, hostname, portNumber, from, to, amount, key);
+    }
+
     private String callService(String serviceUrl) throws IOException {
-        logger.debug("Making call to URL {}", serviceUrl);
+        return callService(serviceUrl, null);
+    }
 
-        URI uri = URI.create(serviceUrl);
-        HttpClient client = HttpClient.newHttpClient();
-        HttpRequest request = HttpRequest.newBuilder().uri(uri).build();
+    // sends a GET request or, if there is a request body, a POST request
+    private String callService(String serviceUrl, String requestBody) throws IOException {
+        logger.debug("Making call to URL {}", serviceUrl);
 
         String body;
         try {
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = httpClient.send(newRequest(serviceUrl, requestBody), HttpResponse.BodyHandlers.ofString());
             body = response.body();
         } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
             throw new IOException("HTTP Client operation interrupted", ie);
         }
 
         return body;
     }
-}
\ No newline at end of file
+
+    /**
+     * Sends a GET request without waiting for the response. The future
+     * completes with the value that the parser reads from the response, or
+     * fails with the exception that the parser throws, or with an IOException
+     * if the request could not be made, wrapped in a CompletionException.
+     */
+    private <T> CompletableFuture<T> sendAsync(String serviceUrl, ResponseParser<T> responseParser) {
+        logger.debug("Making asynchronous call to URL {}", serviceUrl);
+
+        return httpClient.sendAsync(newRequest(serviceUrl, null), HttpResponse.BodyHandlers.ofString())
+            .thenApply(response -> {
+                try {
+                    return responseParser.parse(response.body());
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+    }
+
+    // a GET request or, if there is a request body, a POST request
+    private HttpRequest newRequest(String serviceUrl, String requestBody) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+            .uri(URI.create(serviceUrl))
+            .timeout(requestTimeout);
+        if (requestBody != null) {
+            builder.header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody));
+        }
+        return builder.build();
+    }
+
+    @FunctionalInterface
+    private interface ResponseParser<T> {
+        T parse(String body) throws IOException;
+    }
+}
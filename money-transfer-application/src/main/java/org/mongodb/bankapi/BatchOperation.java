@@ -0,0 +1,67 @@
+package org.mongodb.bankapi;
+
+/**
+ * One operation within a batch request sent through the BankingApiClient.
+ * Instances are created through the static factory methods.
+ */
+public class BatchOperation {
+
+    private final String type;
+    private final String bankName;
+    private final int amount;
+    private final String idempotencyKey;
+
+    private BatchOperation(String type, String bankName, int amount, String idempotencyKey) {
+        this.type = type;
+        this.bankName = bankName;
+        this.amount = amount;
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    /**
+     * Creates an operation that deposits the specified amount into the account.
+     *
+     * @param bankName the account to which the money should be credited
+     * @param amount the quantity by which the account balance should be increased
+     * @param idempotencyKey a user-specified unique key for this operation
+     */
+    public static BatchOperation deposit(String bankName, int amount, String idempotencyKey) {
+        return new BatchOperation("deposit", bankName, amount, idempotencyKey);
+    }
+
+    /**
+     * Creates an operation that withdraws the specified amount from the account.
+     *
+     * @param bankName the account from which the money should be debited
+     * @param amount the quantity by which the account balance should be decreased
+     * @param idempotencyKey a user-specified unique key for this operation
+     */
+    public static BatchOperation withdraw(String bankName, int amount, String idempotencyKey) {
+        return new BatchOperation("withdraw", bankName, amount, idempotencyKey);
+    }
+
+    /**
+     * Creates an operation that retrieves the balance of the account.
+     *
+     * @param bankName identifies the account for which the balance is being requested
+     */
+    public static BatchOperation balance(String bankName) {
+        return new BatchOperation("balance", bankName, 0, null);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getBankName() {
+        return bankName;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+}
@@ -0,0 +1,46 @@
+package org.mongodb.bankapi;
+
+import org.mongodb.exceptions.AccountOperationException;
+
+/**
+ * The outcome of one operation within a batch request. A successful deposit
+ * or withdrawal has a transaction ID, while a successful balance inquiry has
+ * a balance. An unsuccessful operation has an error, which is an instance of
+ * the same exception type that the corresponding individual call would throw.
+ */
+public class BatchResult {
+
+    private final String transactionId;
+    private final int balance;
+    private final AccountOperationException error;
+
+    BatchResult(String transactionId, int balance, AccountOperationException error) {
+        this.transactionId = transactionId;
+        this.balance = balance;
+        this.error = error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public int getBalance() {
+        return balance;
+    }
+
+    public AccountOperationException getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        if (error != null) {
+            return "BatchResult {error=" + error.getMessage() + "}";
+        }
+        return "BatchResult {transactionId=" + transactionId + ", balance=" + balance + "}";
+    }
+}
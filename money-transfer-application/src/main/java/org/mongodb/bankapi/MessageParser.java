@@ -1,78 +1,199 @@
 package org.mongodb.bankapi;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import org.mongodb.exceptions.AccountOperationException;
+import org.mongodb.exceptions.AccountUnavailableException;
 import org.mongodb.exceptions.InsufficientFundsException;
 import org.mongodb.exceptions.NoSuchAccountException;
 
 import java.io.IOException;
-
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the responses returned by the banking service. Each response is read
+ * as a stream of tokens, keeping only the fields used here, rather than being
+ * built into a tree first. Errors are classified by the errorCode field, or by
+ * the text of the message for services that predate it.
+ */
 public class MessageParser {
 
-    private final String SUCCESS = "SUCCESS"; // service returns this to indicate success
+    private static final String SUCCESS = "SUCCESS"; // service returns this to indicate success
 
-    int parseBalanceResponse(String body) throws IOException, NoSuchAccountException, AccountOperationException {
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode bodyNode = mapper.readTree(body);
-        JsonNode statusNode = bodyNode.get("status");
+    // thread-safe, and costly to create, so shared by every parser, and by
+    // the client to write the body of a batch request
+    static final JsonFactory FACTORY = new JsonFactory();
 
-        if (! SUCCESS.equals(statusNode.asText())) {
-            String message = bodyNode.get("message").asText();
+    int parseBalanceResponse(String body) throws IOException, NoSuchAccountException, AccountOperationException {
+        Response response = parse(body);
+        if (!response.isSuccess()) {
+            throw response.getError();
+        }
+        return response.balance;
+    }
 
-            if (message.contains("IllegalArgumentException:")
-                    && message.contains("does not exist.")) {
-                String detail = message.substring(message.indexOf(":") + 1);
-                throw new NoSuchAccountException(detail);
-            }
+    String parseDepositResponse(String body) throws IOException, NoSuchAccountException, AccountOperationException {
+        Response response = parse(body);
+        if (!response.isSuccess()) {
+            throw response.getError();
+        }
+        return response.transactionId;
+    }
 
-            // Some business-level failure we don't yet recognize
-            throw new AccountOperationException(message);
+    String parseWithdrawResponse(String body) throws IOException, NoSuchAccountException, InsufficientFundsException, AccountOperationException {
+        Response response = parse(body);
+        if (!response.isSuccess()) {
+            throw response.getError();
         }
+        return response.transactionId;
+    }
 
-        return bodyNode.get("balance").asInt();
+    String parseTransferResponse(String body) throws IOException, NoSuchAccountException, InsufficientFundsException, AccountOperationException {
+        // a transfer can fail in the same ways as a withdrawal
+        return parseWithdrawResponse(body);
     }
 
-    String parseDepositResponse(String body) throws IOException, NoSuchAccountException, AccountOperationException {
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode bodyNode = mapper.readTree(body);
-        JsonNode statusNode = bodyNode.get("status");
-
-        if (! SUCCESS.equals(statusNode.asText())) {
-            String message = bodyNode.get("message").asText();
-            if (message.contains("IllegalArgumentException:")
-                    && message.contains("does not exist.")) {
-                String detail = message.substring(message.indexOf(":") + 1);
-                throw new NoSuchAccountException(detail);
+    List<BatchResult> parseBatchResponse(String body) throws IOException, AccountOperationException {
+        Response response = parse(body);
+        if (!response.isSuccess()) {
+            // the batch as a whole failed, for example because it was malformed
+            throw new AccountOperationException(response.message);
+        }
+        if (response.results == null) {
+            throw new IOException("Batch response has no results");
+        }
+
+        List<BatchResult> results = new ArrayList<>(response.results.size());
+        for (Response result : response.results) {
+            if (result.isSuccess()) {
+                results.add(new BatchResult(result.transactionId, result.balance, null));
+            } else {
+                results.add(new BatchResult(null, 0, result.getError()));
             }
+        }
+        return results;
+    }
 
-            // Some business-level failure we don't yet recognize
-            throw new AccountOperationException(message);
+    private static Response parse(String body) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Response is not a JSON object: " + body);
+            }
+            Response response = readResponse(parser);
+            if (response.status == null) {
+                throw new IOException("Response has no status: " + body);
+            }
+            return response;
         }
+    }
 
-        return bodyNode.get("transactionId").asText();
+    /**
+     * Reads the fields of the object at which the parser is positioned,
+     * skipping any that are not used.
+     */
+    private static Response readResponse(JsonParser parser) throws IOException {
+        Response response = new Response();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "status":
+                    response.status = parser.getValueAsString();
+                    break;
+                case "errorCode":
+                    response.errorCode = parser.getValueAsString();
+                    break;
+                case "message":
+                    response.message = parser.getValueAsString();
+                    break;
+                case "transactionId":
+                    response.transactionId = parser.getValueAsString();
+                    break;
+                case "balance":
+                    response.balance = parser.getValueAsInt();
+                    break;
+                case "results":
+                    if (value == JsonToken.START_ARRAY) {
+                        response.results = new ArrayList<>();
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            response.results.add(readResponse(parser));
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return response;
     }
 
-    String parseWithdrawResponse(String body) throws IOException, NoSuchAccountException, InsufficientFundsException, AccountOperationException {
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode bodyNode = mapper.readTree(body);
-        JsonNode statusNode = bodyNode.get("status");
-
-        if (!SUCCESS.equals(statusNode.asText())) {
-            String message = bodyNode.get("message").asText();
-            if (message.contains("InsufficientFundsException:")) {
-                String detail = message.substring(message.indexOf(":") + 1);
-                throw new InsufficientFundsException(detail);
-            } else if (message.contains("IllegalArgumentException:")
-                    && message.contains("does not exist.")) {
-                String detail = message.substring(message.indexOf(":") + 1);
-                throw new NoSuchAccountException(detail);
+    /**
+     * The fields of a response, or of one result within a batch response.
+     */
+    private static class Response {
+        private String status;
+        private String errorCode;
+        private String message;
+        private String transactionId;
+        private int balance;
+        private List<Response> results;
+
+        boolean isSuccess() {
+            return SUCCESS.equals(status);
+        }
+
+        AccountOperationException getError() {
+            if (errorCode != null) {
+                return classifyError(errorCode, detail(message));
             }
+            return classifyLegacyError(message);
+        }
+    }
+
+    private static AccountOperationException classifyError(String errorCode, String detail) {
+        switch (errorCode) {
+            case "INSUFFICIENT_FUNDS":
+                return new InsufficientFundsException(detail);
+            case "NO_SUCH_ACCOUNT":
+                return new NoSuchAccountException(detail);
+            case "UNAVAILABLE":
+                return new AccountUnavailableException(detail);
+            default:
+                // Some business-level failure we don't yet recognize
+                return new AccountOperationException(detail);
+        }
+    }
 
-            // Some business-level failure we don't yet recognize
-            throw new AccountOperationException(message);
+    /**
+     * Classifies an error from a service that does not send an errorCode,
+     * using the name of the exception in its message.
+     */
+    private static AccountOperationException classifyLegacyError(String message) {
+        if (message == null) {
+            return new AccountOperationException("Service returned an error without a message");
+        } else if (message.contains("InsufficientFundsException:")) {
+            return new InsufficientFundsException(detail(message));
+        } else if (message.contains("IllegalArgumentException:")
+                && message.contains("does not exist.")) {
+            return new NoSuchAccountException(detail(message));
         }
 
-        return bodyNode.get("transactionId").asText();
+        // Some business-level failure we don't yet recognize
+        return new AccountOperationException(message);
+    }
+
+    /**
+     * Removes the exception class name with which the service prefixes the
+     * message.
+     */
+    private static String detail(String message) {
+        if (message == null) {
+            return null;
+        }
+        return message.substring(message.indexOf(":") + 1);
     }
 }
@@ -0,0 +1,12 @@
+package org.mongodb.exceptions;
+
+/**
+ * This exception is thrown when the account cannot accept the operation
+ * for now, such as while it is marked unavailable. Unlike other failures,
+ * the same operation may succeed if it is retried later.
+ */
+public class AccountUnavailableException extends AccountOperationException {
+    public AccountUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -5,7 +5,8 @@ import java.util.Objects;
 /**
  * This class holds input data for a money transfer. It identifies the sender,
  * recipient, and amount of the transfer, as well as a reference ID that uniquely
- * identifies this transfer.
+ * identifies this transfer. It also indicates whether the same banking service
+ * holds both accounts, in which case the transfer can be done in one request.
  */
 public class TransferDetails {
 
@@ -13,6 +14,7 @@ public class TransferDetails {
     private String recipient;
     private String referenceId;
     private int amount;
+    private boolean sameService;
 
     public TransferDetails() {
     }
@@ -24,6 +26,11 @@ public class TransferDetails {
         this.referenceId = referenceId;
     }
 
+    public TransferDetails(String sender, String recipient, int amount, String referenceId, boolean sameService) {
+        this(sender, recipient, amount, referenceId);
+        this.sameService = sameService;
+    }
+
     public String getSender() {
         return sender;
     }
@@ -40,17 +47,21 @@ public class TransferDetails {
         return referenceId;
     }
 
+    public boolean isSameService() {
+        return sameService;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         TransferDetails that = (TransferDetails) o;
-        return amount == that.amount && Objects.equals(sender, that.sender) && Objects.equals(recipient, that.recipient) && Objects.equals(referenceId, that.referenceId);
+        return amount == that.amount && sameService == that.sameService && Objects.equals(sender, that.sender) && Objects.equals(recipient, that.recipient) && Objects.equals(referenceId, that.referenceId);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(sender, recipient, referenceId, amount);
+        return Objects.hash(sender, recipient, referenceId, amount, sameService);
     }
 
     @Override
@@ -61,7 +72,8 @@ public class TransferDetails {
         sb.append(String.format("sender='%s', ", sender));
         sb.append(String.format("recipient='%s', ", recipient));
         sb.append(String.format("amount='%d', ", amount));
-        sb.append(String.format("referenceId='%s'}", referenceId));
+        sb.append(String.format("referenceId='%s', ", referenceId));
+        sb.append(String.format("sameService='%b'}", sameService));
 
         return sb.toString();
     }
@@ -49,6 +49,20 @@ public class MoneyTransferWorkflowImpl implements MoneyTransferWorkflow {
         // is invoked and sets hasManagerApproval to true, causing the Workflow to proceed.
         Workflow.await(() -> hasManagerApproval);
 
+        // When the same banking service holds both accounts, it can perform the withdrawal
+        // and deposit together, which requires only one Activity.
+        if (input.isSameService()) {
+            logger.info("Starting transfer operation");
+            String transferKey = String.format("transfer-for-%s", input.getReferenceId());
+            String transferResult = activitiesStub.transfer(input.getSender(), input.getRecipient(),
+                    input.getAmount(), transferKey);
+
+            String confirmation = String.format("transfer=%s", transferResult);
+
+            logger.info("Money Transfer Workflow now complete. Confirmation: {}", confirmation);
+            return confirmation;
+        }
+
         // withdraw money from the sender's account (this returns a transaction ID).
         logger.info("Starting withdraw operation");
         String withdrawKey = String.format("withdrawal-for-%s", input.getReferenceId());
@@ -1,7 +1,10 @@
 package org.mongodb;
 
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -98,4 +101,27 @@ public class MoneyTransferWorkflowTest {
         verify(activities, times(1)).deposit(input.getRecipient(), input.getAmount(), input.getReferenceId());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testSameServiceTransfer() {
+        AccountActivities activities = mock(AccountActivitiesImpl.class);
+        worker.registerActivitiesImplementations(activities);
+        testEnv.start();
+
+        TransferDetails input = new TransferDetails("erin", "frank", 100, "def456", true);
+        WorkflowOptions options = WorkflowOptions.newBuilder()
+                .setTaskQueue(ApplicationWorker.TASK_QUEUE_NAME)
+                .setWorkflowId("transfer-workflow-" + input.getReferenceId())
+                .build();
+
+        MoneyTransferWorkflow workflow = workflowClient.newWorkflowStub(MoneyTransferWorkflow.class, options);
+
+        String confirmation = workflow.transfer(input);
+        assertTrue(confirmation.contains("transfer="));
+
+        // The service performed the transfer, so no separate withdrawal or deposit took place
+        verify(activities, times(1)).transfer(input.getSender(), input.getRecipient(), input.getAmount(),
+                "transfer-for-" + input.getReferenceId());
+        verify(activities, never()).withdraw(anyString(), anyInt(), anyString());
+        verify(activities, never()).deposit(anyString(), anyInt(), anyString());
+    }
+}
@@ -3,10 +3,13 @@ package org.mongodb.bankapi;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mongodb.exceptions.AccountOperationException;
+import org.mongodb.exceptions.AccountUnavailableException;
 import org.mongodb.exceptions.InsufficientFundsException;
 import org.mongodb.exceptions.NoSuchAccountException;
 
 import java.io.IOException;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -71,4 +74,79 @@ public class MessageParserTest {
         NoSuchAccountException e = assertThrows(NoSuchAccountException.class, () -> parser.parseWithdrawResponse(body));
         assertTrue(e.getMessage().contains("Bank with name 'Bogus' does not exist."));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void parseBatchResponse() throws IOException {
+        String body = "{\"status\":\"SUCCESS\",\"results\":[" +
+                "{\"status\":\"SUCCESS\",\"transactionId\":\"D5393255438\"}," +
+                "{\"status\":\"ERROR\",\"message\":\"org.mongodb.banking.exceptions.InsufficientFundsException: " +
+                "Insufficient funds: balance=100, withdrawal=250\"}," +
+                "{\"status\":\"SUCCESS\",\"balance\":925}]}";
+
+        List<BatchResult> results = parser.parseBatchResponse(body);
+        assertEquals(3, results.size());
+
+        assertTrue(results.get(0).isSuccess());
+        assertEquals("D5393255438", results.get(0).getTransactionId());
+
+        assertFalse(results.get(1).isSuccess());
+        assertTrue(results.get(1).getError() instanceof InsufficientFundsException);
+
+        assertTrue(results.get(2).isSuccess());
+        assertEquals(925, results.get(2).getBalance());
+    }
+
+    @Test
+    public void parseWithdrawResponseErrorCodeInsufficientFunds() throws IOException {
+        String body = "{\"status\":\"ERROR\",\"errorCode\":\"INSUFFICIENT_FUNDS\",\"message\":" +
+                "\"org.mongodb.banking.exceptions.InsufficientFundsException: " +
+                "Insufficient funds: balance=500, withdrawal=750\"}";
+        InsufficientFundsException e = assertThrows(InsufficientFundsException.class, () -> parser.parseWithdrawResponse(body));
+        assertEquals(" Insufficient funds: balance=500, withdrawal=750", e.getMessage());
+    }
+
+    @Test
+    public void parseDepositResponseErrorCodeNoSuchAccount() throws IOException {
+        String body = "{\"status\":\"ERROR\",\"errorCode\":\"NO_SUCH_ACCOUNT\",\"message\":" +
+                "\"org.mongodb.banking.exceptions.NoSuchAccountException: " +
+                "Bank with name 'Bogus' does not exist.\"}";
+        NoSuchAccountException e = assertThrows(NoSuchAccountException.class, () -> parser.parseDepositResponse(body));
+        assertEquals(" Bank with name 'Bogus' does not exist.", e.getMessage());
+    }
+
+    @Test
+    public void parseResponseUnavailableErrorCode() throws IOException {
+        String body = "{\"status\":\"ERROR\",\"errorCode\":\"UNAVAILABLE\",\"message\":" +
+                "\"org.mongodb.banking.exceptions.AccountUnavailableException: Bank 'Maria' is currently unavailable.\"}";
+        AccountUnavailableException e = assertThrows(AccountUnavailableException.class, () -> parser.parseDepositResponse(body));
+        assertEquals(" Bank 'Maria' is currently unavailable.", e.getMessage());
+    }
+
+    @Test
+    public void parseResponseUnrecognizedErrorCode() throws IOException {
+        // the code takes precedence over the text of the message
+        String body = "{\"status\":\"ERROR\",\"errorCode\":\"INTERNAL\",\"message\":" +
+                "\"java.lang.RuntimeException: not an InsufficientFundsException: at all\"}";
+        AccountOperationException e = assertThrows(AccountOperationException.class, () -> parser.parseWithdrawResponse(body));
+        assertEquals(AccountOperationException.class, e.getClass());
+    }
+
+    @Test
+    public void parseResponseIgnoresUnknownFields() throws IOException {
+        String body = "{\"extra\":{\"nested\":[1,2,{\"balance\":1}]},\"status\":\"SUCCESS\",\"balance\":925,\"more\":[]}";
+        assertEquals(925, parser.parseBalanceResponse(body));
+    }
+
+    @Test
+    public void parseBatchResponseErrorCode() throws IOException {
+        String body = "{\"status\":\"SUCCESS\",\"results\":[" +
+                "{\"status\":\"ERROR\",\"errorCode\":\"NO_SUCH_ACCOUNT\",\"message\":" +
+                "\"org.mongodb.banking.exceptions.NoSuchAccountException: Bank with name 'Bogus' does not exist.\"}," +
+                "{\"status\":\"SUCCESS\",\"transactionId\":\"W3468134039\"}]}";
+
+        List<BatchResult> results = parser.parseBatchResponse(body);
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).getError() instanceof NoSuchAccountException);
+        assertEquals("W3468134039", results.get(1).getTransactionId());
+    }
+}
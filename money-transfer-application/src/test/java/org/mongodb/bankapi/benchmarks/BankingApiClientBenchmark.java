@@ -0,0 +1,103 @@
+package org.mongodb.bankapi.benchmarks;
+
+import org.mongodb.bankapi.BankingApiClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of deposits, as made by the Activities, against a
+ * banking service running on localhost:8480. It compares the original way of
+ * sending each request, with a new HttpClient every time; a shared HttpClient,
+ * which reuses its connections; and the same shared client sending several
+ * requests at once without waiting for each response. Against a service using
+ * the in-memory repository, this measures only the cost of the client and of
+ * HTTP, since no request waits for MongoDB; start it with MongoDB to measure
+ * what the Activities would see. Start the service first, then run:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.mongodb.bankapi.benchmarks.BankingApiClientBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class BankingApiClientBenchmark {
+
+    private static final String HOSTNAME = "localhost";
+    private static final int PORT = 8480;
+
+    // the number of deposits each asynchronous invocation has in progress at once
+    private static final int CONCURRENT = 16;
+
+    private final AtomicLong keys = new AtomicLong();
+    private final String bankName = "Benchmark-" + UUID.randomUUID();
+    private final BankingApiClient sharedClient = new BankingApiClient(HOSTNAME, PORT);
+
+    @Setup
+    public void createAccount() throws Exception {
+        String url = String.format("http://%s:%d/api/createBank?bankName=%s&initialBalance=0", HOSTNAME, PORT, bankName);
+        HttpResponse<String> response = HttpClient.newHttpClient().send(
+            HttpRequest.newBuilder(URI.create(url)).build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Unable to create account: " + response.body());
+        }
+    }
+
+    @Benchmark
+    public String newClientPerRequest() throws Exception {
+        BankingApiClient client = new BankingApiClient(HOSTNAME, PORT, HttpClient.newHttpClient(),
+            BankingApiClient.DEFAULT_REQUEST_TIMEOUT);
+        return client.deposit(bankName, 1, nextKey());
+    }
+
+    @Benchmark
+    public String sharedClient() throws Exception {
+        return sharedClient.deposit(bankName, 1, nextKey());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENT)
+    public void sharedClientAsync() {
+        CompletableFuture<?>[] deposits = new CompletableFuture<?>[CONCURRENT];
+        for (int i = 0; i < CONCURRENT; i++) {
+            deposits[i] = sharedClient.depositAsync(bankName, 1, nextKey());
+        }
+        CompletableFuture.allOf(deposits).join();
+    }
+
+    private String nextKey() {
+        return bankName + "-" + keys.incrementAndGet();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(BankingApiClientBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}